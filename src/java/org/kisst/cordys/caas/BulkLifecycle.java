@@ -0,0 +1,532 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.support.CordysObject;
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class starts, stops or restarts a set of service containers in parallel. The number of operations that run at the same
+ * time on a single machine is limited, so the machines are not overloaded. After starting a service container, the status
+ * snapshot of the system is polled until it reports the service container as started.
+ * <p>
+ * In rolling mode a restart keeps a given number of service containers of every service group running. A service container is
+ * only restarted when enough of the other service containers of its group are up, and it counts as down until it is started again.
+ * </p>
+ * <p>
+ * The defaults are set with the properties caas.lifecycle.permachine (default 2), caas.lifecycle.timeout (default 300000
+ * milliseconds) and caas.lifecycle.pollinterval (default 2000 milliseconds). A typical use from a script is:
+ *
+ * <pre>
+ * new BulkLifecycle(sys.sc.like(&quot;*Relay*&quot;)).setPerMachine(4).setRolling(1).restart()
+ * </pre>
+ *
+ * </p>
+ */
+public class BulkLifecycle
+{
+    /** Holds the status of a running service container. */
+    private static final String STARTED = "Started";
+
+    /**
+     * The operations that can be done on the service containers.
+     */
+    public static enum Operation
+    {
+        START, STOP, RESTART
+    }
+
+    /**
+     * Holds the outcome of the operation on a single service container.
+     */
+    public static class Result
+    {
+        /** Holds the service container. */
+        private final ServiceContainer container;
+        /** Holds the time at which the operation started. */
+        private long startTime;
+        /** Holds the duration of the operation, including waiting for the service container to be ready. */
+        private long duration;
+        /** Holds the status after the operation. */
+        private String status;
+        /** Holds the error, or null if the operation succeeded. */
+        private Throwable error;
+
+        /**
+         * Instantiates a new result.
+         *
+         * @param container The service container.
+         */
+        private Result(ServiceContainer container)
+        {
+            this.container = container;
+        }
+
+        /**
+         * This method gets the service container.
+         *
+         * @return The service container.
+         */
+        public ServiceContainer getContainer()
+        {
+            return container;
+        }
+
+        /**
+         * This method gets the time at which the operation started.
+         *
+         * @return The time in milliseconds.
+         */
+        public long getStartTime()
+        {
+            return startTime;
+        }
+
+        /**
+         * This method gets the duration of the operation, including waiting for the service container to be ready.
+         *
+         * @return The duration in milliseconds.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * This method gets the last known status of the service container.
+         *
+         * @return The status.
+         */
+        public String getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * This method gets the error.
+         *
+         * @return The error, or null if the operation succeeded.
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        /**
+         * This method returns whether the operation succeeded.
+         *
+         * @return true if the operation succeeded.
+         */
+        public boolean isSuccess()
+        {
+            return error == null;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%-50s %-20s %8.1fs  %s", container.getName(), container.computer.get(), duration / 1000.0,
+                    error == null ? status : "FAILED: " + error.getMessage());
+        }
+    }
+
+    /**
+     * Holds the outcome of a bulk operation.
+     */
+    public static class Report
+    {
+        /** Holds the operation. */
+        private final Operation operation;
+        /** Holds the results, in the order of the service containers. */
+        private final List<Result> results;
+        /** Holds the total duration. */
+        private final long duration;
+
+        /**
+         * Instantiates a new report.
+         *
+         * @param operation The operation.
+         * @param results The results.
+         * @param duration The total duration.
+         */
+        private Report(Operation operation, List<Result> results, long duration)
+        {
+            this.operation = operation;
+            this.results = Collections.unmodifiableList(results);
+            this.duration = duration;
+        }
+
+        /**
+         * This method gets the results, in the order of the service containers.
+         *
+         * @return The results.
+         */
+        public List<Result> getResults()
+        {
+            return results;
+        }
+
+        /**
+         * This method gets the results of the failed operations.
+         *
+         * @return The failures.
+         */
+        public List<Result> getFailures()
+        {
+            ArrayList<Result> failures = new ArrayList<Result>();
+            for (Result r : results)
+            {
+                if (!r.isSuccess())
+                    failures.add(r);
+            }
+            return failures;
+        }
+
+        /**
+         * This method returns whether all operations succeeded.
+         *
+         * @return true if all operations succeeded.
+         */
+        public boolean isSuccess()
+        {
+            return getFailures().isEmpty();
+        }
+
+        /**
+         * This method gets the total duration.
+         *
+         * @return The duration in milliseconds.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            StringBuilder result = new StringBuilder();
+            long slowest = 0;
+            for (Result r : results)
+            {
+                result.append(r).append("\n");
+                slowest = Math.max(slowest, r.getDuration());
+            }
+            result.append(String.format("%s of %d service containers: %d failed, total %.1fs, slowest %.1fs", operation
+                    .toString().toLowerCase(), results.size(), getFailures().size(), duration / 1000.0, slowest / 1000.0));
+            return result.toString();
+        }
+    }
+
+    /** Holds the service containers. */
+    private final List<ServiceContainer> containers = new ArrayList<ServiceContainer>();
+    /** Holds the maximum number of operations at the same time per machine. */
+    private int perMachine;
+    /** Holds the number of service containers per service group that must stay up in rolling mode, or -1 if not rolling. */
+    private int keepUp = -1;
+    /** Holds the maximum time to wait for a service container to be ready. */
+    private long timeout;
+    /** Holds the time between two polls of the status. */
+    private long pollInterval;
+
+    /**
+     * Instantiates a new bulk lifecycle for the given service containers.
+     *
+     * @param containers The service containers, e.g. sys.sc or a service group's sc.
+     */
+    public BulkLifecycle(Iterable<ServiceContainer> containers)
+    {
+        for (ServiceContainer sc : containers)
+            this.containers.add(sc);
+        Environment env = Environment.get();
+        this.perMachine = Integer.parseInt(env.getProp("caas.lifecycle.permachine", "2"));
+        this.timeout = Long.parseLong(env.getProp("caas.lifecycle.timeout", "300000"));
+        this.pollInterval = Long.parseLong(env.getProp("caas.lifecycle.pollinterval", "2000"));
+    }
+
+    /**
+     * This method sets the maximum number of operations that run at the same time on a single machine.
+     *
+     * @param perMachine The number of operations per machine.
+     * @return This object.
+     */
+    public BulkLifecycle setPerMachine(int perMachine)
+    {
+        this.perMachine = perMachine < 1 ? 1 : perMachine;
+        return this;
+    }
+
+    /**
+     * This method turns on rolling mode, in which a restart keeps the given number of service containers of every service group
+     * running.
+     *
+     * @param keepUp The number of service containers per service group that must stay up.
+     * @return This object.
+     */
+    public BulkLifecycle setRolling(int keepUp)
+    {
+        this.keepUp = keepUp;
+        return this;
+    }
+
+    /**
+     * This method sets the maximum time to wait for a service container to be ready.
+     *
+     * @param timeout The timeout in milliseconds.
+     * @return This object.
+     */
+    public BulkLifecycle setTimeout(long timeout)
+    {
+        this.timeout = timeout;
+        return this;
+    }
+
+    /**
+     * This method sets the time between two polls of the status.
+     *
+     * @param pollInterval The interval in milliseconds.
+     * @return This object.
+     */
+    public BulkLifecycle setPollInterval(long pollInterval)
+    {
+        this.pollInterval = pollInterval;
+        return this;
+    }
+
+    /**
+     * This method starts all service containers and waits until they are ready.
+     *
+     * @return The report.
+     */
+    public Report start()
+    {
+        return run(Operation.START);
+    }
+
+    /**
+     * This method stops all service containers.
+     *
+     * @return The report.
+     */
+    public Report stop()
+    {
+        return run(Operation.STOP);
+    }
+
+    /**
+     * This method restarts all service containers and waits until they are ready.
+     *
+     * @return The report.
+     */
+    public Report restart()
+    {
+        return run(Operation.RESTART);
+    }
+
+    /**
+     * This method runs the given operation on all service containers.
+     *
+     * @param operation The operation.
+     * @return The report.
+     */
+    public Report run(final Operation operation)
+    {
+        long start = System.currentTimeMillis();
+        final ArrayList<Result> results = new ArrayList<Result>();
+
+        // Queue the service containers per machine, so every machine gets its own workers
+        LinkedHashMap<String, ConcurrentLinkedQueue<Result>> queues = new LinkedHashMap<String, ConcurrentLinkedQueue<Result>>();
+        for (ServiceContainer sc : containers)
+        {
+            Result r = new Result(sc);
+            results.add(r);
+            String machine = sc.computer.get();
+            ConcurrentLinkedQueue<Result> queue = queues.get(machine);
+            if (queue == null)
+            {
+                queue = new ConcurrentLinkedQueue<Result>();
+                queues.put(machine, queue);
+            }
+            queue.add(r);
+        }
+        final Map<CordysObject, Semaphore> groups = operation == Operation.RESTART && keepUp >= 0 ? createGroupPermits() : null;
+
+        int threads = 0;
+        for (ConcurrentLinkedQueue<Result> queue : queues.values())
+            threads += Math.min(perMachine, queue.size());
+        if (threads == 0)
+            return new Report(operation, results, 0);
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        try
+        {
+            for (final ConcurrentLinkedQueue<Result> queue : queues.values())
+            {
+                for (int i = Math.min(perMachine, queue.size()); i > 0; i--)
+                {
+                    pool.execute(new Runnable() {
+                        public void run()
+                        {
+                            try
+                            {
+                                Result r;
+                                while ((r = queue.poll()) != null)
+                                    execute(operation, r, groups == null ? null : groups.get(r.container.getParent()));
+                            }
+                            finally
+                            {
+                                done.countDown();
+                            }
+                        }
+                    });
+                }
+            }
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        return new Report(operation, results, System.currentTimeMillis() - start);
+    }
+
+    /**
+     * This method determines for every service group how many of its service containers may be down at the same time.
+     *
+     * @return The permits per service group.
+     */
+    private Map<CordysObject, Semaphore> createGroupPermits()
+    {
+        IdentityHashMap<CordysObject, Semaphore> result = new IdentityHashMap<CordysObject, Semaphore>();
+        for (ServiceContainer sc : containers)
+        {
+            CordysObject parent = sc.getParent();
+            if (result.containsKey(parent))
+                continue;
+            int size = 0;
+            if (parent instanceof ServiceGroup)
+                size = ((ServiceGroup) parent).serviceContainers.getSize();
+            else
+            {
+                for (ServiceContainer other : containers)
+                {
+                    if (other.getParent() == parent)
+                        size++;
+                }
+            }
+            int down = size - keepUp;
+            if (down < 1)
+            {
+                Environment.warn("Service group " + parent.getName() + " has only " + size + " service containers, they will be "
+                        + "restarted one at a time");
+                down = 1;
+            }
+            result.put(parent, new Semaphore(down, true));
+        }
+        return result;
+    }
+
+    /**
+     * This method runs the operation on a single service container and records the outcome.
+     *
+     * @param operation The operation.
+     * @param r The result to fill.
+     * @param groupPermits The permits of the service group in rolling mode, or null.
+     */
+    private void execute(Operation operation, Result r, Semaphore groupPermits)
+    {
+        ServiceContainer sc = r.container;
+        try
+        {
+            if (groupPermits != null)
+                groupPermits.acquire();
+            try
+            {
+                r.startTime = System.currentTimeMillis();
+                if (operation == Operation.START)
+                    sc.start();
+                else if (operation == Operation.STOP)
+                    sc.stop();
+                else
+                    sc.restart();
+                r.status = waitUntil(sc, operation != Operation.STOP);
+            }
+            finally
+            {
+                // In rolling mode the service container counts as down until it is ready again
+                if (groupPermits != null)
+                    groupPermits.release();
+            }
+        }
+        catch (Throwable e)
+        {
+            r.error = e;
+        }
+        r.duration = System.currentTimeMillis() - r.startTime;
+        if (r.error == null)
+            Environment.info(operation.toString().toLowerCase() + " of " + sc.getName() + " done in " + r.duration + "ms");
+        else
+            Environment.warn(operation.toString().toLowerCase() + " of " + sc.getName() + " failed: " + r.error.getMessage());
+    }
+
+    /**
+     * This method polls the status snapshot until the service container is started or stopped. All threads that are waiting share
+     * the same snapshot, so the monitors are asked once per poll interval at most.
+     *
+     * @param sc The service container.
+     * @param started true to wait until the service container is started, false to wait until it is no longer started.
+     * @return The final status.
+     * @throws InterruptedException When the thread is interrupted.
+     */
+    private String waitUntil(ServiceContainer sc, boolean started) throws InterruptedException
+    {
+        long since = System.currentTimeMillis();
+        long deadline = since + timeout;
+        CordysSystem system = sc.getSystem();
+        while (true)
+        {
+            // Only a snapshot that was taken after the operation returned tells anything about the new state
+            system.refreshServiceContainers(System.currentTimeMillis() - since);
+            XmlNode wp = sc.getWorkerprocess(since);
+            String status = wp == null ? null : wp.getChildText("status");
+            if (status != null && STARTED.equals(status) == started)
+                return status;
+            if (System.currentTimeMillis() > deadline)
+                throw new CaasRuntimeException("Service container " + sc.getName() + " has status " + status + " after "
+                        + timeout + "ms");
+            Thread.sleep(pollInterval);
+        }
+    }
+}
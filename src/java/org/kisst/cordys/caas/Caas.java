@@ -14,15 +14,20 @@ import static org.kisst.cordys.caas.main.Environment.get;
 import static org.kisst.cordys.caas.main.Environment.info;
 
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
 import java.net.ConnectException;
 import java.util.LinkedHashMap;
 import java.util.Properties;
+import java.util.zip.GZIPInputStream;
 
 import org.kisst.cordys.caas.main.Environment;
 import org.kisst.cordys.caas.soap.DummyCaller;
 import org.kisst.cordys.caas.soap.HttpClientCaller;
+import org.kisst.cordys.caas.soap.IndexedLdapDump;
 import org.kisst.cordys.caas.soap.NativeCaller;
 import org.kisst.cordys.caas.soap.SamlClientCaller;
 import org.kisst.cordys.caas.soap.SoapCaller;
@@ -135,7 +140,8 @@ public class Caas
     }
 
     /**
-     * DOCUMENTME.
+     * Creates a system that reads its LDAP content from a dump. The dump can be an XML dump (optionally gzipped) or an indexed
+     * dump, which is read lazily from disk.
      * 
      * @param filename
      * @param name
@@ -143,8 +149,20 @@ public class Caas
      */
     public static CordysSystem loadFromDump(String filename, String name)
     {
-        XmlNode xml = new XmlNode(FileUtil.loadString(filename));
-        DummyCaller caller = new DummyCaller(xml);
+        File file = new File(filename);
+        DummyCaller caller;
+        if (IndexedLdapDump.isIndexedDump(file))
+        {
+            caller = new DummyCaller(new IndexedLdapDump(file));
+        }
+        else if (filename.endsWith(".gz"))
+        {
+            caller = new DummyCaller(new XmlNode(loadGzippedString(file)));
+        }
+        else
+        {
+            caller = new DummyCaller(new XmlNode(FileUtil.loadString(file)));
+        }
 
         if (name == null)
         {
@@ -153,6 +171,59 @@ public class Caas
         return new CordysSystem(name, caller);
     }
 
+    /**
+     * Reads the content of a gzipped (UTF-8) file.
+     * 
+     * @param file The file to read.
+     * @return The content.
+     */
+    private static String loadGzippedString(File file)
+    {
+        Reader in = null;
+        try
+        {
+            in = new InputStreamReader(new GZIPInputStream(new FileInputStream(file)), "UTF-8");
+            StringBuilder result = new StringBuilder();
+            char[] buffer = new char[65536];
+            int len;
+            while ((len = in.read(buffer)) > 0)
+            {
+                result.append(buffer, 0, len);
+            }
+            return result.toString();
+        }
+        catch (IOException e)
+        {
+            throw new RuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (in != null)
+                {
+                    in.close();
+                }
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * Converts an XML dump (optionally gzipped) into an indexed dump, which can be opened by loadFromDump without reading it into
+     * memory.
+     * 
+     * @param xmlDump The XML dump to convert.
+     * @param indexedDump The indexed dump to create.
+     */
+    public static void indexDump(String xmlDump, String indexedDump)
+    {
+        IndexedLdapDump.convert(new File(xmlDump), new File(indexedDump));
+    }
+
     /**
      * DOCUMENTME.
      * 
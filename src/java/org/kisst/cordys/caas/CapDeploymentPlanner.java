@@ -0,0 +1,479 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas;
+
+import static org.kisst.cordys.caas.main.Environment.info;
+import static org.kisst.cordys.caas.main.Environment.warn;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+
+/**
+ * This class deploys a set of CAP packages in the order of their dependencies. The dependencies are taken from the package
+ * metadata on the server. Packages that do not depend on each other are deployed at the same time, a package is deployed when all
+ * packages of the set it depends on are deployed. When a deployment fails, only the packages that depend on it (directly or
+ * indirectly) are skipped, the other packages are still deployed.
+ * <p>
+ * When the server does not expose the dependencies the packages are deployed one by one, in the given order. The number of
+ * deployments at the same time is set with the property caas.deploy.threads (default 2). A typical use from a script is:
+ *
+ * <pre>
+ * print sys.deployCaps([&quot;Vendor App Base&quot;, &quot;Vendor App Web&quot;, &quot;Vendor App Rules&quot;])
+ * </pre>
+ *
+ * </p>
+ */
+public class CapDeploymentPlanner
+{
+    /**
+     * The states of a package in the plan.
+     */
+    public static enum State
+    {
+        WAITING, DEPLOYED, FAILED, SKIPPED
+    }
+
+    /**
+     * Holds a single package of the plan.
+     */
+    public static class Node
+    {
+        /** Holds the name of the package. */
+        private final String name;
+        /** Holds the packages of the plan this package depends on. */
+        private final List<Node> prerequisites = new ArrayList<Node>();
+        /** Holds the packages of the plan that depend on this package. */
+        private final List<Node> dependents = new ArrayList<Node>();
+        /** Holds the state. */
+        private State state = State.WAITING;
+        /** Holds the duration of the deployment. */
+        private long duration;
+        /** Holds the error, or null if the deployment did not fail. */
+        private Throwable error;
+        /** Holds the package that failed, when this package is skipped. */
+        private String skippedBecause;
+
+        /**
+         * Instantiates a new node.
+         *
+         * @param name The name of the package.
+         */
+        private Node(String name)
+        {
+            this.name = name;
+        }
+
+        /**
+         * This method gets the name of the package.
+         *
+         * @return The name.
+         */
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * This method gets the names of the packages of the plan this package depends on.
+         *
+         * @return The names.
+         */
+        public List<String> getPrerequisites()
+        {
+            ArrayList<String> result = new ArrayList<String>();
+            for (Node n : prerequisites)
+                result.add(n.name);
+            return result;
+        }
+
+        /**
+         * This method gets the state.
+         *
+         * @return The state.
+         */
+        public State getState()
+        {
+            return state;
+        }
+
+        /**
+         * This method gets the duration of the deployment.
+         *
+         * @return The duration in milliseconds.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * This method gets the error.
+         *
+         * @return The error, or null if the deployment did not fail.
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            String detail = "";
+            if (error != null)
+                detail = " " + error.getMessage();
+            else if (skippedBecause != null)
+                detail = " because " + skippedBecause + " failed";
+            return String.format("%-50s %-9s %7.1fs%s", name, state, duration / 1000.0, detail);
+        }
+    }
+
+    /** Holds the system. */
+    private final CordysSystem system;
+    /** Holds the packages of the plan, in the given order. */
+    private final LinkedHashMap<String, Node> nodes = new LinkedHashMap<String, Node>();
+    /** Holds the maximum number of deployments at the same time. */
+    private int threads;
+    /** Holds the timeout of a single deployment. */
+    private double timeoutInMinutes = 10;
+    /** Holds whether the plan has been built. */
+    private boolean planned;
+
+    /**
+     * Instantiates a new planner for the given packages.
+     *
+     * @param system The system.
+     * @param names The names of the CAP packages to deploy.
+     */
+    public CapDeploymentPlanner(CordysSystem system, List<String> names)
+    {
+        this.system = system;
+        for (String name : names)
+            nodes.put(name, new Node(name));
+        this.threads = Integer.parseInt(Environment.get().getProp("caas.deploy.threads", "2"));
+    }
+
+    /**
+     * This method sets the maximum number of deployments at the same time.
+     *
+     * @param threads The number of deployments.
+     * @return This object.
+     */
+    public CapDeploymentPlanner setThreads(int threads)
+    {
+        this.threads = threads < 1 ? 1 : threads;
+        return this;
+    }
+
+    /**
+     * This method sets the timeout of a single deployment.
+     *
+     * @param timeoutInMinutes The timeout in minutes.
+     * @return This object.
+     */
+    public CapDeploymentPlanner setTimeout(double timeoutInMinutes)
+    {
+        this.timeoutInMinutes = timeoutInMinutes;
+        return this;
+    }
+
+    /**
+     * This method builds the dependency graph of the packages. Dependencies on packages outside the set are left to the server.
+     */
+    private synchronized void plan()
+    {
+        if (planned)
+            return;
+        Map<String, List<String>> dependencies = system.getCompatibilityManager().getCAPDependencies(system.getSoapCaller(),
+                system, new ArrayList<String>(nodes.keySet()));
+        Node previous = null;
+        for (Node n : nodes.values())
+        {
+            if (dependencies == null)
+            {
+                // Without dependency information the given order is the only safe order
+                if (previous != null)
+                    link(previous, n);
+                previous = n;
+                continue;
+            }
+            List<String> names = dependencies.get(n.name);
+            if (names == null)
+                continue;
+            for (String name : names)
+            {
+                Node prerequisite = nodes.get(name);
+                if (prerequisite != null && prerequisite != n)
+                    link(prerequisite, n);
+            }
+        }
+        checkCycles();
+        planned = true;
+    }
+
+    /**
+     * This method adds a dependency to the graph.
+     *
+     * @param prerequisite The package that must be deployed first.
+     * @param dependent The package that depends on it.
+     */
+    private static void link(Node prerequisite, Node dependent)
+    {
+        if (dependent.prerequisites.contains(prerequisite))
+            return;
+        dependent.prerequisites.add(prerequisite);
+        prerequisite.dependents.add(dependent);
+    }
+
+    /**
+     * This method checks that the dependencies do not contain a cycle, since such a set can never be deployed.
+     */
+    private void checkCycles()
+    {
+        List<List<String>> levels = getLevels();
+        int count = 0;
+        for (List<String> level : levels)
+            count += level.size();
+        if (count == nodes.size())
+            return;
+        ArrayList<String> cyclic = new ArrayList<String>(nodes.keySet());
+        for (List<String> level : levels)
+            cyclic.removeAll(level);
+        throw new CaasRuntimeException("The CAP packages " + cyclic + " have cyclic dependencies");
+    }
+
+    /**
+     * This method gets the plan as levels. The packages of a level only depend on packages of earlier levels, so they can be
+     * deployed at the same time. Packages on a cycle are not part of any level.
+     *
+     * @return The names of the packages per level.
+     */
+    private List<List<String>> getLevels()
+    {
+        LinkedHashMap<Node, Integer> waiting = new LinkedHashMap<Node, Integer>();
+        for (Node n : nodes.values())
+            waiting.put(n, n.prerequisites.size());
+        List<List<String>> result = new ArrayList<List<String>>();
+        while (true)
+        {
+            ArrayList<Node> level = new ArrayList<Node>();
+            for (Map.Entry<Node, Integer> e : waiting.entrySet())
+            {
+                if (e.getValue() == 0)
+                    level.add(e.getKey());
+            }
+            if (level.isEmpty())
+                return result;
+            ArrayList<String> names = new ArrayList<String>();
+            for (Node n : level)
+            {
+                waiting.remove(n);
+                names.add(n.name);
+                for (Node d : n.dependents)
+                    waiting.put(d, waiting.get(d) - 1);
+            }
+            result.add(names);
+        }
+    }
+
+    /**
+     * This method gets the plan, without deploying anything.
+     *
+     * @return The names of the packages per level. The packages of a level can be deployed at the same time.
+     */
+    public List<List<String>> getPlan()
+    {
+        plan();
+        return getLevels();
+    }
+
+    /**
+     * This method gets the packages of the plan, in the given order.
+     *
+     * @return The packages.
+     */
+    public List<Node> getNodes()
+    {
+        plan();
+        return Collections.unmodifiableList(new ArrayList<Node>(nodes.values()));
+    }
+
+    /**
+     * This method deploys the packages. It returns when all packages are deployed, failed or skipped.
+     *
+     * @return This object, which prints as a report of the deployment.
+     */
+    public CapDeploymentPlanner deploy()
+    {
+        plan();
+        LinkedHashMap<Node, Integer> waiting = new LinkedHashMap<Node, Integer>();
+        for (Node n : nodes.values())
+            waiting.put(n, n.prerequisites.size());
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, nodes.size())));
+        CompletionService<Node> done = new ExecutorCompletionService<Node>(pool);
+        try
+        {
+            int running = 0;
+            for (Node n : nodes.values())
+            {
+                if (n.prerequisites.isEmpty())
+                {
+                    submit(done, n);
+                    running++;
+                }
+            }
+            while (running > 0)
+            {
+                Node n = done.take().get();
+                running--;
+                if (n.state == State.DEPLOYED)
+                {
+                    for (Node d : n.dependents)
+                    {
+                        int remaining = waiting.get(d) - 1;
+                        waiting.put(d, remaining);
+                        if (remaining == 0 && d.state == State.WAITING)
+                        {
+                            submit(done, d);
+                            running++;
+                        }
+                    }
+                }
+                else
+                    skipDependents(n, n.name);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new CaasRuntimeException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+        return this;
+    }
+
+    /**
+     * This method starts the deployment of a single package.
+     *
+     * @param done The completion service.
+     * @param n The package.
+     */
+    private void submit(CompletionService<Node> done, final Node n)
+    {
+        done.submit(new Callable<Node>() {
+            public Node call()
+            {
+                long start = System.currentTimeMillis();
+                try
+                {
+                    info("Deploying CAP " + n.name + " ... ");
+                    system.deployCap(n.name, timeoutInMinutes);
+                    n.state = State.DEPLOYED;
+                    info("Deployed CAP " + n.name);
+                }
+                catch (RuntimeException e)
+                {
+                    n.state = State.FAILED;
+                    n.error = e;
+                    warn("Deploying CAP " + n.name + " failed: " + e.getMessage());
+                }
+                n.duration = System.currentTimeMillis() - start;
+                return n;
+            }
+        });
+    }
+
+    /**
+     * This method skips all packages that depend on the given package, directly or indirectly.
+     *
+     * @param n The package that was not deployed.
+     * @param failed The name of the package that failed.
+     */
+    private void skipDependents(Node n, String failed)
+    {
+        for (Node d : n.dependents)
+        {
+            if (d.state != State.WAITING)
+                continue;
+            d.state = State.SKIPPED;
+            d.skippedBecause = failed;
+            skipDependents(d, failed);
+        }
+    }
+
+    /**
+     * This method returns whether all packages are deployed.
+     *
+     * @return true if all packages are deployed.
+     */
+    public boolean isSuccess()
+    {
+        for (Node n : nodes.values())
+        {
+            if (n.state != State.DEPLOYED)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        plan();
+        StringBuilder result = new StringBuilder();
+        int level = 1;
+        for (List<String> names : getLevels())
+        {
+            for (String name : names)
+                result.append(String.format("%2d ", level)).append(nodes.get(name)).append("\n");
+            level++;
+        }
+        int deployed = 0;
+        int failed = 0;
+        int skipped = 0;
+        for (Node n : nodes.values())
+        {
+            if (n.state == State.DEPLOYED)
+                deployed++;
+            else if (n.state == State.FAILED)
+                failed++;
+            else if (n.state == State.SKIPPED)
+                skipped++;
+        }
+        result.append(String.format("%d CAP packages in %d levels: %d deployed, %d failed, %d skipped", nodes.size(), level - 1,
+                deployed, failed, skipped));
+        return result.toString();
+    }
+}
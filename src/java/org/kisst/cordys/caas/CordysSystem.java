@@ -10,10 +10,16 @@
 package org.kisst.cordys.caas;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -25,12 +31,15 @@ import org.kisst.cordys.caas.soap.SoapCaller;
 import org.kisst.cordys.caas.support.ChildList;
 import org.kisst.cordys.caas.support.CordysObject;
 import org.kisst.cordys.caas.support.CordysObjectList;
+import org.kisst.cordys.caas.support.Dn;
 import org.kisst.cordys.caas.support.LdapObject;
 import org.kisst.cordys.caas.support.LdapObjectBase;
+import org.kisst.cordys.caas.support.LdapWriteBatch;
 import org.kisst.cordys.caas.support.LoadedPropertyMap;
 import org.kisst.cordys.caas.support.XmlObjectList;
 import org.kisst.cordys.caas.util.Constants;
 import org.kisst.cordys.caas.util.FileUtil;
+import org.kisst.cordys.caas.util.HashUtil;
 import org.kisst.cordys.caas.util.PasswordHasher;
 import org.kisst.cordys.caas.util.StringUtil;
 import org.kisst.cordys.caas.util.XmlNode;
@@ -43,8 +52,16 @@ public class CordysSystem extends LdapObject
 {
     /** Holds the object to use for executing SOAP requests. */
     private final SoapCaller caller;
-    /** Holds the ldapcache. */
-    private final HashMap<String, LdapObject> ldapcache = new HashMap<String, LdapObject>();
+    /** Holds the ldapcache. It is concurrent, since objects can be looked up from several threads (e.g. in a parallel diff). */
+    private final ConcurrentHashMap<Dn, LdapObject> ldapcache = new ConcurrentHashMap<Dn, LdapObject>();
+    /** Holds the write batch that is active for the current thread. */
+    private final ThreadLocal<LdapWriteBatch> writeBatch = new ThreadLocal<LdapWriteBatch>();
+    /** Holds the time at which the last status snapshot of the service containers was started. */
+    private long statusTime;
+    /** Holds the lock that makes sure only one status snapshot is taken at a time. */
+    private final Object statusLock = new Object();
+    /** Holds the lock that serializes refreshing the package list, because CAPs are uploaded and deployed concurrently. */
+    private final Object packagesLock = new Object();
     /** Holds the name of this system. */
     private final String name;
     /** Holds the base DN of this instance. */
@@ -106,6 +123,10 @@ public class CordysSystem extends LdapObject
     public final CordysObjectList<Machine> machine = machines;
     /** Holds an alias for the machines. */
     public final CordysObjectList<Machine> nodes = machines;
+    /** Holds the records of the packages that were uploaded and deployed from this machine. */
+    public final DeploymentRecords deploymentRecords;
+    /** Holds the packages of all nodes in the cluster. */
+    public final PackageInventory packageInventory = new PackageInventory(this);
     /** Holds the mapped machines based on the 'nodes' property. */
     public final Map<String, Machine> mapped = new LinkedHashMap<String, Machine>();
     /** Holds the compatibility manager to use for this Cordys installation. */
@@ -124,6 +145,7 @@ public class CordysSystem extends LdapObject
         this.env = Environment.get();
         this.name = name;
         this.caller = caller;
+        this.deploymentRecords = new DeploymentRecords(this);
 
         XmlNode response = call(new XmlNode(Constants.GET_INSTALLATION_INFO, Constants.XMLNS_MONITOR));
         String tmp = response.getChildText("tuple/old/soapprocessorsinfo/processor/dn");
@@ -273,10 +295,12 @@ public class CordysSystem extends LdapObject
         newEntry.add("osidentity").add("string").setText(osIdentity);
         newEntry.add("authenticationtype").add("string").setText(type);
         newEntry.add("cn").add("string").setText(name);
+        // The cached entry of the new user does not keep the password
+        XmlNode created = newEntry.clone();
         // Set the userPassword same as the osidentity
         newEntry.add("userPassword").add("string").setText(password);
         createInLdap(newEntry);
-        authenticatedUsers.clear();
+        authenticatedUsers.addCreated((AuthenticatedUser) getLdap(created));
     }
 
     /**
@@ -446,6 +470,21 @@ public class CordysSystem extends LdapObject
      */
     public LdapObject seekLdap(String dn)
     {
+        return seekLdap(Dn.get(dn));
+    }
+
+    /**
+     * Seek ldap.
+     * 
+     * @param dn The dn
+     * @return The ldap object, or null if it is not in the cache
+     */
+    public LdapObject seekLdap(Dn dn)
+    {
+        if (dn == null)
+        {
+            return null;
+        }
         return ldapcache.get(dn);
     }
 
@@ -455,7 +494,7 @@ public class CordysSystem extends LdapObject
      * @param dn The dn
      * @return The ldap
      */
-    public synchronized LdapObject getLdap(String dn)
+    public LdapObject getLdap(String dn)
     {
         return getLdap(dn, true);
     }
@@ -466,13 +505,13 @@ public class CordysSystem extends LdapObject
      * @param dn The dn
      * @return The ldap
      */
-    public synchronized LdapObject getLdap(String dn, boolean useCache)
+    public LdapObject getLdap(String dn, boolean useCache)
     {
         LdapObject result = null;
 
         if (useCache == true)
         {
-            result = ldapcache.get(dn);
+            result = seekLdap(dn);
         }
 
         if (result != null)
@@ -480,6 +519,10 @@ public class CordysSystem extends LdapObject
             return result;
         }
         result = LdapObjectBase.createObject(this, dn);
+        if (useCache == true)
+        {
+            return rememberIfAbsent(result);
+        }
         rememberLdap(result);
         return result;
     }
@@ -493,15 +536,31 @@ public class CordysSystem extends LdapObject
     public LdapObject getLdap(XmlNode entry)
     {
         String dn = entry.getAttribute("dn");
-        LdapObject result = ldapcache.get(dn);
+        LdapObject result = seekLdap(dn);
 
         if (result != null)
         {
             return result;
         }
         result = LdapObjectBase.createObject(this, entry);
-        rememberLdap(result);
-        return result;
+        return rememberIfAbsent(result);
+    }
+
+    /**
+     * This method adds the given LdapObject to the internal cache, unless another thread has cached an object for the same dn in
+     * the meantime.
+     * 
+     * @param obj The obj to remember.
+     * @return The object that is in the cache.
+     */
+    private LdapObject rememberIfAbsent(LdapObject obj)
+    {
+        if (obj == null)
+        {
+            return null;
+        }
+        LdapObject existing = ldapcache.putIfAbsent(obj.getDnObject(), obj);
+        return existing != null ? existing : obj;
     }
 
     /**
@@ -515,7 +574,7 @@ public class CordysSystem extends LdapObject
         {
             return;
         }
-        ldapcache.put(obj.getDn(), obj);
+        ldapcache.put(obj.getDnObject(), obj);
     }
 
     /**
@@ -525,7 +584,61 @@ public class CordysSystem extends LdapObject
      */
     public void removeLdap(String dn)
     {
-        ldapcache.remove(dn);
+        if (dn == null)
+        {
+            return;
+        }
+        ldapcache.remove(Dn.get(dn));
+    }
+
+    /**
+     * This method runs the given code as a single LDAP write batch. All LDAP modifications that are made by the code (on the
+     * current thread) are collected, merged per entry and sent in multi-tuple Update requests when the code has finished. The
+     * number of tuples per request is set with the property caas.ldap.batchsize (default 50). If the code throws an exception,
+     * nothing is sent and the modified objects are re-read from LDAP. When called within a batch the code simply joins the
+     * outer batch. From groovy it can be used as sys.batch { ... }.
+     * <p>
+     * Note that lists of child objects are read from LDAP, so objects created within the batch only show up after it is
+     * flushed.
+     * </p>
+     * 
+     * @param code The code to run.
+     */
+    public void batch(Runnable code)
+    {
+        if (writeBatch.get() != null)
+        {
+            code.run();
+            return;
+        }
+
+        int chunkSize = Integer.parseInt(Environment.get().getProp("caas.ldap.batchsize", "50"));
+        LdapWriteBatch batch = new LdapWriteBatch(this, chunkSize);
+        writeBatch.set(batch);
+        boolean success = false;
+        try
+        {
+            code.run();
+            success = true;
+        }
+        finally
+        {
+            writeBatch.remove();
+            if (success)
+                batch.flush();
+            else
+                batch.discard();
+        }
+    }
+
+    /**
+     * This method gets the write batch that is active for the current thread.
+     * 
+     * @return The active write batch, or null if modifications are sent immediately.
+     */
+    public LdapWriteBatch getWriteBatch()
+    {
+        return writeBatch.get();
     }
 
     /**
@@ -570,14 +683,86 @@ public class CordysSystem extends LdapObject
     }
 
     /**
-     * Refresh service containers.
+     * Refresh service containers. The monitors of all machines are asked for the status of their service containers at the same
+     * time, so the snapshot takes about as long as the slowest monitor.
      */
     public void refreshServiceContainers()
     {
+        synchronized (statusLock)
+        {
+            refreshStatus();
+        }
+    }
+
+    /**
+     * This method fetches the status of all service containers from the monitors of all machines in parallel.
+     */
+    private void refreshStatus()
+    {
+        long start = System.currentTimeMillis();
+        ArrayList<Machine> list = new ArrayList<Machine>();
         for (Machine machine : machines)
+            list.add(machine);
+        if (list.size() == 1)
+            list.get(0).refreshServiceContainers();
+        else if (list.size() > 1)
         {
-            machine.refreshServiceContainers();
+            ExecutorService pool = Executors.newFixedThreadPool(list.size());
+            try
+            {
+                ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+                for (final Machine machine : list)
+                {
+                    results.add(pool.submit(new Runnable() {
+                        public void run()
+                        {
+                            machine.refreshServiceContainers();
+                        }
+                    }));
+                }
+                for (Future<?> result : results)
+                    result.get();
+            }
+            catch (InterruptedException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new CaasRuntimeException(e.getCause());
+            }
+            finally
+            {
+                pool.shutdown();
+            }
         }
+        statusTime = start;
+    }
+
+    /**
+     * Refresh service containers, unless the last status snapshot is younger than the given age. When several threads ask for a
+     * refresh at the same time, only the first one calls the monitors.
+     * 
+     * @param maxAge The maximum age of the snapshot in milliseconds.
+     */
+    public void refreshServiceContainers(long maxAge)
+    {
+        synchronized (statusLock)
+        {
+            if (System.currentTimeMillis() - statusTime > maxAge)
+                refreshStatus();
+        }
+    }
+
+    /**
+     * This method gets the time that the status of a service container remains valid, as set with the property caas.status.ttl
+     * (default 5000 milliseconds).
+     * 
+     * @return The time to live in milliseconds.
+     */
+    public long getStatusTtl()
+    {
+        return Long.parseLong(env.getProp("caas.status.ttl", "5000"));
     }
 
     /**
@@ -639,6 +824,12 @@ public class CordysSystem extends LdapObject
         // Iterate over the machines
         for (Machine machine : machines)
         {
+            if (machine.isIsvpUpToDate(isvpFilePath))
+            {
+                info("Application " + isvpName + " is already loaded on " + machine.getName() + ", skipping");
+                continue;
+            }
+
             // Upload the ISVP on to the machine
             info("Uploading application " + isvpName + " to " + machine.getName() + " ... ");
             machine.uploadIsvp(isvpFilePath);
@@ -651,6 +842,7 @@ public class CordysSystem extends LdapObject
             String status = machine.loadIsvp(isvpName, prompSetsXMLNode, timeOutInMillis);
             info("OK");
             info("STATUS:: " + status);
+            machine.recordIsvpLoaded(isvpFilePath);
         }
         isvp.clear();
     }
@@ -720,7 +912,13 @@ public class CordysSystem extends LdapObject
         // Iterate over the machines
         for (Machine machine : machines)
         {
-            // TODO: Upload the ISVP only when it is not present on the machine
+            if (machine.isIsvpUpToDate(isvpFilePath))
+            {
+                info("Application " + isvpName + " is already upgraded on " + machine.getName() + ", skipping");
+                continue;
+            }
+
+            // The upload is skipped when the same file is already present on the machine
             info("Uploading application " + isvpName + " to " + machine.getName() + " ... ");
             machine.uploadIsvp(isvpFilePath);
             info("OK");
@@ -730,6 +928,7 @@ public class CordysSystem extends LdapObject
             String status = machine.upgradeIsvp(isvpName, prompSetsXMLNode, deleteReferences, timeOutInMillis);
             info("OK");
             info("STATUS:: " + status);
+            machine.recordIsvpLoaded(isvpFilePath);
         }
         isvp.clear();
     }
@@ -968,11 +1167,14 @@ public class CordysSystem extends LdapObject
 
     /**
      * This method will upload the given CAP file to the Cordys system. CAP works different then ISVP. Cordys takes care that all
-     * nodes get the CAP package.
+     * nodes get the CAP package. The upload is skipped when exactly the same file (by SHA-256 hash) was uploaded or deployed
+     * before, and the server still reports the version it had then.
      * 
      * @param capFile The CAP file to load.
+     * @return true if the file was uploaded, false if the upload was skipped.
+     * @see DeploymentRecords
      */
-    public void uploadCap(String capFile)
+    public boolean uploadCap(String capFile)
     {
         if (packages.supportsCap() == false)
         {
@@ -987,6 +1189,29 @@ public class CordysSystem extends LdapObject
         }
 
         String filename = cap.getName();
+        String sha256 = HashUtil.sha256(cap);
+        String type = Package.EPackageType.cap.name();
+        DeploymentRecords.Record previous = deploymentRecords.get(type, DeploymentRecords.CLUSTER, filename);
+        DeploymentRecords.Record record = previous;
+        if (!deploymentRecords.isForced() && record != null && sha256.equals(record.sha256) && record.packageName != null)
+        {
+            Package p = packages.getByName(record.packageName);
+            if (DeploymentRecords.isDeployed(record, p)
+                    || (p != null && !record.deployed && DeploymentRecords.uploadedVersion(p).equals(record.version)))
+            {
+                info("CAP " + filename + " was already " + (record.deployed ? "deployed" : "uploaded") + ", skipping upload");
+                return false;
+            }
+        }
+
+        // Remember the versions before the upload, to find out which package the file contains
+        HashMap<String, String> before = new HashMap<String, String>();
+        for (Package p : getPackages(false))
+        {
+            if (p.getType() == Package.EPackageType.cap)
+                before.put(p.getName(), DeploymentRecords.uploadedVersion(p));
+        }
+
         String capEncodedContent = FileUtil.encodeFile(capFile);
 
         XmlNode request = new XmlNode(Constants.UPLOAD_CAP, Constants.XMLNS_CAP);
@@ -997,7 +1222,107 @@ public class CordysSystem extends LdapObject
         call(request);
 
         // Clean the packages list as it needs to be updated with the new package.
-        packages.clear();
+        List<Package> after = getPackages(true);
+
+        record = new DeploymentRecords.Record(type, DeploymentRecords.CLUSTER, filename);
+        record.sha256 = sha256;
+        for (Package p : after)
+        {
+            if (p.getType() == Package.EPackageType.cap
+                    && !DeploymentRecords.uploadedVersion(p).equals(before.get(p.getName())))
+            {
+                record.packageName = p.getName();
+                record.version = DeploymentRecords.uploadedVersion(p);
+            }
+        }
+
+        // When the same version is uploaded again no package changes, so the name is taken from the previous upload of the same
+        // file, or else from the file name
+        if (record.packageName == null)
+        {
+            String packageName = null;
+            if (previous != null && sha256.equals(previous.sha256))
+                packageName = previous.packageName;
+            if (packageName == null)
+                packageName = findCapByFileName(after, filename);
+            Package p = packageName == null ? null : find(after, packageName);
+            if (p != null)
+            {
+                record.packageName = p.getName();
+                record.version = DeploymentRecords.uploadedVersion(p);
+            }
+            else
+            {
+                warn("Could not find out which package CAP " + filename + " contains");
+            }
+        }
+        deploymentRecords.put(record);
+        return true;
+    }
+
+    /**
+     * This method gets a copy of the package list. The list is refreshed and copied under a lock, so that concurrent uploads and
+     * deployments do not clear it while another thread reads it.
+     * 
+     * @param refresh Whether the list must be read from the server again.
+     * @return The packages.
+     */
+    private List<Package> getPackages(boolean refresh)
+    {
+        synchronized (packagesLock)
+        {
+            if (refresh)
+                packages.clear();
+            ArrayList<Package> result = new ArrayList<Package>();
+            for (Package p : packages)
+                result.add(p);
+            return result;
+        }
+    }
+
+    /**
+     * This method finds a package by name.
+     * 
+     * @param packages The packages.
+     * @param name The name of the package.
+     * @return The package, or null if it is not found.
+     */
+    private static Package find(List<Package> packages, String name)
+    {
+        for (Package p : packages)
+        {
+            if (name.equals(p.getName()))
+                return p;
+        }
+        return null;
+    }
+
+    /**
+     * This method finds the CAP package the given file name refers to. CAP files are named after the package they contain,
+     * usually followed by the version, so the package with the longest name the file name starts with is used. Case, spaces and
+     * punctuation are ignored.
+     * 
+     * @param packages The packages on the server.
+     * @param filename The name of the CAP file.
+     * @return The name of the package, or null if no package matches.
+     */
+    private static String findCapByFileName(List<Package> packages, String filename)
+    {
+        String file = filename.toLowerCase().replaceAll("\\.cap$", "").replaceAll("[^a-z0-9]", "");
+        String result = null;
+        int length = 0;
+        for (Package p : packages)
+        {
+            if (p.getType() != Package.EPackageType.cap || p.getName() == null)
+                continue;
+            String name = p.getName().toLowerCase().replaceAll("[^a-z0-9]", "");
+            if (name.length() > length && file.startsWith(name))
+            {
+                result = p.getName();
+                length = name.length();
+            }
+        }
+        return result;
     }
 
     /**
@@ -1013,7 +1338,8 @@ public class CordysSystem extends LdapObject
 
     /**
      * This method will deploy the latest version of the given CAP package name. It will first check to see if there is a package
-     * to deploy and whether it's an upgrade or a fresh load.
+     * to deploy and whether it's an upgrade or a fresh load. The deployment is skipped when the package was deployed from the
+     * same file before and the server still reports that version.
      * 
      * @param name The name
      * @param timeoutInMinutes The timeout in minutes.
@@ -1025,8 +1351,55 @@ public class CordysSystem extends LdapObject
             throw new CaasRuntimeException("The system " + name + " does not support CAP packages");
         }
 
+        DeploymentRecords.Record record = deploymentRecords.findByPackage(Package.EPackageType.cap.name(),
+                DeploymentRecords.CLUSTER, name);
+        if (!deploymentRecords.isForced() && DeploymentRecords.isDeployed(record, packages.getByName(name)))
+        {
+            info("CAP " + name + " version " + record.version + " is already deployed, skipping deployment");
+            return;
+        }
+
         // First get the status of the package. Is it indeed a new one
         m_cm.deployCap(getSoapCaller(), this, name, timeoutInMinutes);
+
+        Package p = find(getPackages(true), name);
+        if (record != null && p != null && p.isLoaded())
+        {
+            record.version = p.getFullVersion();
+            record.deployed = true;
+            deploymentRecords.put(record);
+        }
+    }
+
+    /**
+     * This method deploys the given CAP packages in the order of their dependencies. Packages that do not depend on each other are
+     * deployed at the same time.
+     *
+     * @param names The names of the packages.
+     * @return The planner, which prints as a report of the deployment.
+     * @see CapDeploymentPlanner
+     */
+    public CapDeploymentPlanner deployCaps(List<String> names)
+    {
+        return deployCaps(names, 10);
+    }
+
+    /**
+     * This method deploys the given CAP packages in the order of their dependencies. Packages that do not depend on each other are
+     * deployed at the same time.
+     *
+     * @param names The names of the packages.
+     * @param timeoutInMinutes The timeout of a single deployment in minutes.
+     * @return The planner, which prints as a report of the deployment.
+     * @see CapDeploymentPlanner
+     */
+    public CapDeploymentPlanner deployCaps(List<String> names, double timeoutInMinutes)
+    {
+        if (packages.supportsCap() == false)
+        {
+            throw new CaasRuntimeException("The system " + name + " does not support CAP packages");
+        }
+        return new CapDeploymentPlanner(this, names).setTimeout(timeoutInMinutes).deploy();
     }
 
     /**
@@ -0,0 +1,265 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.util.FileUtil;
+import org.kisst.cordys.caas.util.StringUtil;
+
+/**
+ * This class remembers which package files were uploaded to and deployed on a system, together with the SHA-256 hash of the file
+ * and the version the server reported afterwards. When the same file is offered again and the server still reports that version,
+ * the upload and deployment can be skipped.
+ * <p>
+ * The records are kept in the file set with the property system.&lt;name&gt;.deployments.file (default
+ * ~/config/caas/&lt;name&gt;.deployments). Setting caas.deploy.force to true always uploads and deploys.
+ * </p>
+ */
+public class DeploymentRecords
+{
+    /** Holds the target of CAP packages, since they are deployed on the whole cluster. */
+    public static final String CLUSTER = "cluster";
+
+    /**
+     * Holds what is known about a single package file on a single target.
+     */
+    public static class Record
+    {
+        /** Holds the type of package (cap or isvp). */
+        public final String type;
+        /** Holds the machine name, or CLUSTER for a CAP. */
+        public final String target;
+        /** Holds the name of the package file. */
+        public final String file;
+        /** Holds the SHA-256 hash of the package file. */
+        public String sha256;
+        /** Holds the name of the package on the server. */
+        public String packageName;
+        /** Holds the version the server reported for the package. */
+        public String version;
+        /** Holds whether the package was deployed, or only uploaded. */
+        public boolean deployed;
+
+        /**
+         * Instantiates a new record.
+         *
+         * @param type The type of package.
+         * @param target The machine name, or CLUSTER.
+         * @param file The name of the package file.
+         */
+        public Record(String type, String target, String file)
+        {
+            this.type = type;
+            this.target = target;
+            this.file = file;
+        }
+
+        /**
+         * This method returns the key of the record.
+         *
+         * @return The key.
+         */
+        private String key()
+        {
+            return DeploymentRecords.key(type, target, file);
+        }
+    }
+
+    /** Holds the system. */
+    private final CordysSystem system;
+    /** Holds the file the records are stored in. */
+    private final File file;
+    /** Holds the records. */
+    private Properties props;
+
+    /**
+     * Instantiates the deployment records of a system.
+     *
+     * @param system The system.
+     */
+    DeploymentRecords(CordysSystem system)
+    {
+        this.system = system;
+        String filename = Environment.get().getProp("system." + system.getName() + ".deployments.file", null);
+        if (filename == null)
+            filename = System.getProperty("user.home") + "/config/caas/" + system.getName() + ".deployments";
+        this.file = new File(StringUtil.getUnixStyleFilePath(filename));
+    }
+
+    /**
+     * This method returns whether uploads and deployments should always be done.
+     *
+     * @return true if nothing should be skipped.
+     */
+    public boolean isForced()
+    {
+        return "true".equals(Environment.get().getProp("caas.deploy.force", "false"));
+    }
+
+    /**
+     * This method returns the key of a record.
+     *
+     * @param type The type of package.
+     * @param target The machine name, or CLUSTER.
+     * @param file The name of the package file.
+     * @return The key.
+     */
+    private static String key(String type, String target, String file)
+    {
+        return type + "|" + target + "|" + file;
+    }
+
+    /**
+     * This method loads the records if that has not been done yet.
+     */
+    private void load()
+    {
+        if (props != null)
+            return;
+        props = new Properties();
+        if (file.exists())
+            FileUtil.load(props, file.getPath());
+    }
+
+    /**
+     * This method gets a record.
+     *
+     * @param type The type of package.
+     * @param target The machine name, or CLUSTER.
+     * @param filename The name of the package file.
+     * @return The record, or null if the file was never uploaded to the target.
+     */
+    public synchronized Record get(String type, String target, String filename)
+    {
+        load();
+        String value = props.getProperty(key(type, target, filename));
+        if (value == null)
+            return null;
+        String[] parts = value.split("\\|", -1);
+        if (parts.length != 4)
+            return null;
+        Record result = new Record(type, target, filename);
+        result.sha256 = parts[0];
+        result.packageName = parts[1].length() == 0 ? null : parts[1];
+        result.version = parts[2].length() == 0 ? null : parts[2];
+        result.deployed = "true".equals(parts[3]);
+        return result;
+    }
+
+    /**
+     * This method gets the most recent record of a package on the given target. This is used when a package is deployed by name.
+     *
+     * @param type The type of package.
+     * @param target The machine name, or CLUSTER.
+     * @param packageName The name of the package on the server.
+     * @return The record, or null if none of the recorded files contains the package.
+     */
+    public synchronized Record findByPackage(String type, String target, String packageName)
+    {
+        load();
+        String prefix = type + "|" + target + "|";
+        for (String key : props.stringPropertyNames())
+        {
+            if (key.startsWith(prefix))
+            {
+                Record r = get(type, target, key.substring(prefix.length()));
+                if (r != null && packageName.equals(r.packageName))
+                    return r;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * This method stores a record and saves all records to disk.
+     *
+     * @param r The record.
+     */
+    public synchronized void put(Record r)
+    {
+        load();
+        if (r.packageName != null)
+        {
+            // A package is contained in one file at a time, older files of the same package are superseded
+            Record old;
+            while ((old = findByPackage(r.type, r.target, r.packageName)) != null && !old.file.equals(r.file))
+                props.remove(old.key());
+        }
+        props.setProperty(r.key(), r.sha256 + "|" + (r.packageName == null ? "" : r.packageName) + "|"
+                + (r.version == null ? "" : r.version) + "|" + r.deployed);
+        save();
+    }
+
+    /**
+     * This method saves the records.
+     */
+    private void save()
+    {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.exists())
+            dir.mkdirs();
+        FileOutputStream out = null;
+        try
+        {
+            out = new FileOutputStream(file);
+            props.store(out, "Deployed packages of " + system.getName());
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (out != null)
+                    out.close();
+            }
+            catch (IOException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * This method returns the version a package has on the server after an upload: the new version if there is one, otherwise
+     * the current version.
+     *
+     * @param p The package.
+     * @return The uploaded version.
+     */
+    public static String uploadedVersion(Package p)
+    {
+        if (!StringUtil.isEmptyOrNull(p.getNewVersion()))
+            return p.getNewVersion();
+        return p.getFullVersion();
+    }
+
+    /**
+     * This method checks whether the server still has the package deployed in the recorded version, without a newer version
+     * waiting.
+     *
+     * @param r The record.
+     * @param p The package on the server, or null if not found.
+     * @return true if the package is deployed in the recorded version.
+     */
+    public static boolean isDeployed(Record r, Package p)
+    {
+        return r != null && r.deployed && p != null && p.isLoaded() && p.getFullVersion().equals(r.version)
+                && StringUtil.isEmptyOrNull(p.getNewVersion());
+    }
+}
@@ -9,12 +9,14 @@
 
 package org.kisst.cordys.caas;
 
+import static org.kisst.cordys.caas.main.Environment.info;
 import static org.kisst.cordys.caas.main.Environment.trace;
 import static org.kisst.cordys.caas.main.Environment.warn;
 
 import java.io.File;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -23,6 +25,7 @@ import org.kisst.cordys.caas.support.CordysObject;
 import org.kisst.cordys.caas.util.Constants;
 import org.kisst.cordys.caas.util.ExceptionUtil;
 import org.kisst.cordys.caas.util.FileUtil;
+import org.kisst.cordys.caas.util.HashUtil;
 import org.kisst.cordys.caas.util.XmlNode;
 
 /**
@@ -121,9 +124,12 @@ public class Machine extends CordysObject
     }
 
     /**
-     * Refresh service containers.
+     * Refresh service containers. The status of all service containers on this machine is fetched with a single request to the
+     * monitor. Service containers of this machine that the monitor does not report are not running.
+     * 
+     * @return true if the monitor answered, false if the status could not be fetched.
      */
-    public void refreshServiceContainers()
+    public boolean refreshServiceContainers()
     {
         try
         {
@@ -131,13 +137,21 @@ public class Machine extends CordysObject
             HashMap<String, String> queryParams = new HashMap<String, String>();
             queryParams.put("receiver", monitor.getDn());
             XmlNode response = monitor.call(request, queryParams);
+            HashSet<String> reported = new HashSet<String>();
             for (XmlNode tuple : response.getChildren("tuple"))
             {
                 XmlNode workerprocess = tuple.getChild("old/workerprocess");
                 String dn = workerprocess.getChildText("name");
                 ServiceContainer obj = (ServiceContainer) getSystem().getLdap(dn);
                 obj.setWorkerprocess(workerprocess);
+                reported.add(obj.getDn());
+            }
+            for (ServiceContainer sc : getSystem().serviceContainers)
+            {
+                if (hostname.equals(sc.computer.get()) && !reported.contains(sc.getDn()))
+                    sc.setInactive();
             }
+            return true;
         }
         catch (Exception e)
         {
@@ -145,6 +159,7 @@ public class Machine extends CordysObject
                     + hostname
                     + " is not running properly. Status of the service containers running on this machine are not reflected properly. ");
             trace(ExceptionUtil.getStacktrace(e));
+            return false;
         }
     }
 
@@ -394,14 +409,26 @@ public class Machine extends CordysObject
     }
 
     /**
-     * Uploads the ISVP.
+     * Uploads the ISVP. The upload is skipped when exactly the same file (by SHA-256 hash) was uploaded before and the file is
+     * still present on the machine.
      * 
      * @param isvpFilePath The isvp file path
+     * @return true if the file was uploaded, false if the upload was skipped.
+     * @see DeploymentRecords
      */
-    public void uploadIsvp(String isvpFilePath)
+    public boolean uploadIsvp(String isvpFilePath)
     {
         File isvpFile = new File(isvpFilePath);
         String isvpName = isvpFile.getName();
+        String sha256 = HashUtil.sha256(isvpFile);
+        DeploymentRecords records = getSystem().deploymentRecords;
+        DeploymentRecords.Record record = records.get(Package.EPackageType.isvp.name(), hostname, isvpName);
+        if (!records.isForced() && record != null && sha256.equals(record.sha256) && getIsvpFiles().contains(isvpName))
+        {
+            info("Application " + isvpName + " was already uploaded to " + hostname + ", skipping upload");
+            return false;
+        }
+
         String isvpEncodedContent = FileUtil.encodeFile(isvpFilePath);
         XmlNode request = new XmlNode(Constants.UPLOAD_ISVP, Constants.XMLNS_ISV);
         request.add("name").setText(isvpName);
@@ -410,6 +437,69 @@ public class Machine extends CordysObject
         HashMap<String, String> queryParams = new HashMap<String, String>();
         queryParams.put("receiver", monitor.getDn());
         monitor.call(request, queryParams);
+
+        if (record == null)
+            record = new DeploymentRecords.Record(Package.EPackageType.isvp.name(), hostname, isvpName);
+        record.sha256 = sha256;
+        record.deployed = false;
+        records.put(record);
+        return true;
+    }
+
+    /**
+     * This method gets the installed ISV package that was loaded from the given ISVP file.
+     * 
+     * @param isvpName The name of the ISVP file
+     * @return The package, or null if it is not installed on this machine
+     */
+    public Package getIsvpPackage(String isvpName)
+    {
+        String filename = isvpName.endsWith(".isvp") ? isvpName.substring(0, isvpName.length() - 5) : isvpName;
+        for (Package p : packages)
+        {
+            if (p.getType() == Package.EPackageType.isvp && filename.equals(p.getFilename()))
+                return p;
+        }
+        return null;
+    }
+
+    /**
+     * This method checks whether the given ISVP file is loaded on this machine in the version that was recorded when it was
+     * loaded before, so that loading it again can be skipped.
+     * 
+     * @param isvpFilePath The isvp file path
+     * @return true if exactly this file is already loaded.
+     */
+    public boolean isIsvpUpToDate(String isvpFilePath)
+    {
+        File isvpFile = new File(isvpFilePath);
+        DeploymentRecords records = getSystem().deploymentRecords;
+        if (records.isForced())
+            return false;
+        DeploymentRecords.Record record = records.get(Package.EPackageType.isvp.name(), hostname, isvpFile.getName());
+        return record != null && record.sha256.equals(HashUtil.sha256(isvpFile))
+                && DeploymentRecords.isDeployed(record, getIsvpPackage(isvpFile.getName()));
+    }
+
+    /**
+     * This method records that the given ISVP file has been loaded on this machine, together with the version the machine reports.
+     * 
+     * @param isvpFilePath The isvp file path
+     */
+    public void recordIsvpLoaded(String isvpFilePath)
+    {
+        File isvpFile = new File(isvpFilePath);
+        packages.clear();
+        Package p = getIsvpPackage(isvpFile.getName());
+        if (p == null)
+            return;
+        DeploymentRecords.Record record = new DeploymentRecords.Record(Package.EPackageType.isvp.name(), hostname, isvpFile
+                .getName());
+        record.sha256 = HashUtil.sha256(isvpFile);
+        record.packageName = p.getName();
+        record.version = p.getFullVersion();
+        record.deployed = true;
+        getSystem().deploymentRecords.put(record);
     }
 
     /**
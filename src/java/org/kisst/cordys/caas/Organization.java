@@ -282,8 +282,9 @@ public class Organization extends LdapObjectBase
         newEntry.add("menu");
         newEntry.add("toolbar");
         newEntry.add("role").add("string").setText("cn=everyoneIn" + getName() + ",cn=organizational roles," + getDn());
+        XmlNode created = newEntry.clone();
         createInLdap(newEntry);
-        users.clear();
+        users.addCreated((User) getSystem().getLdap(created));
     }
 
     /**
@@ -300,8 +301,9 @@ public class Organization extends LdapObjectBase
         newEntry.add("toolbar");
         newEntry.add("busorganizationalroletype").add("string").setText(type);
         newEntry.add("role").add("string").setText("cn=everyoneIn" + getName() + ",cn=organizational roles," + getDn());
+        XmlNode created = newEntry.clone();
         createInLdap(newEntry);
-        roles.clear();
+        roles.addCreated((Role) getSystem().getLdap(created));
     }
 
     /**
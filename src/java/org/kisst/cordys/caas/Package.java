@@ -68,6 +68,8 @@ public class Package extends CordysObject
     public ChildList<WebServiceInterface> wsi;
     /** Holds the deployed package information for this package */
     private IDeployedPackageInfo m_info;
+    /** Holds whether the deployed package information has been loaded (it can be null for a package that is not deployed). */
+    private boolean m_infoLoaded;
     /** Holds the runtime package DN object in LDAP. */
     private RuntimePackage runtime;
 
@@ -438,13 +440,14 @@ public class Package extends CordysObject
     }
 
     /**
-     * This method returns the deployed version information.
+     * This method returns the deployed version information. The information is loaded once and then cached.
      * 
      * @return The deployed version information.
+     * @see PackageList#prefetchInfo()
      */
-    public IDeployedPackageInfo getInfo()
+    public synchronized IDeployedPackageInfo getInfo()
     {
-        if (m_info != null)
+        if (m_info != null || m_infoLoaded)
         {
             return m_info;
         }
@@ -459,10 +462,32 @@ public class Package extends CordysObject
                 loadCAPInfo();
                 break;
         }
+        m_infoLoaded = true;
 
         return m_info;
     }
 
+    /**
+     * This method returns whether the deployed version information is already available.
+     * 
+     * @return true if getInfo() will not call the server.
+     */
+    synchronized boolean hasInfo()
+    {
+        return m_info != null || m_infoLoaded;
+    }
+
+    /**
+     * This method sets the deployed version information that was loaded in bulk.
+     * 
+     * @param info The deployed version information, or null if the package is not deployed.
+     */
+    synchronized void setInfo(IDeployedPackageInfo info)
+    {
+        m_info = info;
+        m_infoLoaded = true;
+    }
+
     /**
      * This method loads the CAP information.
      */
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+
+/**
+ * This class holds the packages of the whole cluster. The state of the CAP packages is the same on all nodes, so it is fetched
+ * only once. The ISV packages are fetched for all nodes in parallel. The package lists of the machines get their content from this
+ * inventory, so filling all of them costs a single round of calls. The inventory can also be shown as a matrix of packages and
+ * nodes, which makes it easy to check whether all nodes are consistent.
+ */
+public class PackageInventory
+{
+    /** Holds the system. */
+    private final CordysSystem system;
+    /** Holds the CAP packages of the cluster, or null if not fetched yet. */
+    private List<Package> caps;
+    /** Holds the ISV packages per machine name, or null if not fetched yet. */
+    private LinkedHashMap<String, List<Package>> isvps;
+
+    /**
+     * Instantiates a new package inventory.
+     *
+     * @param system The system
+     */
+    PackageInventory(CordysSystem system)
+    {
+        this.system = system;
+    }
+
+    /**
+     * This method forgets the fetched packages, so they will be fetched again when needed.
+     */
+    public synchronized void clear()
+    {
+        caps = null;
+        isvps = null;
+    }
+
+    /**
+     * This method fetches the packages of all nodes again.
+     */
+    public synchronized void refresh()
+    {
+        ArrayList<Machine> machines = new ArrayList<Machine>();
+        for (Machine m : system.machines)
+            machines.add(m);
+        if (machines.isEmpty())
+            throw new CaasRuntimeException("No machines found in system " + system.getName());
+
+        ExecutorService pool = Executors.newFixedThreadPool(machines.size() + 1);
+        try
+        {
+            final PackageList first = machines.get(0).packages;
+            Future<List<Package>> capResult = pool.submit(new Callable<List<Package>>() {
+                public List<Package> call()
+                {
+                    return first.retrieveCapPackages();
+                }
+            });
+            LinkedHashMap<String, Future<List<Package>>> isvpResults = new LinkedHashMap<String, Future<List<Package>>>();
+            for (final Machine m : machines)
+            {
+                isvpResults.put(m.getName(), pool.submit(new Callable<List<Package>>() {
+                    public List<Package> call()
+                    {
+                        return m.packages.retrieveIsvpPackages();
+                    }
+                }));
+            }
+
+            LinkedHashMap<String, List<Package>> newIsvps = new LinkedHashMap<String, List<Package>>();
+            for (Map.Entry<String, Future<List<Package>>> e : isvpResults.entrySet())
+                newIsvps.put(e.getKey(), e.getValue().get());
+            caps = capResult.get();
+            isvps = newIsvps;
+
+            // The compatibility manager tells the first list whether CAPs are supported, the other lists should know as well
+            Boolean supportsCap = first.knownSupportsCap();
+            if (supportsCap != null)
+            {
+                for (Machine m : machines)
+                    m.packages.setSupportsCap(supportsCap);
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new CaasRuntimeException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * This method fetches the packages if they are not fetched yet. Use {@link #refresh()} to get the latest state.
+     */
+    private void ensureFetched()
+    {
+        if (caps == null || isvps == null)
+            refresh();
+    }
+
+    /**
+     * This method gets the CAP packages of the cluster.
+     *
+     * @return The CAP packages.
+     */
+    public synchronized List<Package> getCapPackages()
+    {
+        if (caps == null || !system.useCache())
+        {
+            // Only the CAPs are needed, no need to ask every node for its ISV packages
+            caps = system.machines.get(0).packages.retrieveCapPackages();
+        }
+        return caps;
+    }
+
+    /**
+     * This method gets the ISV packages of the given machine. The first call fetches the ISV packages of all machines.
+     *
+     * @param machine The machine.
+     * @return The ISV packages of the machine.
+     */
+    public synchronized List<Package> getIsvpPackages(Machine machine)
+    {
+        if (!system.useCache())
+            return machine.packages.retrieveIsvpPackages();
+        if (isvps == null)
+            refresh();
+        List<Package> result = isvps.get(machine.getName());
+        if (result == null)
+        {
+            // A machine that was added after the last refresh
+            result = machine.packages.retrieveIsvpPackages();
+            isvps.put(machine.getName(), result);
+        }
+        return result;
+    }
+
+    /**
+     * This method gets the names of all nodes, in the order of the machines.
+     *
+     * @return The node names.
+     */
+    public synchronized List<String> getNodes()
+    {
+        ensureFetched();
+        return new ArrayList<String>(isvps.keySet());
+    }
+
+    /**
+     * This method returns the package matrix. For every package it contains the version and status on every node the package is
+     * found on. A CAP package has the same state on every node.
+     *
+     * @return The matrix, keyed by package name and then by node name.
+     */
+    public synchronized Map<String, Map<String, Package.Node>> getMatrix()
+    {
+        ensureFetched();
+        TreeMap<String, Map<String, Package.Node>> result = new TreeMap<String, Map<String, Package.Node>>();
+        for (Map.Entry<String, List<Package>> e : isvps.entrySet())
+        {
+            for (Package p : e.getValue())
+                add(result, p, e.getKey());
+        }
+        for (Package p : caps)
+        {
+            for (String node : isvps.keySet())
+                add(result, p, node);
+        }
+        return result;
+    }
+
+    /**
+     * This method adds a cell to the matrix.
+     *
+     * @param matrix The matrix.
+     * @param p The package.
+     * @param node The node name.
+     */
+    private void add(Map<String, Map<String, Package.Node>> matrix, Package p, String node)
+    {
+        Map<String, Package.Node> row = matrix.get(p.getName());
+        if (row == null)
+        {
+            row = new LinkedHashMap<String, Package.Node>();
+            matrix.put(p.getName(), row);
+        }
+        Package.Node cell = new Package.Node();
+        cell.name = node;
+        cell.status = String.valueOf(p.getStatus());
+        cell.version = p.version;
+        cell.buildNumber = p.buildnumber;
+        row.put(node, cell);
+    }
+
+    /**
+     * This method returns the packages that are not the same on all nodes: they are missing on some nodes, or they have a different
+     * version, build or status.
+     *
+     * @return The names of the inconsistent packages.
+     */
+    public synchronized List<String> getInconsistentPackages()
+    {
+        List<String> nodes = getNodes();
+        ArrayList<String> result = new ArrayList<String>();
+        for (Map.Entry<String, Map<String, Package.Node>> row : getMatrix().entrySet())
+        {
+            if (!isConsistent(row.getValue(), nodes))
+                result.add(row.getKey());
+        }
+        return result;
+    }
+
+    /**
+     * This method checks whether a row of the matrix is the same for all nodes.
+     *
+     * @param row The row.
+     * @param nodes The nodes.
+     * @return true if the package is the same on all nodes.
+     */
+    private boolean isConsistent(Map<String, Package.Node> row, List<String> nodes)
+    {
+        String reference = null;
+        for (String node : nodes)
+        {
+            Package.Node cell = row.get(node);
+            if (cell == null)
+                return false;
+            String value = cell.version + "/" + cell.buildNumber + "/" + cell.status;
+            if (reference == null)
+                reference = value;
+            else if (!reference.equals(value))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString()
+    {
+        List<String> nodes = getNodes();
+        StringBuilder result = new StringBuilder();
+        result.append(String.format("%-50s", "PACKAGE"));
+        for (String node : nodes)
+            result.append(String.format(" %-30s", node));
+        result.append("\n");
+        for (Map.Entry<String, Map<String, Package.Node>> row : getMatrix().entrySet())
+        {
+            result.append(String.format("%-50s", row.getKey()));
+            for (String node : nodes)
+            {
+                Package.Node cell = row.getValue().get(node);
+                result.append(String.format(" %-30s", cell == null ? "-" : cell.version + "." + cell.buildNumber + " "
+                        + cell.status));
+            }
+            if (!isConsistent(row.getValue(), nodes))
+                result.append(" *");
+            result.append("\n");
+        }
+        return result.toString();
+    }
+}
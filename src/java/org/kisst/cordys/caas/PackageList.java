@@ -1,9 +1,17 @@
 package org.kisst.cordys.caas;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
 import org.kisst.cordys.caas.soap.SamlClientCaller;
 import org.kisst.cordys.caas.soap.SoapCaller;
 import org.kisst.cordys.caas.support.CordysObjectList;
@@ -41,6 +49,37 @@ public class PackageList extends CordysObjectList<Package>
     @Override
     protected void retrieveList()
     {
+        // The inventory fetches the ISV packages of all machines in parallel, and the CAP packages only once for the cluster.
+        PackageInventory inventory = getSystem().packageInventory;
+        for (Package p : inventory.getIsvpPackages(machine))
+        {
+            grow(p);
+        }
+        for (Package p : inventory.getCapPackages())
+        {
+            grow(p);
+        }
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.support.CordysObjectList#myclear()
+     */
+    @Override
+    public void myclear()
+    {
+        super.myclear();
+        getSystem().packageInventory.clear();
+    }
+
+    /**
+     * This method retrieves the ISV packages that are installed on the machine of this list. It does not change the list itself.
+     * 
+     * @return The ISV packages.
+     */
+    List<Package> retrieveIsvpPackages()
+    {
+        ArrayList<Package> result = new ArrayList<Package>();
+
         // First we need to retrieve the ISV packages that are available on the system. For that we need to call the
         // http://server/cordys/com.eibus.web.application.ListISVPackages.wcp?isvpackage
         SoapCaller c = system.getSoapCaller();
@@ -58,37 +97,33 @@ public class PackageList extends CordysObjectList<Package>
             for (XmlNode platformPackage : platformPackages)
             {
                 Package p = new Package(getSystem(), platformPackage);
-                grow(p);
+                result.add(p);
             }
         }
 
-        getISVPackageDefinitions(response);        
-        /*
-        // Next step is to get the definition of the packages for which filenames are specified.
-        request = buildGetISVPackageDefinition(response);
-        if (request != null)
-        {
-            // There are 1 or more ISV packages available.
-            response = c.call(request, DEFAULT_PACKAGE_TIMEOUT);
+        getISVPackageDefinitions(response, result);
+        return result;
+    }
 
-            // Now we have all the definitions. This means we can create the package definitions
-            List<XmlNode> isvs = response.getChildren("ISVPackage");
-            for (XmlNode node : isvs)
-            {
-                Package p = new Package(getSystem(), node);
-                grow(p);
-            }
-        }
-         */
-        
+    /**
+     * This method retrieves the CAP packages of the cluster. It does not change the list itself.
+     * 
+     * @return The CAP packages.
+     */
+    List<Package> retrieveCapPackages()
+    {
         // Retrieve the CAP packages from the compatibility manager as in 4.3 the SOAP API has changed.
-        List<Package> packages = getSystem().getCompatibilityManager().getCAPPackages(c, system, this);
+        return getSystem().getCompatibilityManager().getCAPPackages(system.getSoapCaller(), system, this);
+    }
 
-        // Add all the found packages to this list.
-        for (Package p : packages)
-        {
-            grow(p);
-        }
+    /**
+     * This method returns whether the system supports CAP packages, if that is already known.
+     * 
+     * @return Whether the system supports CAP packages, or null if not known.
+     */
+    Boolean knownSupportsCap()
+    {
+        return supportsCap;
     }
 
     /**
@@ -125,7 +160,7 @@ public class PackageList extends CordysObjectList<Package>
         return response;
     }
 
-    private void getISVPackageDefinitions(XmlNode packages)
+    private void getISVPackageDefinitions(XmlNode packages, List<Package> result)
     {
         XmlNode request = new XmlNode("GetISVPackageDefinition", Constants.XMLNS_ISV);
         LinkedHashMap<String, XmlNode> defs = new LinkedHashMap<String,XmlNode>();
@@ -157,7 +192,7 @@ public class PackageList extends CordysObjectList<Package>
         {
             try {
                 Package p = new Package(getSystem(), node);
-                grow(p);
+                result.add(p);
             }
             catch (Package.IncompleteDefinitionException e) {
                 String key= e.def.getAttribute("file");
@@ -165,11 +200,89 @@ public class PackageList extends CordysObjectList<Package>
                     XmlNode def = defs.get(key);
                     if (def!=null) {
                         Package p = new Package(getSystem(), def);
-                        grow(p);
+                        result.add(p);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * This method loads the deployed package information of all packages in this list at once, so that later calls to
+     * {@link Package#getInfo()} do not need to call the server. The details of the CAP packages are requested in batches, the
+     * ISV packages are loaded one by one. All calls are done in parallel, with the number of threads set by the property
+     * caas.package.threads (default 4). Packages for which the information was already loaded are skipped.
+     */
+    public void prefetchInfo()
+    {
+        ArrayList<Package> caps = new ArrayList<Package>();
+        ArrayList<Package> isvps = new ArrayList<Package>();
+        for (Package p : this)
+        {
+            if (p.hasInfo())
+                continue;
+            if (p.getType() == Package.EPackageType.cap)
+                caps.add(p);
+            else
+                isvps.add(p);
+        }
+        if (caps.isEmpty() && isvps.isEmpty())
+            return;
+
+        int threads = Integer.parseInt(Environment.get().getProp("caas.package.threads", "4"));
+        if (threads < 1)
+            threads = 1;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        ArrayList<Future<?>> results = new ArrayList<Future<?>>();
+        try
+        {
+            // Split the CAPs over the threads, so that a version without batch calls still loads them in parallel
+            int chunks = Math.min(threads, caps.size());
+            for (int i = 0; i < chunks; i++)
+            {
+                final ArrayList<Package> chunk = new ArrayList<Package>();
+                for (int j = i; j < caps.size(); j += chunks)
+                    chunk.add(caps.get(j));
+                results.add(pool.submit(new Runnable() {
+                    public void run()
+                    {
+                        Map<String, IDeployedPackageInfo> infos = getSystem().getCompatibilityManager().loadCAPInfo(
+                                system.getSoapCaller(), system, chunk);
+                        for (Package p : chunk)
+                            p.setInfo(infos.get(p.getName()));
+                    }
+                }));
+            }
+            for (final Package p : isvps)
+            {
+                results.add(pool.submit(new Runnable() {
+                    public void run()
+                    {
+                        p.getInfo();
                     }
+                }));
+            }
+            for (Future<?> result : results)
+            {
+                try
+                {
+                    result.get();
+                }
+                catch (ExecutionException e)
+                {
+                    // The package info will be loaded (and the error reported) when it is used
+                    Environment.warn("Prefetching package information failed: " + e.getCause().getMessage());
                 }
             }
         }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            pool.shutdown();
+        }
     }
 
     /**
@@ -217,4 +330,4 @@ public class PackageList extends CordysObjectList<Package>
     {
         this.supportsCap = supportsCap;
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
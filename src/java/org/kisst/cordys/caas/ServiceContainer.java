@@ -38,7 +38,8 @@ public class ServiceContainer extends LdapObjectBase
     public final XmlSubProperty implementation = new XmlSubProperty(config, "configuration/@implementation");
     public final XmlBoolProperty useSystemLogPolicy = new XmlBoolProperty(config, "loggerconfiguration/systempolicy", true);
 
-    private XmlNode workerprocess;
+    private volatile XmlNode workerprocess;
+    private volatile long workerprocessTime;
     private static Random random = new Random();
     private static XmlNode inactiveWorkerProcess = new XmlNode("<dummy><status></status></dummy>");
 
@@ -81,13 +82,50 @@ public class ServiceContainer extends LdapObjectBase
 
     public void setWorkerprocess(XmlNode workerprocess)
     {
+        this.workerprocessTime = System.currentTimeMillis();
         this.workerprocess = workerprocess;
     }
 
+    /**
+     * Marks this service container as not running, because its monitor did not report it.
+     */
+    void setInactive()
+    {
+        setWorkerprocess(inactiveWorkerProcess);
+    }
+
+    /**
+     * Returns the status from the last snapshot, without asking the monitor.
+     *
+     * @param since The time in milliseconds since which the status must have been set.
+     * @return The workerprocess element, or null if no status was set since the given time.
+     */
+    XmlNode getWorkerprocess(long since)
+    {
+        XmlNode result = this.workerprocess;
+        return workerprocessTime >= since ? result : null;
+    }
+
+    /**
+     * Returns the status of this service container as reported by the monitor. The status is taken from the status snapshot of
+     * the system, which is refreshed for all machines at once when it is older than caas.status.ttl milliseconds.
+     * 
+     * @return The workerprocess element of the monitor.
+     * @see CordysSystem#refreshServiceContainers(long)
+     */
     public XmlNode getWorkerprocess()
     {
-        if (workerprocess != null && useCache())
-            return this.workerprocess;
+        long ttl = getSystem().getStatusTtl();
+        XmlNode result = this.workerprocess;
+        if (result != null && System.currentTimeMillis() - workerprocessTime <= ttl)
+            return result;
+        long start = System.currentTimeMillis();
+        getSystem().refreshServiceContainers(ttl);
+        result = this.workerprocess;
+        if (result != null && workerprocessTime >= start - ttl)
+            return result;
+
+        // The snapshot did not cover this service container, so ask its monitor directly
         XmlNode request = new XmlNode(Constants.LIST, Constants.XMLNS_MONITOR);
         ServiceContainer monitor = getSystem().sc.getByName("monitor@" + computer);
         HashMap<String, String> queryParams = new HashMap<String, String>();
@@ -101,12 +139,12 @@ public class ServiceContainer extends LdapObjectBase
             String dn = workerprocess.getChildText("name");
             if (dn.equals(getDn()))
             {
-                this.workerprocess = workerprocess;
+                setWorkerprocess(workerprocess);
                 return workerprocess;
             }
         }
-        this.workerprocess = inactiveWorkerProcess;
-        return workerprocess;
+        setInactive();
+        return inactiveWorkerProcess;
         // throw new RuntimeException("Could not find processor details for "+this.dn);
     }
 
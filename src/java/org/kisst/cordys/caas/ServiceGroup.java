@@ -80,6 +80,47 @@ public class ServiceGroup extends LdapObjectBase
         updateLdap(newEntry);
     }
 
+    /**
+     * Starts all service containers of this service group in parallel and waits until they are ready
+     * 
+     * @return The report with the outcome per service container
+     */
+    public BulkLifecycle.Report startAll()
+    {
+        return new BulkLifecycle(serviceContainers).start();
+    }
+
+    /**
+     * Stops all service containers of this service group in parallel
+     * 
+     * @return The report with the outcome per service container
+     */
+    public BulkLifecycle.Report stopAll()
+    {
+        return new BulkLifecycle(serviceContainers).stop();
+    }
+
+    /**
+     * Restarts all service containers of this service group in parallel and waits until they are ready
+     * 
+     * @return The report with the outcome per service container
+     */
+    public BulkLifecycle.Report restartAll()
+    {
+        return new BulkLifecycle(serviceContainers).restart();
+    }
+
+    /**
+     * Restarts the service containers of this service group, while keeping the given number of them running
+     * 
+     * @param keepUp Number of service containers that must stay up
+     * @return The report with the outcome per service container
+     */
+    public BulkLifecycle.Report rollingRestart(int keepUp)
+    {
+        return new BulkLifecycle(serviceContainers).setRolling(keepUp).restart();
+    }
+
     /*
      * &lt;configurations&gt; &lt;cancelReplyInterval&gt;30000&lt;/cancelReplyInterval&gt;
      * &lt;gracefulCompleteTime&gt;15&lt;/gracefulCompleteTime&gt; &lt;abortTime&gt;5&lt;/abortTime&gt; &lt;jreconfig&gt;&lt;param
@@ -0,0 +1,420 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.support.MetricSeries;
+import org.kisst.cordys.caas.util.ExceptionUtil;
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class polls the status of all service containers of a system at a fixed interval and keeps the history of their metrics.
+ * Every poll is a single status snapshot of the system (one request per machine), so the monitors are not asked for every
+ * service container separately. The history is kept in fixed size ring buffers, so the collector can run for a long time.
+ * <p>
+ * The interval is set with the property caas.telemetry.interval (default 5000 milliseconds) and the number of samples that are
+ * kept with caas.telemetry.samples (default 720).
+ * </p>
+ */
+public class TelemetryCollector
+{
+    /**
+     * The metrics that are collected for every service container.
+     */
+    public static enum Metric
+    {
+        CPU_TIME("cpuTime", "totalCpuTime"), NOM_MEMORY("nomMemory", "totalNOMMemory"), NOM_NODES_MEMORY("nomNodesMemory",
+                "totalNOMNodesMemory"), VIRTUAL_MEMORY("virtualMemory", "virtualMemoryUsage"), RESIDENT_MEMORY("residentMemory",
+                "residentMemoryUsage"), BUSDOCS("busdocs", "busdocs"), PROCESSING_TIME("processingTime", "processing-time");
+
+        /** Holds the name of the metric in exports. */
+        private final String label;
+        /** Holds the element of the workerprocess that contains the value. */
+        private final String element;
+
+        /**
+         * Instantiates a new metric.
+         *
+         * @param label The name in exports.
+         * @param element The element of the workerprocess.
+         */
+        private Metric(String label, String element)
+        {
+            this.label = label;
+            this.element = element;
+        }
+
+        /**
+         * This method gets the name of the metric in exports.
+         *
+         * @return The label.
+         */
+        public String label()
+        {
+            return label;
+        }
+    }
+
+    /**
+     * Holds the history of a single service container.
+     */
+    public static class Series extends MetricSeries
+    {
+        /** Holds the service container. */
+        private final ServiceContainer container;
+        /** Holds the latest status text. */
+        private volatile String status;
+
+        /**
+         * Instantiates a new series.
+         *
+         * @param container The service container.
+         * @param capacity The number of samples to keep.
+         */
+        private Series(ServiceContainer container, int capacity)
+        {
+            super(Metric.values().length, capacity);
+            this.container = container;
+        }
+
+        /**
+         * This method gets the service container.
+         *
+         * @return The service container.
+         */
+        public ServiceContainer getContainer()
+        {
+            return container;
+        }
+
+        /**
+         * This method gets the latest status.
+         *
+         * @return The status, or null if the status was not available.
+         */
+        public String getStatus()
+        {
+            return status;
+        }
+
+        /**
+         * This method gets the latest value of the given metric.
+         *
+         * @param metric The metric.
+         * @return The value, or -1 if not available.
+         */
+        public long getLatest(Metric metric)
+        {
+            return getLatest(metric.ordinal());
+        }
+
+        /**
+         * This method gets the increase of the given metric since the previous sample. A counter that was reset counts from 0.
+         *
+         * @param metric The metric.
+         * @return The increase, never negative.
+         */
+        public long getDelta(Metric metric)
+        {
+            return getDelta(metric.ordinal());
+        }
+
+        /**
+         * This method gets the increase per second of the given metric since the previous sample.
+         *
+         * @param metric The metric.
+         * @return The increase per second.
+         */
+        public double getRate(Metric metric)
+        {
+            return getRate(metric.ordinal(), 1);
+        }
+
+        /**
+         * This method gets the percentage of a single CPU that was used since the previous sample. The CPU time is reported in
+         * milliseconds.
+         *
+         * @return The CPU percentage.
+         */
+        public double getCpuPercentage()
+        {
+            return getRate(Metric.CPU_TIME) / 10.0;
+        }
+    }
+
+    /** Holds the system. */
+    private final CordysSystem system;
+    /** Holds the interval in milliseconds. */
+    private final long interval;
+    /** Holds the number of samples to keep per service container. */
+    private final int capacity;
+    /** Holds the series, keyed by the dn of the service container. */
+    private final TreeMap<String, Series> series = new TreeMap<String, Series>();
+    /** Holds the scheduler of the background collection, or null when not running. */
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Instantiates a new telemetry collector with the configured interval and number of samples.
+     *
+     * @param system The system.
+     */
+    public TelemetryCollector(CordysSystem system)
+    {
+        this(system, Long.parseLong(Environment.get().getProp("caas.telemetry.interval", "5000")), Integer.parseInt(Environment
+                .get().getProp("caas.telemetry.samples", "720")));
+    }
+
+    /**
+     * Instantiates a new telemetry collector.
+     *
+     * @param system The system.
+     * @param interval The interval between polls in milliseconds.
+     * @param capacity The number of samples to keep per service container.
+     */
+    public TelemetryCollector(CordysSystem system, long interval, int capacity)
+    {
+        this.system = system;
+        this.interval = interval;
+        this.capacity = capacity;
+    }
+
+    /**
+     * This method gets the interval between polls.
+     *
+     * @return The interval in milliseconds.
+     */
+    public long getInterval()
+    {
+        return interval;
+    }
+
+    /**
+     * This method starts polling in the background. It does nothing if the collector is already running.
+     */
+    public synchronized void start()
+    {
+        if (scheduler != null)
+            return;
+        scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable r)
+            {
+                Thread result = new Thread(r, "caas-telemetry-" + system.getName());
+                result.setDaemon(true);
+                return result;
+            }
+        });
+        scheduler.scheduleWithFixedDelay(new Runnable() {
+            public void run()
+            {
+                try
+                {
+                    collect();
+                }
+                catch (RuntimeException e)
+                {
+                    // Keep on polling, the monitors might come back
+                    Environment.warn("Collecting telemetry of " + system.getName() + " failed: " + e.getMessage());
+                    Environment.trace(ExceptionUtil.getStacktrace(e));
+                }
+            }
+        }, 0, interval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * This method stops polling in the background. The collected history is kept.
+     */
+    public synchronized void stop()
+    {
+        if (scheduler != null)
+            scheduler.shutdownNow();
+        scheduler = null;
+    }
+
+    /**
+     * This method polls the status of all service containers once and adds a sample to each series.
+     */
+    public void collect()
+    {
+        long start = System.currentTimeMillis();
+        system.refreshServiceContainers();
+        long[] sample = new long[Metric.values().length];
+        for (ServiceContainer sc : system.serviceContainers)
+        {
+            // Service containers of a machine whose monitor did not answer get an empty sample
+            XmlNode wp = sc.getWorkerprocess(start);
+            for (Metric m : Metric.values())
+                sample[m.ordinal()] = wp == null ? -1 : parse(wp.getChildText(m.element));
+            Series s = getOrCreate(sc);
+            s.status = wp == null ? null : wp.getChildText("status");
+            s.add(start, sample);
+        }
+    }
+
+    /**
+     * This method gets the series of a service container, creating it if needed.
+     *
+     * @param sc The service container.
+     * @return The series.
+     */
+    private synchronized Series getOrCreate(ServiceContainer sc)
+    {
+        Series result = series.get(sc.getDn());
+        if (result == null)
+        {
+            result = new Series(sc, capacity);
+            series.put(sc.getDn(), result);
+        }
+        return result;
+    }
+
+    /**
+     * This method parses a numeric value of the monitor.
+     *
+     * @param text The text.
+     * @return The value, or -1 if it is not a number.
+     */
+    private static long parse(String text)
+    {
+        if (text == null || text.length() == 0)
+            return -1;
+        try
+        {
+            return Long.parseLong(text.trim());
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * This method gets the series of all service containers, ordered by dn.
+     *
+     * @return The series.
+     */
+    public synchronized List<Series> getSeries()
+    {
+        return new ArrayList<Series>(series.values());
+    }
+
+    /**
+     * This method writes the complete history as CSV, with one line per service container per sample.
+     *
+     * @param out The writer to write to.
+     */
+    public void writeCsv(Writer out)
+    {
+        try
+        {
+            out.write("time,name,dn");
+            for (Metric m : Metric.values())
+                out.write("," + m.label());
+            out.write("\n");
+            for (Series s : getSeries())
+            {
+                for (int age = s.size() - 1; age >= 0; age--)
+                {
+                    out.write(s.getTime(age) + "," + csv(s.getContainer().getName()) + "," + csv(s.getContainer().getDn()));
+                    for (Metric m : Metric.values())
+                        out.write("," + s.get(m.ordinal(), age));
+                    out.write("\n");
+                }
+            }
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method writes the complete history as JSON, with an array of samples per service container.
+     *
+     * @param out The writer to write to.
+     */
+    public void writeJson(Writer out)
+    {
+        try
+        {
+            out.write("{\"system\":" + json(system.getName()) + ",\"interval\":" + interval + ",\"containers\":[");
+            boolean firstSeries = true;
+            for (Series s : getSeries())
+            {
+                out.write(firstSeries ? "\n" : ",\n");
+                firstSeries = false;
+                out.write("{\"name\":" + json(s.getContainer().getName()) + ",\"dn\":" + json(s.getContainer().getDn())
+                        + ",\"status\":" + json(s.getStatus()) + ",\"samples\":[");
+                for (int age = s.size() - 1; age >= 0; age--)
+                {
+                    out.write("{\"time\":" + s.getTime(age));
+                    for (Metric m : Metric.values())
+                        out.write(",\"" + m.label() + "\":" + s.get(m.ordinal(), age));
+                    out.write(age > 0 ? "}," : "}");
+                }
+                out.write("]}");
+            }
+            out.write("\n]}\n");
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method quotes a CSV field when needed.
+     *
+     * @param value The value.
+     * @return The CSV field.
+     */
+    private static String csv(String value)
+    {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0)
+            return value;
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * This method converts the value into a JSON string.
+     *
+     * @param value The value.
+     * @return The JSON string, or null.
+     */
+    private static String json(String value)
+    {
+        if (value == null)
+            return "null";
+        StringBuilder result = new StringBuilder(value.length() + 2);
+        result.append('"');
+        for (char c : value.toCharArray())
+        {
+            if (c == '"' || c == '\\')
+                result.append('\\').append(c);
+            else if (c < 0x20)
+                result.append(String.format("\\u%04x", (int) c));
+            else
+                result.append(c);
+        }
+        return result.append('"').toString();
+    }
+}
@@ -9,7 +9,6 @@
 
 package org.kisst.cordys.caas;
 
-import java.util.ArrayList;
 import java.util.Date;
 
 import org.kisst.cordys.caas.Assignment.AssignmentList;
@@ -176,9 +175,7 @@ public class User extends LdapObjectBase
         {
             User retVal = null;
 
-            ArrayList<User> users = fetchList();
-
-            for (User u : users)
+            for (User u : this)
             {
                 if (u.getDn().equals(userDn))
                 {
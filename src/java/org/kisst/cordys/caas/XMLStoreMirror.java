@@ -0,0 +1,590 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas;
+
+import static org.kisst.cordys.caas.main.Environment.error;
+import static org.kisst.cordys.caas.main.Environment.info;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.util.FileUtil;
+import org.kisst.cordys.caas.util.HashUtil;
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class mirrors the XMLStore of an organization to a folder, so it can be kept under version control or backed up. Every
+ * document is stored as a file with its key as path. A manifest in the folder remembers for every key the lastModified the server
+ * reported and the SHA-256 hash of the file, so only the documents that changed on the server are downloaded and only the files
+ * that changed locally are uploaded.
+ * <p>
+ * When a document changed both on the server and locally it is reported as a conflict and left alone, unless the mirror is forced.
+ * Documents that were removed from the server are removed from the folder when they were not changed locally. Files that are
+ * removed locally are not removed from the server.
+ * </p>
+ * <p>
+ * A push writes a document at the level it was pulled from. Documents of the isv level can not be changed, so they are written at
+ * the organization level, where they override the isv document. New files are also written at the organization level.
+ * </p>
+ * <p>
+ * The number of documents that are transferred at the same time is set with the property caas.xmlstore.threads (default 8).
+ * </p>
+ */
+public class XMLStoreMirror
+{
+    /** Holds the name of the manifest file in the folder. */
+    public static final String MANIFEST = ".xmlstore.manifest";
+
+    /**
+     * The actions that are taken for a document.
+     */
+    public static enum Action
+    {
+        DOWNLOADED, UPLOADED, REMOVED, UNCHANGED, CONFLICT, FAILED
+    }
+
+    /**
+     * Holds what is known about a single document.
+     */
+    private static class Entry
+    {
+        /** Holds the lastModified the server reported. */
+        private String lastModified;
+        /** Holds the SHA-256 hash of the file. */
+        private String sha256;
+        /** Holds the level of the document on the server. */
+        private String level;
+    }
+
+    /** Holds the organization. */
+    private final Organization org;
+    /** Holds the folder. */
+    private final File dir;
+    /** Holds whether conflicts are overwritten. */
+    private boolean force;
+    /** Holds the manifest, by key. */
+    private final Map<String, Entry> manifest = new HashMap<String, Entry>();
+    /** Holds the action taken for each key. */
+    private final Map<String, Action> actions = Collections.synchronizedMap(new LinkedHashMap<String, Action>());
+
+    /**
+     * Instantiates a new mirror.
+     *
+     * @param org The organization.
+     * @param dir The folder.
+     */
+    public XMLStoreMirror(Organization org, File dir)
+    {
+        this.org = org;
+        this.dir = dir;
+    }
+
+    /**
+     * This method sets whether documents that changed both on the server and locally are overwritten.
+     *
+     * @param force Whether conflicts are overwritten.
+     * @return This object.
+     */
+    public XMLStoreMirror setForce(boolean force)
+    {
+        this.force = force;
+        return this;
+    }
+
+    /**
+     * This method downloads the documents that changed on the server since the last pull.
+     *
+     * @return This object, which prints as a report.
+     */
+    public XMLStoreMirror pull()
+    {
+        loadManifest();
+        actions.clear();
+
+        // A new list is used, so the downloaded documents are not kept in the organization
+        final Map<String, XMLStoreObject> server = list();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        for (final XMLStoreObject obj : server.values())
+        {
+            final String key = obj.getKey();
+            if (!isValidKey(key))
+                continue;
+            Entry entry = manifest.get(key);
+            File file = getFile(key);
+            boolean serverChanged = entry == null || !equals(entry.lastModified, obj.getLastModified());
+            if (file.exists() && !serverChanged)
+            {
+                actions.put(key, Action.UNCHANGED);
+            }
+            else if (file.exists() && isChanged(key) && !force)
+            {
+                actions.put(key, Action.CONFLICT);
+            }
+            else
+            {
+                tasks.add(new Runnable() {
+                    public void run()
+                    {
+                        download(obj);
+                    }
+                });
+            }
+        }
+
+        // Documents that are gone from the server are removed, unless they were changed locally
+        for (String key : new ArrayList<String>(manifest.keySet()))
+        {
+            if (server.containsKey(key) || !isValidKey(key))
+                continue;
+            if (isChanged(key) && !force)
+            {
+                actions.put(key, Action.CONFLICT);
+                continue;
+            }
+            File file = getFile(key);
+            if (file.exists() && !file.delete())
+            {
+                actions.put(key, Action.FAILED);
+                continue;
+            }
+            synchronized (manifest)
+            {
+                manifest.remove(key);
+            }
+            actions.put(key, Action.REMOVED);
+        }
+
+        runAll(tasks);
+        saveManifest();
+        info("Pulled XMLStore of " + org.getName() + " to " + dir + ":\n" + this);
+        return this;
+    }
+
+    /**
+     * This method uploads the files that changed locally since the last pull or push.
+     *
+     * @return This object, which prints as a report.
+     */
+    public XMLStoreMirror push()
+    {
+        loadManifest();
+        actions.clear();
+
+        Map<String, XMLStoreObject> server = list();
+        List<Runnable> tasks = new ArrayList<Runnable>();
+        final List<String> uploaded = Collections.synchronizedList(new ArrayList<String>());
+        for (final String key : getLocalKeys())
+        {
+            if (!isValidKey(key))
+                continue;
+            if (!isChanged(key))
+            {
+                actions.put(key, Action.UNCHANGED);
+                continue;
+            }
+
+            Entry entry = manifest.get(key);
+            XMLStoreObject obj = server.get(key);
+            boolean serverChanged = obj != null && (entry == null || !equals(entry.lastModified, obj.getLastModified()));
+            if (serverChanged && !force)
+            {
+                actions.put(key, Action.CONFLICT);
+                continue;
+            }
+            tasks.add(new Runnable() {
+                public void run()
+                {
+                    if (upload(key))
+                        uploaded.add(key);
+                }
+            });
+        }
+        runAll(tasks);
+
+        // The server sets a new lastModified on the uploaded documents, which is read with a single listing
+        if (!uploaded.isEmpty())
+        {
+            server = list();
+            for (String key : uploaded)
+            {
+                XMLStoreObject obj = server.get(key);
+                Entry entry = manifest.get(key);
+                if (obj != null && entry != null)
+                {
+                    entry.lastModified = obj.getLastModified();
+                    entry.level = obj.getVersion();
+                }
+            }
+        }
+        saveManifest();
+        info("Pushed " + dir + " to the XMLStore of " + org.getName() + ":\n" + this);
+        return this;
+    }
+
+    /**
+     * This method downloads a single document.
+     *
+     * @param obj The document.
+     */
+    private void download(XMLStoreObject obj)
+    {
+        String key = obj.getKey();
+        try
+        {
+            XmlNode xml = obj.getXML();
+            if (xml == null)
+            {
+                throw new CaasRuntimeException("XMLStore object " + key + " has no content");
+            }
+            File file = getFile(key);
+            File parent = file.getParentFile();
+            if (parent != null && !parent.exists())
+                parent.mkdirs();
+            FileUtil.saveString(file, xml.getPretty());
+
+            Entry entry = new Entry();
+            entry.lastModified = obj.getLastModified();
+            entry.sha256 = HashUtil.sha256(file);
+            entry.level = obj.getVersion();
+            synchronized (manifest)
+            {
+                manifest.put(key, entry);
+            }
+            actions.put(key, Action.DOWNLOADED);
+        }
+        catch (RuntimeException e)
+        {
+            actions.put(key, Action.FAILED);
+            error("Downloading " + key + " failed", e);
+        }
+    }
+
+    /**
+     * This method uploads a single file.
+     *
+     * @param key The key of the document.
+     * @return true if the file was uploaded.
+     */
+    private boolean upload(String key)
+    {
+        try
+        {
+            Entry previous;
+            synchronized (manifest)
+            {
+                previous = manifest.get(key);
+            }
+            String level = previous == null || previous.level == null || "isv".equals(previous.level) ? "organization"
+                    : previous.level;
+
+            // The object is not read first, it is simply overwritten
+            File file = getFile(key);
+            XmlNode xml = new XmlNode(FileUtil.loadString(file));
+            XMLStoreObject.forKey(key, level, org).overwriteXML(xml);
+
+            Entry entry = new Entry();
+            entry.sha256 = HashUtil.sha256(file);
+            entry.level = level;
+            synchronized (manifest)
+            {
+                manifest.put(key, entry);
+            }
+            actions.put(key, Action.UPLOADED);
+            return true;
+        }
+        catch (RuntimeException e)
+        {
+            actions.put(key, Action.FAILED);
+            error("Uploading " + key + " failed", e);
+            return false;
+        }
+    }
+
+    /**
+     * This method lists the documents on the server, without reading their content.
+     *
+     * @return The documents, by key.
+     */
+    private Map<String, XMLStoreObject> list()
+    {
+        Map<String, XMLStoreObject> result = new LinkedHashMap<String, XMLStoreObject>();
+        for (XMLStoreObject obj : new XMLStoreObject.List(org))
+            result.put(obj.getKey(), obj);
+        return result;
+    }
+
+    /**
+     * This method returns whether the file of the given key differs from the file that was last pulled or pushed.
+     *
+     * @param key The key.
+     * @return true if the file was changed, added or removed locally.
+     */
+    private boolean isChanged(String key)
+    {
+        Entry entry;
+        synchronized (manifest)
+        {
+            entry = manifest.get(key);
+        }
+        File file = getFile(key);
+        if (entry == null)
+            return file.exists();
+        return !file.exists() || !HashUtil.sha256(file).equals(entry.sha256);
+    }
+
+    /**
+     * This method gets the file of a key. Keys that would point outside the folder, for instance because they contain "..", are
+     * rejected.
+     *
+     * @param key The key.
+     * @return The file.
+     */
+    private File getFile(String key)
+    {
+        File file = new File(dir, key.startsWith("/") ? key.substring(1) : key);
+        try
+        {
+            String root = dir.getCanonicalPath() + File.separator;
+            if (!file.getCanonicalPath().startsWith(root))
+                throw new CaasRuntimeException("XMLStore key " + key + " points outside " + dir);
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        return file;
+    }
+
+    /**
+     * This method checks whether a key can be mirrored, and reports it as failed if it can not.
+     *
+     * @param key The key.
+     * @return true if the key points inside the folder.
+     */
+    private boolean isValidKey(String key)
+    {
+        try
+        {
+            getFile(key);
+            return true;
+        }
+        catch (CaasRuntimeException e)
+        {
+            actions.put(key, Action.FAILED);
+            error("Skipping " + key, e);
+            return false;
+        }
+    }
+
+    /**
+     * This method gets the keys of all files in the folder, except the manifest.
+     *
+     * @return The keys.
+     */
+    private List<String> getLocalKeys()
+    {
+        List<String> result = new ArrayList<String>();
+        addLocalKeys(dir, "/", result);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * This method adds the keys of the files in the given folder and its subfolders.
+     *
+     * @param folder The folder.
+     * @param prefix The key of the folder.
+     * @param result The list to add the keys to.
+     */
+    private void addLocalKeys(File folder, String prefix, List<String> result)
+    {
+        File[] files = folder.listFiles();
+        if (files == null)
+            return;
+        for (File f : files)
+        {
+            if (f.getName().startsWith("."))
+                continue;
+            if (f.isDirectory())
+                addLocalKeys(f, prefix + f.getName() + "/", result);
+            else
+                result.add(prefix + f.getName());
+        }
+    }
+
+    /**
+     * This method runs the given tasks with a bounded number of threads and waits until all of them are finished.
+     *
+     * @param tasks The tasks.
+     */
+    private void runAll(List<Runnable> tasks)
+    {
+        if (tasks.isEmpty())
+            return;
+        int threads = Integer.parseInt(Environment.get().getProp("caas.xmlstore.threads", "8"));
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, tasks.size())));
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (Runnable task : tasks)
+                futures.add(pool.submit(task));
+            for (Future<?> future : futures)
+                future.get();
+        }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new CaasRuntimeException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * This method loads the manifest from the folder.
+     */
+    private void loadManifest()
+    {
+        manifest.clear();
+        File file = new File(dir, MANIFEST);
+        if (!file.exists())
+            return;
+        Properties props = new Properties();
+        FileUtil.load(props, file.getPath());
+        for (String key : props.stringPropertyNames())
+        {
+            String[] parts = props.getProperty(key).split("\\|", -1);
+            if (parts.length != 3)
+                continue;
+            Entry entry = new Entry();
+            entry.lastModified = parts[0].length() == 0 ? null : parts[0];
+            entry.sha256 = parts[1];
+            entry.level = parts[2];
+            manifest.put(key, entry);
+        }
+    }
+
+    /**
+     * This method saves the manifest to the folder.
+     */
+    private void saveManifest()
+    {
+        if (!dir.exists())
+            dir.mkdirs();
+        Properties props = new Properties();
+        synchronized (manifest)
+        {
+            for (Map.Entry<String, Entry> e : manifest.entrySet())
+            {
+                Entry entry = e.getValue();
+                props.setProperty(e.getKey(), (entry.lastModified == null ? "" : entry.lastModified) + "|" + entry.sha256 + "|"
+                        + entry.level);
+            }
+        }
+        FileOutputStream out = null;
+        try
+        {
+            out = new FileOutputStream(new File(dir, MANIFEST));
+            props.store(out, "XMLStore of " + org.getName() + " on " + org.getSystem().getName());
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            FileUtil.close(out);
+        }
+    }
+
+    /**
+     * This method compares two values that may be null.
+     *
+     * @param a The first value.
+     * @param b The second value.
+     * @return true if they are equal.
+     */
+    private static boolean equals(String a, String b)
+    {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * This method gets the action taken for each key of the last pull or push.
+     *
+     * @return The actions, by key.
+     */
+    public Map<String, Action> getActions()
+    {
+        synchronized (actions)
+        {
+            return new LinkedHashMap<String, Action>(actions);
+        }
+    }
+
+    /**
+     * This method returns whether the last pull or push had no failures and no conflicts.
+     *
+     * @return true if all documents are in sync.
+     */
+    public boolean isSuccess()
+    {
+        for (Action a : getActions().values())
+        {
+            if (a == Action.FAILED || a == Action.CONFLICT)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        Map<Action, Integer> counts = new LinkedHashMap<Action, Integer>();
+        for (Action a : Action.values())
+            counts.put(a, 0);
+        for (Map.Entry<String, Action> e : getActions().entrySet())
+        {
+            counts.put(e.getValue(), counts.get(e.getValue()) + 1);
+            if (e.getValue() != Action.UNCHANGED)
+                result.append(String.format("%-10s %s%n", e.getValue(), e.getKey()));
+        }
+        boolean first = true;
+        for (Map.Entry<Action, Integer> e : counts.entrySet())
+        {
+            result.append(first ? "" : ", ").append(e.getValue()).append(" ").append(e.getKey().toString().toLowerCase());
+            first = false;
+        }
+        return result.toString();
+    }
+}
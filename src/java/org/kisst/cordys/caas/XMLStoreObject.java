@@ -1,6 +1,18 @@
 package org.kisst.cordys.caas;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
 import org.kisst.cordys.caas.support.CordysObject;
 import org.kisst.cordys.caas.support.CordysObjectList;
 import org.kisst.cordys.caas.util.Constants;
@@ -25,6 +37,8 @@ public class XMLStoreObject extends CordysObject
     private String lastModified = null;
     /** Holds the system. */
     private final CordysSystem system;
+    /** Holds whether the XML has been read from the XMLStore. */
+    private boolean loaded = false;
 
     /**
      * @see org.kisst.cordys.caas.support.CordysObject#getKey()
@@ -41,6 +55,8 @@ public class XMLStoreObject extends CordysObject
     @Override
     public String getName()
     {
+        if (name == null)
+            load();
         return name;
     }
 
@@ -50,7 +66,7 @@ public class XMLStoreObject extends CordysObject
     @Override
     public String getVarName()
     {
-        return name;
+        return getName();
     }
 
     /**
@@ -60,6 +76,8 @@ public class XMLStoreObject extends CordysObject
      */
     public String getLastModified()
     {
+        if (lastModified == null)
+            load();
         return lastModified;
     }
 
@@ -70,6 +88,7 @@ public class XMLStoreObject extends CordysObject
      */
     public XmlNode getXML()
     {
+        load();
         return xml;
     }
 
@@ -111,18 +130,75 @@ public class XMLStoreObject extends CordysObject
      * @param org The org
      */
     public XMLStoreObject(String key, String version, Organization org)
+    {
+        this(key, version, null, null, org);
+        load();
+    }
+
+    /**
+     * Constructs XMLStore object from an entry of a collection. The XML is only read when it is needed.
+     * 
+     * @param key The key
+     * @param version The version
+     * @param name The name, or null if it is not known
+     * @param lastModified The last modified, or null if it is not known
+     * @param org The org
+     */
+    private XMLStoreObject(String key, String version, String name, String lastModified, Organization org)
     {
         this.key = key;
         this.version = version;
+        this.name = name;
+        this.lastModified = lastModified;
         this.org = org;
         this.system = org.getSystem();
-        XmlNode response = getXMLObject(key, version);
-        if (response.getChild("tuple/old") != null)
+    }
+
+    /**
+     * This method creates an XMLStore object without reading it, for instance to overwrite it.
+     * 
+     * @param key The key
+     * @param version The version
+     * @param org The org
+     * @return The object, whose XML is only read when it is needed.
+     */
+    public static XMLStoreObject forKey(String key, String version, Organization org)
+    {
+        return new XMLStoreObject(key, version, null, null, org);
+    }
+
+    /**
+     * This method reads the XML from the XMLStore, if that has not been done yet.
+     */
+    private synchronized void load()
+    {
+        if (!loaded)
+            setTuple(getXMLObject(key, version).getChild("tuple"));
+    }
+
+    /**
+     * This method sets the content of the object from a tuple of a GetXMLObject response.
+     * 
+     * @param tuple The tuple, or null if the object does not exist.
+     */
+    private synchronized void setTuple(XmlNode tuple)
+    {
+        if (tuple != null && tuple.getChild("old") != null)
         {
-            this.xml = response.getChild("tuple/old").getChildren().get(0);
-            this.name = response.getChild("tuple").getAttribute("name");
-            this.lastModified = response.getChild("tuple").getAttribute("lastModified");
+            this.xml = tuple.getChild("old").getChildren().get(0);
+            this.name = tuple.getAttribute("name");
+            this.lastModified = tuple.getAttribute("lastModified");
         }
+        loaded = true;
+    }
+
+    /**
+     * This method drops the XML that was read, so it can be garbage collected. It is read again when it is needed.
+     */
+    synchronized void release()
+    {
+        this.xml = null;
+        loaded = false;
     }
 
     /**
@@ -167,7 +243,11 @@ public class XMLStoreObject extends CordysObject
             tuple.add("new").add(node);
         call(request);
         XmlNode response = getXMLObject(key, version);
-        this.xml = response.getChild("tuple/old").getChildren().get(0);
+        synchronized (this)
+        {
+            this.xml = response.getChild("tuple/old").getChildren().get(0);
+            loaded = true;
+        }
     }
 
     /**
@@ -187,7 +267,11 @@ public class XMLStoreObject extends CordysObject
             tuple.add("new").add(newXml);
         call(request);
         // Refresh the XML content of the XMLStoreObject after the update operation
-        this.xml = newXml;
+        synchronized (this)
+        {
+            this.xml = newXml;
+            loaded = true;
+        }
     }
 
     /**
@@ -203,6 +287,19 @@ public class XMLStoreObject extends CordysObject
         return getSystem().call(request, queryParams);
     }
 
+    /**
+     * Receives the objects that are read by {@link List#fetch(Handler)}.
+     */
+    public interface Handler
+    {
+        /**
+         * This method is called for every object, in the order of the keys.
+         * 
+         * @param obj The object, with its XML read.
+         */
+        void object(XMLStoreObject obj);
+    }
+
     /**
      * Holds the Class List.
      * 
@@ -248,11 +345,133 @@ public class XMLStoreObject extends CordysObject
                 if (Boolean.valueOf(tuple.getAttribute("isFolder")).booleanValue())
                     continue;
 
-                XMLStoreObject obj = new XMLStoreObject(tuple.getAttribute("key"), tuple.getAttribute("level"), org);
+                // The XML is only read when it is needed, or in bulk by fetch()
+                XMLStoreObject obj = new XMLStoreObject(tuple.getAttribute("key"), tuple.getAttribute("level"),
+                        tuple.getAttribute("name"), tuple.getAttribute("lastModified"), org);
                 grow(obj);
             }
         }
 
+        /**
+         * This method reads the XML of all objects from the XMLStore and hands them to the handler in the order of their keys. The
+         * objects are read at the same time, but only a window of objects ahead of the handler is read, so the handler can write
+         * them away while the rest is still being read. The XML of an object is released when the handler returns, so only the
+         * window is held in memory, whatever the number of objects.
+         * <p>
+         * The number of objects that are read at the same time is set with the property caas.xmlstore.threads (default 8). With
+         * caas.xmlstore.batchsize (default 1) multiple keys are read with a single GetXMLObject request. Keys that are missing from
+         * such a response are read on their own.
+         * </p>
+         * 
+         * @param handler The handler that receives the objects.
+         */
+        public void fetch(Handler handler)
+        {
+            Environment env = Environment.get();
+            int threads = Math.max(1, Integer.parseInt(env.getProp("caas.xmlstore.threads", "8")));
+            int batchSize = Math.max(1, Integer.parseInt(env.getProp("caas.xmlstore.batchsize", "1")));
+
+            ArrayList<XMLStoreObject> objects = new ArrayList<XMLStoreObject>();
+            for (XMLStoreObject obj : this)
+                objects.add(obj);
+            Collections.sort(objects, new Comparator<XMLStoreObject>() {
+                public int compare(XMLStoreObject o1, XMLStoreObject o2)
+                {
+                    return o1.getKey().compareTo(o2.getKey());
+                }
+            });
+
+            ExecutorService pool = Executors.newFixedThreadPool(threads);
+            try
+            {
+                LinkedList<Future<java.util.List<XMLStoreObject>>> window = new LinkedList<Future<java.util.List<XMLStoreObject>>>();
+                int next = 0;
+                while (next < objects.size() || !window.isEmpty())
+                {
+                    // Keep twice the number of threads of batches ahead of the handler
+                    while (next < objects.size() && window.size() < threads * 2)
+                    {
+                        final java.util.List<XMLStoreObject> batch = objects.subList(next, Math.min(next + batchSize,
+                                objects.size()));
+                        next += batch.size();
+                        window.add(pool.submit(new Callable<java.util.List<XMLStoreObject>>() {
+                            public java.util.List<XMLStoreObject> call()
+                            {
+                                try
+                                {
+                                    load(batch);
+                                }
+                                catch (RuntimeException e)
+                                {
+                                    // The objects that were not read are read again when the handler uses them, which
+                                    // reports the error for that object only
+                                    Environment.warn("Reading " + batch.size() + " xmlstore objects failed: " + e.getMessage());
+                                }
+                                return batch;
+                            }
+                        }));
+                    }
+
+                    for (XMLStoreObject obj : window.removeFirst().get())
+                    {
+                        try
+                        {
+                            handler.object(obj);
+                        }
+                        finally
+                        {
+                            obj.release();
+                        }
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+            catch (ExecutionException e)
+            {
+                throw new CaasRuntimeException(e.getCause());
+            }
+            finally
+            {
+                pool.shutdownNow();
+            }
+        }
+
+        /**
+         * This method reads the XML of the given objects.
+         * 
+         * @param batch The objects.
+         */
+        private void load(java.util.List<XMLStoreObject> batch)
+        {
+            if (batch.size() == 1)
+            {
+                batch.get(0).load();
+                return;
+            }
+
+            XmlNode request = new XmlNode(Constants.GET_XML_OBJECT, Constants.XMLNS_XMLSTORE);
+            for (XMLStoreObject obj : batch)
+                request.add("key").setAttribute("version", obj.getVersion()).setText(obj.getKey());
+            HashMap<String, String> queryParams = new HashMap<String, String>();
+            queryParams.put("organization", org.getDn());
+            XmlNode response = system.call(request, queryParams);
+
+            HashMap<String, XmlNode> tuples = new HashMap<String, XmlNode>();
+            for (XmlNode tuple : response.getChildren("tuple"))
+                tuples.put(tuple.getAttribute("key"), tuple);
+            for (XMLStoreObject obj : batch)
+            {
+                XmlNode tuple = tuples.get(obj.getKey());
+                if (tuple != null)
+                    obj.setTuple(tuple);
+                else
+                    obj.load();
+            }
+        }
+
         /**
          * @see org.kisst.cordys.caas.support.CordysObject#getKey()
          */
@@ -73,7 +73,8 @@ public class PackageObjective extends AbstractObjective
             return;
         }
 
-        // Get the information of the deployed package
+        // Get the information of the deployed package. The first check loads the information of all packages at once.
+        system.packages.prefetchInfo();
         IDeployedPackageInfo dpi = pkg.getInfo();
 
         // TODO: check if loaded on all necessary machines
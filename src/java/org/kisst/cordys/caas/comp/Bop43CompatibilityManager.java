@@ -272,4 +272,91 @@ class Bop43CompatibilityManager extends Bop42CompatibilityManager
 
         return retVal;
     }
+
+    /**
+     * The details of all packages are requested with a single GetPackageDetails call.
+     * 
+     * @see org.kisst.cordys.caas.comp.ICompatibilityManager#loadCAPInfo(org.kisst.cordys.caas.soap.SoapCaller,
+     *      org.kisst.cordys.caas.CordysSystem, java.util.List)
+     */
+    @Override
+    public Map<String, IDeployedPackageInfo> loadCAPInfo(SoapCaller c, CordysSystem system, List<Package> packages)
+    {
+        Map<String, IDeployedPackageInfo> retVal = new HashMap<String, IDeployedPackageInfo>();
+        if (packages.isEmpty())
+        {
+            return retVal;
+        }
+
+        XmlNode request = new XmlNode(Constants.GET_PACKAGE_DETAILS, Constants.XMLNS_CAP);
+        XmlNode xmlPackages = request.add("Packages");
+        for (Package p : packages)
+        {
+            xmlPackages.add("Package").setText(p.getName());
+        }
+
+        XmlNode response = c.call(request, PackageList.DEFAULT_PACKAGE_TIMEOUT);
+
+        for (XmlNode cap : response.xpath("cap:Packages/cap:Package", Constants.NS))
+        {
+            XmlNode deploymentDetails = cap.xpathSingle("cap:DeploymentDetails[cap:ClusterStatus='DEPLOYED']", Constants.NS);
+            if (deploymentDetails != null)
+            {
+                String name = cap.getAttribute("name");
+                String vendor = deploymentDetails.getChildText("Vendor");
+                String version = deploymentDetails.getChildText("Version");
+                String buildNumber = deploymentDetails.getChildText("BuildNumber");
+
+                retVal.put(name, new DeployedPackageInfo(name, null, vendor, version, buildNumber));
+            }
+        }
+
+        return retVal;
+    }
+
+    /**
+     * The details of all packages, including their dependencies, are requested with a single GetPackageDetails call.
+     * 
+     * @see org.kisst.cordys.caas.comp.ICompatibilityManager#getCAPDependencies(org.kisst.cordys.caas.soap.SoapCaller,
+     *      org.kisst.cordys.caas.CordysSystem, java.util.List)
+     */
+    @Override
+    public Map<String, List<String>> getCAPDependencies(SoapCaller c, CordysSystem system, List<String> names)
+    {
+        Map<String, List<String>> retVal = new LinkedHashMap<String, List<String>>();
+        if (names.isEmpty())
+        {
+            return retVal;
+        }
+
+        XmlNode request = new XmlNode(Constants.GET_PACKAGE_DETAILS, Constants.XMLNS_CAP);
+        XmlNode xmlPackages = request.add("Packages");
+        for (String name : names)
+        {
+            xmlPackages.add("Package").setText(name);
+        }
+
+        XmlNode response = c.call(request, PackageList.DEFAULT_PACKAGE_TIMEOUT);
+
+        for (XmlNode cap : response.xpath("cap:Packages/cap:Package", Constants.NS))
+        {
+            List<String> dependencies = new ArrayList<String>();
+            for (XmlNode dependency : cap.xpath("cap:Dependencies/cap:Package", Constants.NS))
+            {
+                // Depending on the version the name is either an attribute or the text of the node
+                String name = dependency.getAttribute("name");
+                if (StringUtil.isEmptyOrNull(name))
+                {
+                    name = dependency.getText();
+                }
+                if (!StringUtil.isEmptyOrNull(name))
+                {
+                    dependencies.add(name.trim());
+                }
+            }
+            retVal.put(cap.getAttribute("name"), dependencies);
+        }
+
+        return retVal;
+    }
 }
@@ -2,6 +2,7 @@ package org.kisst.cordys.caas.comp;
 
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 
 import org.kisst.cordys.caas.CordysSystem;
 import org.kisst.cordys.caas.IDeployedPackageInfo;
@@ -34,4 +35,10 @@ public class C3DefaultCompatibilityManager implements ICompatibilityManager
     @Override public IDeployedPackageInfo loadCAPInfo(SoapCaller soapCaller, CordysSystem system, Package p) {
         throw new RuntimeException("CAP files are not supported on a C3 system");
     }
+    @Override public Map<String, IDeployedPackageInfo> loadCAPInfo(SoapCaller soapCaller, CordysSystem system, List<Package> packages) {
+        throw new RuntimeException("CAP files are not supported on a C3 system");
+    }
+    @Override public Map<String, List<String>> getCAPDependencies(SoapCaller soapCaller, CordysSystem system, List<String> names) {
+        throw new RuntimeException("CAP files are not supported on a C3 system");
+    }
 }
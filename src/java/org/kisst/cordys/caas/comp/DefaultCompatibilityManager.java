@@ -310,4 +310,37 @@ public class DefaultCompatibilityManager implements ICompatibilityManager
         
         return retVal;
     }
+
+    /**
+     * This version has no call that returns the details of several CAPs, so the details are loaded one by one.
+     * 
+     * @see org.kisst.cordys.caas.comp.ICompatibilityManager#loadCAPInfo(org.kisst.cordys.caas.soap.SoapCaller,
+     *      org.kisst.cordys.caas.CordysSystem, java.util.List)
+     */
+    @Override
+    public Map<String, IDeployedPackageInfo> loadCAPInfo(SoapCaller soapCaller, CordysSystem system, List<Package> packages)
+    {
+        Map<String, IDeployedPackageInfo> retVal = new HashMap<String, IDeployedPackageInfo>();
+        for (Package p : packages)
+        {
+            IDeployedPackageInfo info = loadCAPInfo(soapCaller, system, p);
+            if (info != null)
+            {
+                retVal.put(p.getName(), info);
+            }
+        }
+        return retVal;
+    }
+
+    /**
+     * Before 4.3 the deployment details do not contain the dependencies of a package.
+     * 
+     * @see org.kisst.cordys.caas.comp.ICompatibilityManager#getCAPDependencies(org.kisst.cordys.caas.soap.SoapCaller,
+     *      org.kisst.cordys.caas.CordysSystem, java.util.List)
+     */
+    @Override
+    public Map<String, List<String>> getCAPDependencies(SoapCaller c, CordysSystem system, List<String> names)
+    {
+        return null;
+    }
 }
@@ -1,6 +1,7 @@
 package org.kisst.cordys.caas.comp;
 
 import java.util.List;
+import java.util.Map;
 
 import org.kisst.cordys.caas.CordysSystem;
 import org.kisst.cordys.caas.IDeployedPackageInfo;
@@ -85,4 +86,25 @@ public interface ICompatibilityManager
      * @return The i deployed package info
      */
     IDeployedPackageInfo loadCAPInfo(SoapCaller soapCaller, CordysSystem system, Package package1);
+
+    /**
+     * This method loads the CAP details of several packages at once. It can be called from several threads at the same time.
+     * 
+     * @param soapCaller The soap caller
+     * @param system The system
+     * @param packages The packages to load the details for
+     * @return The deployed package info per package name. Packages that are not deployed are not in the map.
+     */
+    Map<String, IDeployedPackageInfo> loadCAPInfo(SoapCaller soapCaller, CordysSystem system, List<Package> packages);
+
+    /**
+     * This method gets the packages that the given CAP packages depend on, as described in their package metadata.
+     * 
+     * @param soapCaller The soap caller
+     * @param system The system
+     * @param names The names of the packages
+     * @return The names of the packages each package depends on, keyed by package name. Null if the platform does not expose
+     *         the dependencies of CAP packages.
+     */
+    Map<String, List<String>> getCAPDependencies(SoapCaller soapCaller, CordysSystem system, List<String> names);
 }
@@ -59,6 +59,8 @@ public class CaasMainCommand extends CompositeCommand
         commands.put("template", new TemplateCommand());
         commands.put("dev", new DevelopCommand());
         commands.put("http", new HttpCallCommand());
+        commands.put("top", new TopCommand());
+        commands.put("xmlstore", new XmlStoreCommand());
     }
 
     /**
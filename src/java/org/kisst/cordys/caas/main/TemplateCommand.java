@@ -10,6 +10,7 @@ import org.kisst.cordys.caas.Organization;
 import org.kisst.cordys.caas.exception.CaasRuntimeException;
 import org.kisst.cordys.caas.support.LoadedPropertyMap;
 import org.kisst.cordys.caas.template.ETemplateOption;
+import org.kisst.cordys.caas.template.OrganizationApplier;
 import org.kisst.cordys.caas.template.Template;
 import org.kisst.cordys.caas.util.FileUtil;
 
@@ -44,13 +45,12 @@ public class TemplateCommand extends CompositeCommand
             // Create the template for the configured organization
             String orgz = System.getProperty("template.org");
             Organization organization = getOrg(orgz);
-            Template templ = new Template(organization, null, getOptions());
 
             // Load the properties for the given organization
             LoadedPropertyMap variables = Environment.get().loadSystemProperties(getSystem().getName(), organization.getName());
 
-            // Save the template
-            templ.save(args[0], variables);
+            // Export the template straight to the file
+            Template.export(organization, null, getOptions(), args[0], variables);
         }
     };
 
@@ -67,23 +67,57 @@ public class TemplateCommand extends CompositeCommand
             File src = new File(args[0]);
             Template templ = new Template(FileUtil.loadString(src), getOptions(), src.getParentFile());
 
+            // Apply the template to several organizations at the same time.
+            if (orgsOption.isSet())
+            {
+                applyAll(templ, false);
+                return;
+            }
+
             // Get the organization in which the template should be applied.
             String orgz = System.getProperty("create.org");
             Organization organization = getOrg(orgz);
 
             // Load the properties for the given organization.
-            LoadedPropertyMap lpm = Environment.get().loadSystemProperties(this.getSystem().getName(), organization.getName());
-
-            // Add the organization name, system name and LDAP root to the map
-            lpm.put("sys.org.name", organization.getName(), "dynamic");
-            lpm.put("sys.ldap.root", organization.getSystem().getDn(), "dynamic");
-            lpm.put("sys.name", this.getSystem().getName(), "dynamic");
+            LoadedPropertyMap lpm = loadVariables(organization);
 
             // Apply the template to the given organization using the given properties.
             templ.apply(organization, lpm);
         }
     };
 
+    /**
+     * This method will show what applying the template to the given system and organization would change, without changing it.
+     */
+    private Command plan = new HostCommand("[options] <template file>",
+            "show the changes that applying the template would make, without making them") {
+        @Override
+        public void run(String[] args)
+        {
+            args = checkArgs(args);
+
+            File src = new File(args[0]);
+            Template templ = new Template(FileUtil.loadString(src), getOptions(), src.getParentFile());
+
+            // Plan the template for several organizations at the same time.
+            if (orgsOption.isSet())
+            {
+                applyAll(templ, true);
+                return;
+            }
+
+            // Get the organization to which the template would be applied.
+            String orgz = System.getProperty("create.org");
+            Organization organization = getOrg(orgz);
+
+            // Load the properties for the given organization.
+            LoadedPropertyMap lpm = loadVariables(organization);
+
+            // Compare the template with the organization and print the changes.
+            System.out.println(templ.plan(organization, lpm));
+        }
+    };
+
     /**
      * This method will apply the template to the given system and organization.
      */
@@ -102,12 +136,7 @@ public class TemplateCommand extends CompositeCommand
             Organization organization = getOrg(orgz);
 
             // Load the properties for the given organization.
-            LoadedPropertyMap lpm = Environment.get().loadSystemProperties(this.getSystem().getName(), organization.getName());
-
-            // Add the organization name, system name and LDAP root to the map
-            lpm.put("sys.org.name", organization.getName(), "dynamic");
-            lpm.put("sys.ldap.root", organization.getSystem().getDn(), "dynamic");
-            lpm.put("sys.name", this.getSystem().getName(), "dynamic");
+            LoadedPropertyMap lpm = loadVariables(organization);
 
             // Apply the template to the given organization using the given properties.
             templ.apply(organization, lpm, true);
@@ -125,6 +154,7 @@ public class TemplateCommand extends CompositeCommand
 
         commands.put("apply", apply);
         commands.put("create", create);
+        commands.put("plan", plan);
         commands.put("validate", validate);
     }
 
@@ -139,6 +169,9 @@ public class TemplateCommand extends CompositeCommand
         protected final Cli.StringOption systemOption = cli.stringOption("s", "system", "the system to use", null);
         /** Holds the name of the organization to connect to */
         protected final Cli.StringOption orgOption = cli.stringOption("o", "organization", "the organization to use", null);
+        /** Holds the names of the organizations to apply the template to at the same time */
+        protected final Cli.StringOption orgsOption = cli.stringOption(null, "orgs",
+                "the organizations to apply or plan the template for at the same time, separated by commas", null);
         /** Holds the option that allows the user to specify which types they want to process */
         protected final Cli.StringOption compOption = cli
                 .stringOption(
@@ -227,6 +260,68 @@ public class TemplateCommand extends CompositeCommand
             return retVal;
         }
 
+        /**
+         * This method loads the variables for the given organization. Next to the properties of the system and organization it
+         * contains the organization name, system name and LDAP root.
+         * 
+         * @param organization The organization.
+         * @return The variables.
+         */
+        protected LoadedPropertyMap loadVariables(Organization organization)
+        {
+            // Load the properties for the given organization.
+            LoadedPropertyMap lpm = Environment.get().loadSystemProperties(getSystem().getName(), organization.getName());
+
+            // Add the organization name, system name and LDAP root to the map
+            lpm.put("sys.org.name", organization.getName(), "dynamic");
+            lpm.put("sys.ldap.root", organization.getSystem().getDn(), "dynamic");
+            lpm.put("sys.name", getSystem().getName(), "dynamic");
+            return lpm;
+        }
+
+        /**
+         * This method applies the template to all organizations of the --orgs option at the same time, and prints a report per
+         * organization.
+         * 
+         * @param templ The template to apply.
+         * @param dryRun Whether only the changes should be planned.
+         */
+        protected void applyAll(Template templ, boolean dryRun)
+        {
+            OrganizationApplier applier = new OrganizationApplier(templ).setDryRun(dryRun);
+            for (String name : orgsOption.get().split(","))
+            {
+                name = name.trim();
+                if (name.length() == 0)
+                {
+                    continue;
+                }
+                Organization organization = getSystem().org.getByName(name);
+                if (organization == null)
+                {
+                    throw new CaasRuntimeException("Could not find organization " + name + " in system " + Caas.defaultSystem);
+                }
+                applier.add(organization, loadVariables(organization));
+            }
+
+            applier.run();
+            if (dryRun)
+            {
+                for (OrganizationApplier.Result r : applier.getResults())
+                {
+                    if (r.getPlan() != null)
+                    {
+                        System.out.println(r.getOrganization().getName() + ":\n" + r.getPlan());
+                    }
+                }
+            }
+            System.out.println(applier);
+            if (!applier.isSuccess())
+            {
+                throw new CaasRuntimeException("The template could not be applied to all organizations");
+            }
+        }
+
         /**
          * This method will check if the Cordys system to use is set. If it is not set it will use the default system from the
          * caas.conf.
@@ -0,0 +1,224 @@
+package org.kisst.cordys.caas.main;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+
+import org.kisst.cordys.caas.CordysSystem;
+import org.kisst.cordys.caas.TelemetryCollector;
+import org.kisst.cordys.caas.TelemetryCollector.Metric;
+import org.kisst.cordys.caas.TelemetryCollector.Series;
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+
+/**
+ * This command shows the busiest service containers of a system, refreshed at a fixed interval, like the unix top command. The
+ * collected history can be exported as CSV or JSON when the command ends.
+ */
+public class TopCommand extends SysCommand
+{
+    /** Holds the option for the interval. */
+    private final Cli.StringOption intervalOption = cli.stringOption("i", "interval", "seconds between refreshes", null);
+    /** Holds the option for the number of refreshes. */
+    private final Cli.StringOption countOption = cli.stringOption("n", "count", "number of refreshes (default forever)", "0");
+    /** Holds the option for the sort order. */
+    private final Cli.StringOption sortOption = cli.stringOption(null, "sort", "sort on cpu, busdocs, memory or name", "cpu");
+    /** Holds the option for the number of lines. */
+    private final Cli.StringOption linesOption = cli.stringOption("l", "lines", "number of service containers to show", "20");
+    /** Holds the option for the CSV export. */
+    private final Cli.StringOption csvOption = cli.stringOption(null, "csv", "file to export the history to as CSV", null);
+    /** Holds the option for the JSON export. */
+    private final Cli.StringOption jsonOption = cli.stringOption(null, "json", "file to export the history to as JSON", null);
+
+    /**
+     * Instantiates a new top command.
+     */
+    public TopCommand()
+    {
+        super("[options]", "show the busiest service containers of a system");
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.main.CommandBase#run(java.lang.String[])
+     */
+    @Override
+    public void run(String[] args)
+    {
+        checkArgs(args);
+        CordysSystem system = getSystem();
+        final TelemetryCollector collector;
+        if (intervalOption.isSet())
+            collector = new TelemetryCollector(system, Long.parseLong(intervalOption.get()) * 1000, Integer.parseInt(Environment
+                    .get().getProp("caas.telemetry.samples", "720")));
+        else
+            collector = new TelemetryCollector(system);
+
+        // Export whatever was collected, also when the command is interrupted
+        Thread exporter = new Thread() {
+            @Override
+            public void run()
+            {
+                export(collector);
+            }
+        };
+        Runtime.getRuntime().addShutdownHook(exporter);
+
+        int count = Integer.parseInt(countOption.get());
+        for (int i = 0; count <= 0 || i < count; i++)
+        {
+            if (i > 0)
+            {
+                try
+                {
+                    Thread.sleep(collector.getInterval());
+                }
+                catch (InterruptedException e)
+                {
+                    break;
+                }
+            }
+            collector.collect();
+            show(system, collector);
+        }
+        Runtime.getRuntime().removeShutdownHook(exporter);
+        export(collector);
+    }
+
+    /**
+     * This method prints the busiest service containers.
+     *
+     * @param system The system.
+     * @param collector The collector.
+     */
+    private void show(CordysSystem system, TelemetryCollector collector)
+    {
+        List<Series> list = collector.getSeries();
+        Collections.sort(list, getComparator(sortOption.get()));
+        int lines = Integer.parseInt(linesOption.get());
+
+        StringBuilder out = new StringBuilder();
+        out.append("\n").append(system.getName()).append(" - ").append(new Date()).append(" - ").append(list.size())
+                .append(" service containers\n");
+        out.append(String.format("%-40s %-12s %7s %10s %10s %10s%n", "NAME", "STATUS", "CPU%", "BUSDOCS/S", "RESIDENT", "NOM"));
+        for (int i = 0; i < list.size() && i < lines; i++)
+        {
+            Series s = list.get(i);
+            String name = s.getContainer().getName();
+            if (name.length() > 40)
+                name = name.substring(0, 37) + "...";
+            out.append(String.format("%-40s %-12s %7.1f %10.1f %10d %10d%n", name, s.getStatus() == null ? "?" : s.getStatus(),
+                    s.getCpuPercentage(), s.getRate(Metric.BUSDOCS), s.getLatest(Metric.RESIDENT_MEMORY),
+                    s.getLatest(Metric.NOM_MEMORY)));
+        }
+        System.out.print(out);
+        System.out.flush();
+    }
+
+    /**
+     * This method gets the comparator for the given sort order.
+     *
+     * @param sort The sort order.
+     * @return The comparator.
+     */
+    private static Comparator<Series> getComparator(String sort)
+    {
+        if ("name".equals(sort))
+        {
+            return new Comparator<Series>() {
+                public int compare(Series s1, Series s2)
+                {
+                    return s1.getContainer().getName().compareTo(s2.getContainer().getName());
+                }
+            };
+        }
+        final Metric metric;
+        if ("busdocs".equals(sort))
+            metric = Metric.BUSDOCS;
+        else if ("memory".equals(sort))
+            metric = Metric.RESIDENT_MEMORY;
+        else if ("cpu".equals(sort))
+            metric = Metric.CPU_TIME;
+        else
+            throw new CaasRuntimeException("Unknown sort order " + sort);
+        return new Comparator<Series>() {
+            public int compare(Series s1, Series s2)
+            {
+                double v1 = metric == Metric.RESIDENT_MEMORY ? s1.getLatest(metric) : s1.getRate(metric);
+                double v2 = metric == Metric.RESIDENT_MEMORY ? s2.getLatest(metric) : s2.getRate(metric);
+                return Double.compare(v2, v1);
+            }
+        };
+    }
+
+    /**
+     * This method writes the CSV and JSON exports, if requested.
+     *
+     * @param collector The collector.
+     */
+    private void export(TelemetryCollector collector)
+    {
+        if (csvOption.isSet())
+        {
+            Writer out = open(csvOption.get());
+            try
+            {
+                collector.writeCsv(out);
+            }
+            finally
+            {
+                close(out);
+            }
+        }
+        if (jsonOption.isSet())
+        {
+            Writer out = open(jsonOption.get());
+            try
+            {
+                collector.writeJson(out);
+            }
+            finally
+            {
+                close(out);
+            }
+        }
+    }
+
+    /**
+     * This method opens a file for writing.
+     *
+     * @param filename The name of the file.
+     * @return The writer.
+     */
+    private static Writer open(String filename)
+    {
+        try
+        {
+            return new OutputStreamWriter(new FileOutputStream(filename), "UTF-8");
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method closes the writer.
+     *
+     * @param out The writer.
+     */
+    private static void close(Writer out)
+    {
+        try
+        {
+            out.close();
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package org.kisst.cordys.caas.main;
+
+import java.io.File;
+
+import org.kisst.cordys.caas.XMLStoreMirror;
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+
+/**
+ * This command mirrors the XMLStore of an organization to a folder. A pull downloads the documents that changed on the server, a
+ * push uploads the files that changed locally. See {@link XMLStoreMirror}.
+ */
+public class XmlStoreCommand extends CompositeCommand
+{
+    /**
+     * The base class for the pull and push commands.
+     */
+    private abstract class MirrorCommand extends SysOrgCommand
+    {
+        /** Holds the option to overwrite documents that changed on both sides. */
+        protected final Cli.Flag forceOption = cli.flag("f", "force", "overwrite documents that changed on both sides");
+
+        /**
+         * Instantiates a new mirror command.
+         *
+         * @param summary The summary of the command.
+         */
+        public MirrorCommand(String summary)
+        {
+            super("[options] <directory>", summary);
+        }
+
+        /**
+         * @see org.kisst.cordys.caas.main.CommandBase#run(java.lang.String[])
+         */
+        @Override
+        public void run(String[] args)
+        {
+            args = checkArgs(args);
+            if (args.length != 1)
+                throw new CaasRuntimeException("A single directory must be given");
+            XMLStoreMirror mirror = new XMLStoreMirror(getOrg(), new File(args[0])).setForce(forceOption.isSet());
+            run(mirror);
+            if (!mirror.isSuccess())
+                throw new CaasRuntimeException("Not all documents are in sync:\n" + mirror);
+        }
+
+        /**
+         * This method runs the mirror.
+         *
+         * @param mirror The mirror.
+         */
+        protected abstract void run(XMLStoreMirror mirror);
+    }
+
+    /**
+     * This command downloads the documents that changed on the server.
+     */
+    private Command pull = new MirrorCommand("download the XMLStore documents that changed since the last pull") {
+        @Override
+        protected void run(XMLStoreMirror mirror)
+        {
+            mirror.pull();
+        }
+    };
+
+    /**
+     * This command uploads the files that changed locally.
+     */
+    private Command push = new MirrorCommand("upload the XMLStore documents that changed since the last pull or push") {
+        @Override
+        protected void run(XMLStoreMirror mirror)
+        {
+            mirror.push();
+        }
+    };
+
+    /**
+     * Instantiates a new xmlstore command.
+     */
+    public XmlStoreCommand()
+    {
+        super("caas xmlstore", "mirror the XMLStore of an organization to a directory");
+
+        commands.put("pull", pull);
+        commands.put("push", push);
+    }
+}
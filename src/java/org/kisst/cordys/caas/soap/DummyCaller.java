@@ -12,28 +12,26 @@ package org.kisst.cordys.caas.soap;
 import static org.kisst.cordys.caas.main.Environment.trace;
 
 import java.util.HashMap;
+import java.util.List;
 
 import org.kisst.cordys.caas.main.Environment;
 import org.kisst.cordys.caas.util.XmlNode;
 
+/**
+ * This caller answers the LDAP read requests from a dump instead of a live system.
+ */
 public class DummyCaller implements SoapCaller
 {
-    private final XmlNode dump;
-    private final HashMap<String, XmlNode> index = new HashMap<String, XmlNode>();
+    private final LdapDump dump;
 
     public DummyCaller(XmlNode dump)
     {
-        this.dump = dump;
-        addFromXmlDump(dump.getChild("ldap"));
+        this(new XmlLdapDump(dump));
     }
 
-    private void addFromXmlDump(XmlNode ldap)
+    public DummyCaller(LdapDump dump)
     {
-        XmlNode entry = ldap.getChild("entry");
-        String dn = entry.getAttribute("dn");
-        index.put(dn, ldap);
-        for (XmlNode n : ldap.getChild("children").getChildren())
-            addFromXmlDump(n);
+        this.dump = dump;
     }
 
     public String call(String input)
@@ -74,16 +72,13 @@ public class DummyCaller implements SoapCaller
     {
         String dn = method.getChildText("dn");
         XmlNode result = new XmlNode("GetLDAPObjectResponse");
-        XmlNode ldap = index.get(dn);
-        XmlNode entry;
-        if (ldap == null)
+        XmlNode entry = dump.getEntry(dn);
+        if (entry == null)
         {
             entry = new XmlNode("entry");
             entry.setAttribute("dn", dn);
             entry.add("objectclass").add("string").setText("top");
         }
-        else
-            entry = ldap.getChild("entry").clone();
         result.add("tuple").add("old").add(entry);
         return result;
     }
@@ -92,15 +87,15 @@ public class DummyCaller implements SoapCaller
     {
         String dn = method.getChildText("dn");
         XmlNode result = new XmlNode("GetChildrenResponse");
-        XmlNode ldap = null;
+        List<XmlNode> children = null;
         String tmp = dn;
-        while (ldap == null && tmp.indexOf(",") > 0)
+        while (children == null && tmp.indexOf(",") > 0)
         {
-            ldap = index.get(tmp);
+            children = dump.getChildren(tmp);
             tmp = tmp.substring(tmp.indexOf(",") + 1);
         }
-        for (XmlNode child : ldap.getChild("children").getChildren())
-            result.add("tuple").add("old").add(child.getChild("entry").clone());
+        for (XmlNode child : children)
+            result.add("tuple").add("old").add(child);
         return result;
     }
 
@@ -108,16 +103,16 @@ public class DummyCaller implements SoapCaller
     {
         XmlNode env = new XmlNode("Envelope");
         XmlNode comp = env.add("Header").add("header").add("sender").add("component");
-        comp.setText("cn=LDAP Service,cn=soap nodes,o=system," + dump.getChildText("ldap/@dn"));
+        comp.setText("cn=LDAP Service,cn=soap nodes,o=system," + dump.getRootDn());
         XmlNode result = env.add("Body").add("GetVersionResponse");
-        result.add("version").setText(dump.getAttribute("version"));
-        result.add("build").setText(dump.getAttribute("build"));
+        result.add("version").setText(dump.getVersion());
+        result.add("build").setText(dump.getBuild());
         return result;
     }
 
     public String getName()
     {
-        return dump.getAttribute("name");
+        return dump.getName();
     }
 
     @Override
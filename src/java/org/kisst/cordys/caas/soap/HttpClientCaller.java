@@ -37,6 +37,7 @@ import org.apache.http.impl.auth.NTLMSchemeFactory;
 import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
 import org.apache.http.params.HttpConnectionParams;
 import org.apache.http.params.HttpParams;
 import org.apache.http.protocol.BasicHttpContext;
@@ -55,7 +56,19 @@ public class HttpClientCaller extends BaseCaller
     private final String ntlmhost;
     /** Holds the ntlmdomain. */
     private final String ntlmdomain;
-    private BasicHttpContext localContext;
+    /** Holds the host for which NTLM authentication is preset, or null when the NTLM domain is configured explicitly. */
+    private HttpHost ntlmAuthHost;
+    /**
+     * Holds the HTTP context per thread. The NTLM scheme in the auth cache keeps the handshake state, so it cannot be shared
+     * between threads that call the gateway at the same time.
+     */
+    private final ThreadLocal<BasicHttpContext> localContext = new ThreadLocal<BasicHttpContext>() {
+        @Override
+        protected BasicHttpContext initialValue()
+        {
+            return createContext();
+        }
+    };
 
     /**
      * Instantiates a new http client caller.
@@ -79,15 +92,10 @@ public class HttpClientCaller extends BaseCaller
         }
 
         // Add the username/password
-        localContext = new BasicHttpContext();
         List<String> authpref = new ArrayList<String>();
 
         if (ntlmdomain == null)
         {
-            AuthCache authCache = new BasicAuthCache();
-            NTLMSchemeFactory f = new NTLMSchemeFactory();
-            AuthScheme ns = f.newInstance(null);
-
             URL url;
             try
             {
@@ -98,13 +106,10 @@ public class HttpClientCaller extends BaseCaller
                 throw new CaasRuntimeException(e);
             }
 
-            HttpHost host = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
-            authCache.put(host, ns);
+            ntlmAuthHost = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
 
             cp.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(userName, password));
 
-            localContext.setAttribute("http.auth.auth-cache", authCache);
-
             authpref.add(AuthPolicy.NTLM);
             authpref.add(AuthPolicy.DIGEST);
         }
@@ -114,8 +119,12 @@ public class HttpClientCaller extends BaseCaller
             authpref.add(AuthPolicy.BASIC);
         }
 
-        // Create the HttpClient that should be used.
-        client = new DefaultHttpClient();
+        // Create the HttpClient that should be used. The pooling connection manager allows requests from multiple threads.
+        int maxConnections = Integer.parseInt(Environment.get().getProp("system." + name + ".gateway.maxconnections", "8"));
+        PoolingClientConnectionManager cm = new PoolingClientConnectionManager();
+        cm.setMaxTotal(maxConnections);
+        cm.setDefaultMaxPerRoute(maxConnections);
+        client = new DefaultHttpClient(cm);
         client.setCredentialsProvider(cp);
         client.getParams().setParameter(AuthPNames.TARGET_AUTH_PREF, authpref);
 
@@ -127,6 +136,26 @@ public class HttpClientCaller extends BaseCaller
         }
     }
 
+    /**
+     * This method creates the HTTP context for the current thread.
+     * 
+     * @return The new context.
+     */
+    private BasicHttpContext createContext()
+    {
+        BasicHttpContext retVal = new BasicHttpContext();
+        if (ntlmAuthHost != null)
+        {
+            AuthCache authCache = new BasicAuthCache();
+            NTLMSchemeFactory f = new NTLMSchemeFactory();
+            AuthScheme ns = f.newInstance(null);
+            authCache.put(ntlmAuthHost, ns);
+
+            retVal.setAttribute("http.auth.auth-cache", authCache);
+        }
+        return retVal;
+    }
+
     /**
      * @see org.kisst.cordys.caas.soap.SoapCaller#httpCall(java.lang.String, java.lang.String, java.util.HashMap)
      */
@@ -159,13 +188,14 @@ public class HttpClientCaller extends BaseCaller
             {
                 String timeout = qp.get("timeout");
 
-                HttpParams params = client.getParams();
+                // Set on the request itself, since the client is shared between threads
+                HttpParams params = method.getParams();
 
                 HttpConnectionParams.setConnectionTimeout(params, Integer.parseInt(timeout));
                 HttpConnectionParams.setSoTimeout(params, Integer.parseInt(timeout));
             }
 
-            HttpResponse hr = client.execute(method, localContext);
+            HttpResponse hr = client.execute(method, localContext.get());
             statusCode = hr.getStatusLine().getStatusCode();
 
             response = EntityUtils.toString(hr.getEntity());
@@ -0,0 +1,599 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.soap;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.XMLStreamWriter;
+import javax.xml.stream.XMLOutputFactory;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class reads an LDAP dump in the indexed binary format. The file is memory mapped and entries are only read (and parsed)
+ * when they are requested, so opening even a very large dump is immediate.
+ * <p>
+ * The file layout is:
+ * <ul>
+ * <li>the magic bytes CAASDMP1, the offset of the index (long) and the number of entries (int)</li>
+ * <li>the name, version, build and root dn of the dump (each an int length followed by UTF-8 bytes)</li>
+ * <li>the entry records (entry XML as int length plus UTF-8 bytes) and the children blocks (int count followed by the offsets of
+ * the entry records of the children)</li>
+ * <li>the dn strings (int length plus UTF-8 bytes)</li>
+ * <li>the index: for every entry, sorted by dn, the offset of the dn string, of the entry record and of the children block</li>
+ * </ul>
+ * </p>
+ * Use {@link #convert(File, File)} to create an indexed dump from an XML dump.
+ */
+public class IndexedLdapDump implements LdapDump
+{
+    /** Holds the magic bytes at the start of the file. */
+    private static final byte[] MAGIC = { 'C', 'A', 'A', 'S', 'D', 'M', 'P', '1' };
+    /** Holds the size of a single index slot. */
+    private static final int SLOT_SIZE = 24;
+    /** Holds the size of a mapped segment. A single mapping is limited to 2GB, so larger files use several segments. */
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    /** Holds the mapped segments of the file. */
+    private final MappedByteBuffer[] segments;
+    /** Holds the offset of the index. */
+    private final long indexOffset;
+    /** Holds the number of entries. */
+    private final int count;
+    /** Holds the name. */
+    private final String name;
+    /** Holds the version. */
+    private final String version;
+    /** Holds the build. */
+    private final String build;
+    /** Holds the root dn. */
+    private final String rootDn;
+
+    /**
+     * Opens the given indexed dump.
+     *
+     * @param file The file to open.
+     */
+    public IndexedLdapDump(File file)
+    {
+        RandomAccessFile raf = null;
+        try
+        {
+            raf = new RandomAccessFile(file, "r");
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            int nrofSegments = (int) ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE);
+            segments = new MappedByteBuffer[Math.max(nrofSegments, 1)];
+            for (int i = 0; i < nrofSegments; i++)
+            {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+            }
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (raf != null)
+                    raf.close(); // the mappings stay valid
+            }
+            catch (IOException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+
+        byte[] magic = read(0, MAGIC.length);
+        for (int i = 0; i < MAGIC.length; i++)
+        {
+            if (magic[i] != MAGIC[i])
+                throw new CaasRuntimeException("File " + file + " is not an indexed dump");
+        }
+        indexOffset = readLong(8);
+        count = readInt(16);
+        long pos = 20;
+        name = readString(pos);
+        pos += 4 + readInt(pos);
+        version = readString(pos);
+        pos += 4 + readInt(pos);
+        build = readString(pos);
+        pos += 4 + readInt(pos);
+        rootDn = readString(pos);
+    }
+
+    /**
+     * This method checks whether the given file is an indexed dump.
+     *
+     * @param file The file to check.
+     * @return true if the file starts with the magic bytes of an indexed dump.
+     */
+    public static boolean isIndexedDump(File file)
+    {
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream(file);
+            byte[] magic = new byte[MAGIC.length];
+            if (in.read(magic) != MAGIC.length)
+                return false;
+            for (int i = 0; i < MAGIC.length; i++)
+            {
+                if (magic[i] != MAGIC[i])
+                    return false;
+            }
+            return true;
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (in != null)
+                    in.close();
+            }
+            catch (IOException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getName()
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getVersion()
+     */
+    public String getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getBuild()
+     */
+    public String getBuild()
+    {
+        return build;
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getRootDn()
+     */
+    public String getRootDn()
+    {
+        return rootDn;
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getEntry(java.lang.String)
+     */
+    public XmlNode getEntry(String dn)
+    {
+        long slot = findSlot(dn);
+        if (slot < 0)
+            return null;
+        return new XmlNode(readString(readLong(slot + 8)));
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getChildren(java.lang.String)
+     */
+    public List<XmlNode> getChildren(String dn)
+    {
+        long slot = findSlot(dn);
+        if (slot < 0)
+            return null;
+        long block = readLong(slot + 16);
+        int nrofChildren = readInt(block);
+        ArrayList<XmlNode> result = new ArrayList<XmlNode>(nrofChildren);
+        for (int i = 0; i < nrofChildren; i++)
+            result.add(new XmlNode(readString(readLong(block + 4 + 8L * i))));
+        return result;
+    }
+
+    /**
+     * This method searches the index for the given dn.
+     *
+     * @param dn The dn to find.
+     * @return The offset of the index slot, or -1 if the dn is not in the dump.
+     */
+    private long findSlot(String dn)
+    {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high)
+        {
+            int mid = (low + high) >>> 1;
+            long slot = indexOffset + (long) mid * SLOT_SIZE;
+            int comp = readString(readLong(slot)).compareTo(dn);
+            if (comp == 0)
+                return slot;
+            if (comp < 0)
+                low = mid + 1;
+            else
+                high = mid - 1;
+        }
+        return -1;
+    }
+
+    /**
+     * This method reads bytes from the mapped file. The bytes can span two segments.
+     *
+     * @param pos The position in the file.
+     * @param len The number of bytes.
+     * @return The bytes.
+     */
+    private byte[] read(long pos, int len)
+    {
+        byte[] result = new byte[len];
+        int done = 0;
+        while (done < len)
+        {
+            // Duplicate, so that concurrent readers do not share the position of the buffer
+            ByteBuffer segment = segments[(int) (pos / SEGMENT_SIZE)].duplicate();
+            segment.position((int) (pos % SEGMENT_SIZE));
+            int chunk = Math.min(len - done, segment.remaining());
+            segment.get(result, done, chunk);
+            done += chunk;
+            pos += chunk;
+        }
+        return result;
+    }
+
+    /**
+     * This method reads an int.
+     *
+     * @param pos The position in the file.
+     * @return The int.
+     */
+    private int readInt(long pos)
+    {
+        return ByteBuffer.wrap(read(pos, 4)).getInt();
+    }
+
+    /**
+     * This method reads a long.
+     *
+     * @param pos The position in the file.
+     * @return The long.
+     */
+    private long readLong(long pos)
+    {
+        return ByteBuffer.wrap(read(pos, 8)).getLong();
+    }
+
+    /**
+     * This method reads a string (int length followed by UTF-8 bytes).
+     *
+     * @param pos The position in the file.
+     * @return The string.
+     */
+    private String readString(long pos)
+    {
+        try
+        {
+            return new String(read(pos + 4, readInt(pos)), "UTF-8");
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * Holds the index information of a single entry while converting.
+     */
+    private static class IndexEntry
+    {
+        /** Holds the dn. */
+        private final String dn;
+        /** Holds the offset of the entry record. */
+        private long entryOffset = -1;
+        /** Holds the offset of the children block. */
+        private long childrenOffset;
+        /** Holds the offset of the dn string. */
+        private long dnOffset;
+        /** Holds the entry record offsets of the children. */
+        private ArrayList<Long> children = new ArrayList<Long>();
+
+        /**
+         * Instantiates a new index entry.
+         *
+         * @param dn The dn.
+         */
+        private IndexEntry(String dn)
+        {
+            this.dn = dn;
+        }
+    }
+
+    /**
+     * Keeps track of the position while writing.
+     */
+    private static class Output
+    {
+        /** Holds the stream. */
+        private final DataOutputStream out;
+        /** Holds the current position. */
+        private long pos = 0;
+
+        /**
+         * Instantiates a new output.
+         *
+         * @param file The file to write.
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private Output(File file) throws IOException
+        {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        }
+
+        /**
+         * Writes the bytes.
+         *
+         * @param bytes The bytes.
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void write(byte[] bytes) throws IOException
+        {
+            out.write(bytes);
+            pos += bytes.length;
+        }
+
+        /**
+         * Writes an int.
+         *
+         * @param value The value.
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void writeInt(int value) throws IOException
+        {
+            out.writeInt(value);
+            pos += 4;
+        }
+
+        /**
+         * Writes a long.
+         *
+         * @param value The value.
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private void writeLong(long value) throws IOException
+        {
+            out.writeLong(value);
+            pos += 8;
+        }
+
+        /**
+         * Writes a string as int length followed by the UTF-8 bytes.
+         *
+         * @param value The value.
+         * @return The position at which the string was written.
+         * @throws IOException Signals that an I/O exception has occurred.
+         */
+        private long writeString(String value) throws IOException
+        {
+            long result = pos;
+            byte[] bytes = (value == null ? "" : value).getBytes("UTF-8");
+            writeInt(bytes.length);
+            write(bytes);
+            return result;
+        }
+    }
+
+    /**
+     * This method converts an XML dump (optionally gzipped) into the indexed format. The XML dump is read as a stream, so only
+     * the index itself is kept in memory.
+     *
+     * @param xmlDump The XML dump to read.
+     * @param indexedDump The indexed dump to write.
+     */
+    public static void convert(File xmlDump, File indexedDump)
+    {
+        InputStream in = null;
+        Output out = null;
+        try
+        {
+            in = new BufferedInputStream(new FileInputStream(xmlDump), 65536);
+            if (xmlDump.getName().endsWith(".gz"))
+                in = new GZIPInputStream(in, 65536);
+            out = new Output(indexedDump);
+            XMLStreamReader reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+
+            ArrayList<IndexEntry> entries = new ArrayList<IndexEntry>();
+            LinkedList<IndexEntry> stack = new LinkedList<IndexEntry>();
+            while (reader.hasNext())
+            {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT)
+                {
+                    String element = reader.getLocalName();
+                    if ("dump".equals(element) && stack.isEmpty())
+                    {
+                        out.write(MAGIC);
+                        out.writeLong(0); // the index offset is filled in at the end
+                        out.writeInt(0); // as is the number of entries
+                        out.writeString(reader.getAttributeValue(null, "name"));
+                        out.writeString(reader.getAttributeValue(null, "version"));
+                        out.writeString(reader.getAttributeValue(null, "build"));
+                        // The root dn is not known yet, so it is written as the first dn string. Its position is fixed.
+                    }
+                    else if ("ldap".equals(element))
+                    {
+                        IndexEntry current = new IndexEntry(reader.getAttributeValue(null, "dn"));
+                        if (stack.isEmpty())
+                            out.writeString(current.dn);
+                        stack.addFirst(current);
+                    }
+                    else if ("entry".equals(element) && !stack.isEmpty() && stack.getFirst().entryOffset < 0)
+                    {
+                        IndexEntry current = stack.getFirst();
+                        current.entryOffset = out.writeString(copyElement(reader));
+                        if (stack.size() > 1)
+                            stack.get(1).children.add(current.entryOffset);
+                    }
+                }
+                else if (event == XMLStreamConstants.END_ELEMENT && "ldap".equals(reader.getLocalName()))
+                {
+                    IndexEntry current = stack.removeFirst();
+                    current.childrenOffset = out.pos;
+                    out.writeInt(current.children.size());
+                    for (Long child : current.children)
+                        out.writeLong(child);
+                    current.children = null;
+                    entries.add(current);
+                }
+            }
+            reader.close();
+
+            for (IndexEntry entry : entries)
+                entry.dnOffset = out.writeString(entry.dn);
+            Collections.sort(entries, new Comparator<IndexEntry>() {
+                public int compare(IndexEntry o1, IndexEntry o2)
+                {
+                    return o1.dn.compareTo(o2.dn);
+                }
+            });
+            long indexOffset = out.pos;
+            for (IndexEntry entry : entries)
+            {
+                out.writeLong(entry.dnOffset);
+                out.writeLong(entry.entryOffset);
+                out.writeLong(entry.childrenOffset);
+            }
+            out.out.close();
+            out = null;
+
+            RandomAccessFile raf = new RandomAccessFile(indexedDump, "rw");
+            try
+            {
+                raf.seek(MAGIC.length);
+                raf.writeLong(indexOffset);
+                raf.writeInt(entries.size());
+            }
+            finally
+            {
+                raf.close();
+            }
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        catch (XMLStreamException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (in != null)
+                    in.close();
+                if (out != null)
+                    out.out.close();
+            }
+            catch (IOException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * This method copies the element the reader is positioned on (including its content) to a string. Afterwards the reader is
+     * positioned on the end tag of the element.
+     *
+     * @param reader The reader.
+     * @return The XML of the element.
+     * @throws XMLStreamException In case of any errors.
+     */
+    private static String copyElement(XMLStreamReader reader) throws XMLStreamException
+    {
+        StringWriter result = new StringWriter();
+        XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(result);
+        int depth = 0;
+        do
+        {
+            switch (reader.getEventType())
+            {
+                case XMLStreamConstants.START_ELEMENT:
+                    depth++;
+                    String prefix = reader.getPrefix() == null ? "" : reader.getPrefix();
+                    String ns = reader.getNamespaceURI() == null ? "" : reader.getNamespaceURI();
+                    writer.writeStartElement(prefix, reader.getLocalName(), ns);
+                    for (int i = 0; i < reader.getNamespaceCount(); i++)
+                    {
+                        String nsPrefix = reader.getNamespacePrefix(i);
+                        if (nsPrefix == null || nsPrefix.length() == 0)
+                            writer.writeDefaultNamespace(reader.getNamespaceURI(i));
+                        else
+                            writer.writeNamespace(nsPrefix, reader.getNamespaceURI(i));
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++)
+                        writer.writeAttribute(reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    depth--;
+                    writer.writeEndElement();
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    writer.writeCharacters(reader.getText());
+                    break;
+                default:
+                    break;
+            }
+            if (depth > 0)
+                reader.next();
+        }
+        while (depth > 0);
+        writer.close();
+        return result.toString();
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.soap;
+
+import java.util.List;
+
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This interface describes an LDAP dump from which the {@link DummyCaller} serves its requests.
+ */
+public interface LdapDump
+{
+    /**
+     * This method gets the name of the system that was dumped.
+     * 
+     * @return The name of the system.
+     */
+    String getName();
+
+    /**
+     * This method gets the version of the system that was dumped.
+     * 
+     * @return The version.
+     */
+    String getVersion();
+
+    /**
+     * This method gets the build of the system that was dumped.
+     * 
+     * @return The build.
+     */
+    String getBuild();
+
+    /**
+     * This method gets the dn of the root object of the dump.
+     * 
+     * @return The dn of the root object.
+     */
+    String getRootDn();
+
+    /**
+     * This method gets the entry with the given dn.
+     * 
+     * @param dn The dn.
+     * @return A new copy of the entry, or null if the dn is not in the dump.
+     */
+    XmlNode getEntry(String dn);
+
+    /**
+     * This method gets the entries of the children of the given dn.
+     * 
+     * @param dn The dn.
+     * @return New copies of the child entries, or null if the dn is not in the dump.
+     */
+    List<XmlNode> getChildren(String dn);
+}
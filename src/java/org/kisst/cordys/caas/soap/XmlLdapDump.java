@@ -0,0 +1,109 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.soap;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class holds an XML dump (as created by LdapObject.dumpXml()) completely in memory.
+ */
+public class XmlLdapDump implements LdapDump
+{
+    /** Holds the dump. */
+    private final XmlNode dump;
+    /** Holds the ldap nodes by dn. */
+    private final HashMap<String, XmlNode> index = new HashMap<String, XmlNode>();
+
+    /**
+     * Instantiates a new XML dump.
+     * 
+     * @param dump The dump XML.
+     */
+    public XmlLdapDump(XmlNode dump)
+    {
+        this.dump = dump;
+        addFromXmlDump(dump.getChild("ldap"));
+    }
+
+    /**
+     * This method adds the given ldap node and its children to the index.
+     * 
+     * @param ldap The ldap node.
+     */
+    private void addFromXmlDump(XmlNode ldap)
+    {
+        XmlNode entry = ldap.getChild("entry");
+        String dn = entry.getAttribute("dn");
+        index.put(dn, ldap);
+        for (XmlNode n : ldap.getChild("children").getChildren())
+            addFromXmlDump(n);
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getName()
+     */
+    public String getName()
+    {
+        return dump.getAttribute("name");
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getVersion()
+     */
+    public String getVersion()
+    {
+        return dump.getAttribute("version");
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getBuild()
+     */
+    public String getBuild()
+    {
+        return dump.getAttribute("build");
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getRootDn()
+     */
+    public String getRootDn()
+    {
+        return dump.getChildText("ldap/@dn");
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getEntry(java.lang.String)
+     */
+    public XmlNode getEntry(String dn)
+    {
+        XmlNode ldap = index.get(dn);
+        if (ldap == null)
+            return null;
+        return ldap.getChild("entry").clone();
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.soap.LdapDump#getChildren(java.lang.String)
+     */
+    public List<XmlNode> getChildren(String dn)
+    {
+        XmlNode ldap = index.get(dn);
+        if (ldap == null)
+            return null;
+        ArrayList<XmlNode> result = new ArrayList<XmlNode>();
+        for (XmlNode child : ldap.getChild("children").getChildren())
+            result.add(child.getChild("entry").clone());
+        return result;
+    }
+}
@@ -9,6 +9,9 @@
 
 package org.kisst.cordys.caas.support;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.kisst.cordys.caas.CordysSystem;
 import org.kisst.cordys.caas.Organization;
 import org.kisst.cordys.caas.util.Constants;
@@ -109,6 +112,56 @@ public class ChildList<T extends LdapObject> extends CordysObjectList<T>
     @Override
     @SuppressWarnings("unchecked")
     protected void retrieveList()
+    {
+        for (XmlNode elm : retrieveEntries())
+        {
+            CordysObject obj = system.getLdap(elm);
+
+            if (obj == null)
+            {
+                continue;
+            }
+
+            if ((clz == null) || (obj.getClass() == clz))
+            {
+                this.grow((T) obj);
+            }
+        }
+    }
+
+    /**
+     * This method retrieves the children without adding them to this list or to the cache of the system, so they can be garbage
+     * collected as soon as they are no longer used. Children that are already in the cache are taken from the cache.
+     * 
+     * @return The children.
+     */
+    @SuppressWarnings("unchecked")
+    List<T> retrieveDetached()
+    {
+        ArrayList<T> result = new ArrayList<T>();
+        for (XmlNode elm : retrieveEntries())
+        {
+            LdapObject obj = system.seekLdap(elm.getAttribute("dn"));
+
+            if (obj == null)
+            {
+                obj = LdapObjectBase.createObject(system, parent, elm);
+            }
+
+            if ((obj != null) && ((clz == null) || (obj.getClass() == clz)))
+            {
+                result.add((T) obj);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * This method retrieves the entries of the children from LDAP.
+     * 
+     * @return The entries.
+     */
+    private List<XmlNode> retrieveEntries()
     {
         XmlNode method = new XmlNode(Constants.GET_CHILDREN, Constants.XMLNS_LDAP);
         // method.add("dn").setText(prefix+((CordysLdapObject) parent).getDn());
@@ -131,20 +184,15 @@ public class ChildList<T extends LdapObject> extends CordysObjectList<T>
             response = response.getChild("Body").getChildren().get(0);
         }
 
+        ArrayList<XmlNode> result = new ArrayList<XmlNode>();
         for (XmlNode tuple : response.getChildren("tuple"))
         {
             XmlNode elm = tuple.getChild("old/entry");
-            CordysObject obj = system.getLdap(elm);
-
-            if (obj == null)
+            if (elm != null)
             {
-                continue;
-            }
-
-            if ((clz == null) || (obj.getClass() == clz))
-            {
-                this.grow((T) obj);
+                result.add(elm);
             }
         }
+        return result;
     }
 }
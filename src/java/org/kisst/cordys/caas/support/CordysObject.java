@@ -9,6 +9,9 @@
 
 package org.kisst.cordys.caas.support;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.kisst.cordys.caas.CordysSystem;
 import org.kisst.cordys.caas.Organization;
 import org.kisst.cordys.caas.main.Environment;
@@ -88,9 +91,28 @@ public abstract class CordysObject implements Comparable<CordysObject>
         myclear();
     }
 
+    /**
+     * This method compares the complete object trees. The subtrees are compared in parallel, see {@link ParallelDiff}.
+     * 
+     * @param other The object to compare with.
+     * @return The differences.
+     */
     public Differences deepdiff(CordysObject other)
     {
-        return diff(other, 100);
+        return new ParallelDiff().diff(this, other, 100);
+    }
+
+    /**
+     * This method compares the complete object trees in parallel, and reports the differences to the given listener as soon as
+     * they are found.
+     * 
+     * @param other The object to compare with.
+     * @param listener The listener to report the differences to.
+     * @return The complete differences.
+     */
+    public Differences deepdiff(CordysObject other, ParallelDiff.Listener listener)
+    {
+        return new ParallelDiff(listener).diff(this, other, 100);
     }
 
     public Differences diff(CordysObject other)
@@ -104,11 +126,28 @@ public abstract class CordysObject implements Comparable<CordysObject>
     }
 
     public Differences diff(Differences parent, CordysObject other, int depth)
+    {
+        Differences diffs = new Differences(parent, "[\"" + getName() + "\"]", this, other);
+        ArrayList<CordysObjectList<?>[]> childLists = new ArrayList<CordysObjectList<?>[]>();
+        compareProperties(diffs, other, depth > 0 ? childLists : null);
+        for (CordysObjectList<?>[] lists : childLists)
+            diffs.addChildDiffs(lists[0].diff(diffs, lists[1], depth - 1));
+        return diffs;
+    }
+
+    /**
+     * This method compares the properties of this object with the other object. The child lists are not compared, but they are
+     * added (as pairs) to the given childLists, so the caller can decide how to compare them.
+     * 
+     * @param diffs The differences to add the property differences to.
+     * @param other The object to compare with.
+     * @param childLists The list to add the pairs of child lists to. If null the child lists are skipped.
+     */
+    protected void compareProperties(Differences diffs, CordysObject other, List<CordysObjectList<?>[]> childLists)
     {
         if (this.getClass() != other.getClass())
             throw new RuntimeException("Cannot diff two different classes " + this.getClass().getName() + " and "
                     + other.getClass().getName());
-        Differences diffs = new Differences(parent, "[\"" + getName() + "\"]", this, other);
         Props<Object> p1 = new Props<Object>(this, Object.class);
         Props<Object> p2 = new Props<Object>(other, Object.class);
         for (String key : p1.keys())
@@ -130,15 +169,14 @@ public abstract class CordysObject implements Comparable<CordysObject>
                 continue;
             else if (v1 instanceof ChildList<?>)
             {
-                if (depth > 0)
-                    diffs.addChildDiffs(((CordysObjectList<?>) v1).diff(diffs, (CordysObjectList<?>) v2, depth - 1));
+                if (childLists != null)
+                    childLists.add(new CordysObjectList<?>[] { (CordysObjectList<?>) v1, (CordysObjectList<?>) v2 });
             }
             else if (v1 instanceof CordysObjectList<?>)
                 continue;
             else if (v1 == null || !v1.equals(v2))
                 diffs.attributeDiffers(key, v1, v2);
         }
-        return diffs;
     }
 
 }
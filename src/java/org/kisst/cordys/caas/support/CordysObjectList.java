@@ -13,6 +13,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 
 import org.kisst.cordys.caas.CordysSystem;
 import org.kisst.cordys.caas.Organization;
@@ -46,7 +47,7 @@ public abstract class CordysObjectList<T extends CordysObject> extends CordysObj
         return null;
     } // TODO
 
-    protected ArrayList<T> fetchList()
+    protected synchronized ArrayList<T> fetchList()
     {
         if (useCache() && listAvailable)
             return list;
@@ -60,13 +61,13 @@ public abstract class CordysObjectList<T extends CordysObject> extends CordysObj
      * This method sets that the list is available. This is usefull when the retrieveList() method knows the list is complete and
      * wants to do stuff.
      */
-    protected void setListAvailable()
+    protected synchronized void setListAvailable()
     {
         listAvailable = true;
     }
 
     @Override
-    public void myclear()
+    public synchronized void myclear()
     {
         // log("clearing list "+getKey()+" content "+list);
         if (isListAvailable())
@@ -92,7 +93,7 @@ public abstract class CordysObjectList<T extends CordysObject> extends CordysObj
         return system;
     }
 
-    protected void grow(T obj)
+    protected synchronized void grow(T obj)
     {
         list.add(obj);
         if (obj != null)
@@ -102,13 +103,29 @@ public abstract class CordysObjectList<T extends CordysObject> extends CordysObj
         }
     }
 
-    public Iterator<T> iterator()
+    /**
+     * This method adds an object that was just created to the list, so the list does not need to be retrieved again. When the
+     * list is not retrieved yet nothing is done, because the object will then be part of it when it is retrieved.
+     * 
+     * @param obj The object that was created.
+     */
+    public synchronized void addCreated(T obj)
     {
-        fetchList();
-        return list.iterator();
+        if (obj != null && listAvailable && !keyIndex.containsKey(obj.getKey()))
+            grow(obj);
+    }
+
+    /**
+     * This method returns an iterator over a copy of the list, so other threads can change the list while it is used.
+     * 
+     * @return The iterator.
+     */
+    public synchronized Iterator<T> iterator()
+    {
+        return new ArrayList<T>(fetchList()).iterator();
     }
 
-    public T getByName(String name)
+    public synchronized T getByName(String name)
     {
         fetchList();
         return nameIndex.get(name);
@@ -128,7 +145,7 @@ public abstract class CordysObjectList<T extends CordysObject> extends CordysObj
         return nameIndex.get(name);
     }
 
-    public T get(String key)
+    public synchronized T get(String key)
     {
         fetchList();
         T result = keyIndex.get(key);
@@ -258,13 +275,29 @@ public abstract class CordysObjectList<T extends CordysObject> extends CordysObj
         };
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     public Differences diff(Differences parent, CordysObject other, int depth)
     {
         Differences diffs = new Differences(parent, getName(), this, other);
+        ArrayList<CordysObject[]> matches = new ArrayList<CordysObject[]>();
+        compareEntries(diffs, (CordysObjectList<?>) other, depth > 0 ? matches : null);
+        for (CordysObject[] match : matches)
+            diffs.addChildDiffs(match[0].diff(diffs, match[1], depth - 1));
+        return diffs;
+    }
+
+    /**
+     * This method compares the entries of this list with the other list by name. The entries that exist in both lists are not
+     * compared, but they are added (as pairs) to the given matches, so the caller can decide how to compare them.
+     * 
+     * @param diffs The differences to add the missing entries to.
+     * @param other The list to compare with.
+     * @param matches The list to add the pairs of matching entries to. If null the matching entries are skipped.
+     */
+    protected void compareEntries(Differences diffs, CordysObjectList<?> other, List<CordysObject[]> matches)
+    {
         CordysObjectList<T> l1 = this.sort();
-        CordysObjectList<T> l2 = ((CordysObjectList<T>) other).sort();
+        CordysObjectList<?> l2 = other.sort();
         int pos1 = 0;
         int pos2 = 0;
         while (pos1 < l1.getSize() || pos2 < l2.getSize())
@@ -278,8 +311,8 @@ public abstract class CordysObjectList<T extends CordysObject> extends CordysObj
                 int comp = l1.get(pos1).getName().compareTo(l2.get(pos2).getName());
                 if (comp == 0)
                 {
-                    if (depth > 0)
-                        diffs.addChildDiffs(l1.get(pos1).diff(diffs, l2.get(pos2), depth - 1));
+                    if (matches != null)
+                        matches.add(new CordysObject[] { l1.get(pos1), l2.get(pos2) });
                     pos1++;
                     pos2++;
                 }
@@ -289,7 +322,6 @@ public abstract class CordysObjectList<T extends CordysObject> extends CordysObj
                     diffs.onlyIn2(l2.get(pos2++));
             }
         }
-        return diffs;
     }
 
     // Groovy specific webServices
@@ -0,0 +1,222 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.support;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.WeakHashMap;
+
+/**
+ * This class holds a parsed and interned LDAP distinguished name. There is only one Dn instance per distinct dn string, so
+ * instances can be compared by identity. The RDN components are split once and stored root first, which makes sorting and
+ * ancestor checks cheap.
+ */
+public final class Dn implements Comparable<Dn>
+{
+    /** Holds all Dn instances that are still in use, keyed by their dn string. */
+    private static final WeakHashMap<String, WeakReference<Dn>> pool = new WeakHashMap<String, WeakReference<Dn>>();
+
+    /** Holds the interned dn string. */
+    private final String dn;
+    /** Holds the interned RDN components, starting at the root (i.e. in reverse order of the dn string). */
+    private final String[] rdns;
+    /** Holds the position in the dn string where the parent dn starts, or -1 if there is no parent. */
+    private final int parentOffset;
+    /** Holds the parent dn, which is resolved on first use. */
+    private Dn parent;
+    /** Holds the cache key ("ldap:" + dn), which is created on first use. */
+    private String key;
+
+    /**
+     * Instantiates a new dn. Use {@link #get(String)} to obtain instances.
+     *
+     * @param dn The dn string.
+     */
+    private Dn(String dn)
+    {
+        this.dn = dn;
+        ArrayList<String> parts = new ArrayList<String>();
+        int firstComma = -1;
+        int start = 0;
+        for (int i = 0; i < dn.length(); i++)
+        {
+            char c = dn.charAt(i);
+            if (c == '\\')
+                i++; // skip the escaped character
+            else if (c == ',')
+            {
+                if (firstComma < 0)
+                    firstComma = i;
+                parts.add(0, dn.substring(start, i).intern());
+                start = i + 1;
+            }
+        }
+        parts.add(0, dn.substring(start).intern());
+        this.rdns = parts.toArray(new String[parts.size()]);
+        this.parentOffset = firstComma < 0 ? -1 : firstComma + 1;
+    }
+
+    /**
+     * This method returns the Dn instance for the given dn string.
+     *
+     * @param dn The dn string.
+     * @return The shared Dn instance, or null if dn is null.
+     */
+    public static Dn get(String dn)
+    {
+        if (dn == null)
+            return null;
+        synchronized (pool)
+        {
+            WeakReference<Dn> ref = pool.get(dn);
+            Dn result = ref == null ? null : ref.get();
+            if (result == null)
+            {
+                result = new Dn(dn.intern());
+                // The key must be the string held by the Dn itself, otherwise the entry could be collected while in use
+                pool.put(result.dn, new WeakReference<Dn>(result));
+            }
+            return result;
+        }
+    }
+
+    /**
+     * This method gets the number of RDN components.
+     *
+     * @return The number of RDN components.
+     */
+    public int size()
+    {
+        return rdns.length;
+    }
+
+    /**
+     * This method gets the RDN component at the given depth, where 0 is the component closest to the root.
+     *
+     * @param depth The depth.
+     * @return The RDN component.
+     */
+    public String getRdn(int depth)
+    {
+        return rdns[depth];
+    }
+
+    /**
+     * This method gets the parent dn.
+     *
+     * @return The parent dn, or null if this dn has only one component.
+     */
+    public Dn getParent()
+    {
+        if (parent == null && parentOffset > 0)
+            parent = get(dn.substring(parentOffset));
+        return parent;
+    }
+
+    /**
+     * This method returns the ancestor (or this dn itself) that has the given number of RDN components.
+     *
+     * @param size The number of components of the ancestor.
+     * @return The ancestor, or null if this dn is shorter than the given size.
+     */
+    public Dn getAncestor(int size)
+    {
+        if (size > rdns.length || size <= 0)
+            return null;
+        Dn result = this;
+        while (result.rdns.length > size)
+            result = result.getParent();
+        return result;
+    }
+
+    /**
+     * This method checks whether this dn is equal to, or located below, the given dn.
+     *
+     * @param root The possible ancestor.
+     * @return true if all components of root are the first components of this dn.
+     */
+    public boolean isBelow(Dn root)
+    {
+        if (root.rdns.length > rdns.length)
+            return false;
+        for (int i = 0; i < root.rdns.length; i++)
+        {
+            if (rdns[i] != root.rdns[i])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * This method gets the key that is used for LDAP objects in lists and caches.
+     *
+     * @return "ldap:" followed by the dn.
+     */
+    public String getKey()
+    {
+        if (key == null)
+            key = "ldap:" + dn;
+        return key;
+    }
+
+    /**
+     * Compares the components starting at the root, so that objects are grouped per parent. An ancestor sorts before its
+     * descendants.
+     *
+     * @see java.lang.Comparable#compareTo(java.lang.Object)
+     */
+    public int compareTo(Dn other)
+    {
+        if (other == this)
+            return 0;
+        int len = Math.min(rdns.length, other.rdns.length);
+        for (int i = 0; i < len; i++)
+        {
+            if (rdns[i] != other.rdns[i])
+            {
+                int comp = rdns[i].compareTo(other.rdns[i]);
+                if (comp != 0)
+                    return comp;
+            }
+        }
+        return rdns.length - other.rdns.length;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object o)
+    {
+        if (o == this)
+            return true;
+        if (o instanceof Dn)
+            return dn.equals(((Dn) o).dn);
+        return false;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        return dn.hashCode();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        return dn;
+    }
+}
@@ -0,0 +1,277 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.support;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.kisst.cordys.caas.CordysSystem;
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class writes the same dump as {@link LdapObject#dumpXml()}, but streams it to a file instead of building it in memory. While
+ * the dump is written in order on the calling thread, a pool of threads fetches the children of the next objects, so the writer
+ * rarely has to wait for LDAP. The number of threads is set with the property caas.dump.threads (default 4). If the file name ends
+ * with .gz the dump is gzipped.
+ * <p>
+ * The dump does not fill the caches of the system. A child list that is already loaded is written as it is, any other child list
+ * is read without storing its children in the list or in the cache of the system, so they are garbage collected once they are
+ * written. Only the children of a window of twice the number of threads of objects ahead of the writer are fetched. Memory and
+ * outstanding requests therefore grow with the size of the largest child list, not with the size of the tree.
+ * </p>
+ */
+public class DumpWriter
+{
+    /** Holds the number of threads that fetch ahead of the writer. */
+    private final int threads;
+    /** Holds the pool that prefetches the child lists. */
+    private ExecutorService pool;
+
+    /**
+     * Instantiates a new dump writer.
+     */
+    public DumpWriter()
+    {
+        this(Integer.parseInt(Environment.get().getProp("caas.dump.threads", "4")));
+    }
+
+    /**
+     * Instantiates a new dump writer.
+     *
+     * @param threads The number of threads that fetch ahead of the writer.
+     */
+    public DumpWriter(int threads)
+    {
+        this.threads = threads;
+    }
+
+    /**
+     * This method writes the dump of the given object and everything below it to the given file.
+     *
+     * @param root The object to dump.
+     * @param file The file to write to. If the name ends with .gz the file is gzipped.
+     */
+    public void write(LdapObject root, File file)
+    {
+        OutputStream out = null;
+        try
+        {
+            out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+            if (file.getName().endsWith(".gz"))
+                out = new GZIPOutputStream(out, 65536);
+            write(root, out);
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (out != null)
+                    out.close();
+            }
+            catch (IOException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * This method writes the dump of the given object and everything below it to the given stream. The stream is not closed.
+     *
+     * @param root The object to dump.
+     * @param out The stream to write to.
+     */
+    public synchronized void write(LdapObject root, OutputStream out)
+    {
+        pool = threads > 0 ? Executors.newFixedThreadPool(threads) : null;
+        try
+        {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            writer.writeStartDocument("UTF-8", "1.0");
+            CordysSystem system = root.getSystem();
+            writer.writeStartElement("dump");
+            writer.writeAttribute("name", system.getName());
+            writer.writeAttribute("version", system.version);
+            writer.writeAttribute("build", system.build);
+            writeObject(writer, root, null);
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        }
+        catch (XMLStreamException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            if (pool != null)
+                pool.shutdownNow();
+        }
+    }
+
+    /**
+     * This method schedules the fetching of the children of the given object. The children of the children are not fetched.
+     *
+     * @param obj The object.
+     * @return The future of the fetch, or null if nothing is prefetched.
+     */
+    private Future<List<List<LdapObject>>> prefetch(final LdapObject obj)
+    {
+        if (pool == null)
+            return null;
+        try
+        {
+            return pool.submit(new Callable<List<List<LdapObject>>>() {
+                public List<List<LdapObject>> call()
+                {
+                    return fetchChildren(obj);
+                }
+            });
+        }
+        catch (RejectedExecutionException e)
+        {
+            return null; // The dump is finished or aborted
+        }
+    }
+
+    /**
+     * This method gets the children of the given object, waiting for the prefetch if there is one.
+     *
+     * @param obj The object.
+     * @param prefetched The future of the prefetch, or null if the children were not prefetched.
+     * @return The children, per child list.
+     */
+    private List<List<LdapObject>> getChildren(LdapObject obj, Future<List<List<LdapObject>>> prefetched)
+    {
+        if (prefetched != null)
+        {
+            try
+            {
+                return prefetched.get();
+            }
+            catch (InterruptedException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+            catch (ExecutionException e)
+            {
+                // The children are fetched again, which reports the error
+                Environment.debug("Prefetch of the children of " + obj.getDn() + " failed: " + e.getCause().getMessage());
+            }
+        }
+        return fetchChildren(obj);
+    }
+
+    /**
+     * This method fetches the children of the given object. The child lists that are already loaded are used as they are, the
+     * other child lists are read without changing them.
+     *
+     * @param obj The object.
+     * @return The children, per child list.
+     */
+    private static List<List<LdapObject>> fetchChildren(LdapObject obj)
+    {
+        ArrayList<List<LdapObject>> result = new ArrayList<List<LdapObject>>();
+        for (ChildList<?> clist : new Props<ChildList<?>>(obj, ChildList.class))
+        {
+            if (clist.isListAvailable())
+            {
+                ArrayList<LdapObject> children = new ArrayList<LdapObject>();
+                for (LdapObject child : clist)
+                    children.add(child);
+                result.add(children);
+            }
+            else
+                result.add(new ArrayList<LdapObject>(clist.retrieveDetached()));
+        }
+        return result;
+    }
+
+    /**
+     * This method writes the ldap element for the given object, including its children. While a child is written, the children of
+     * the next children are prefetched. A child is dropped from the list once it is written, so it can be garbage collected.
+     *
+     * @param writer The writer.
+     * @param obj The object.
+     * @param prefetched The future of the prefetch of the children of the object, or null if they were not prefetched.
+     * @throws XMLStreamException In case of any errors.
+     */
+    private void writeObject(XMLStreamWriter writer, LdapObject obj, Future<List<List<LdapObject>>> prefetched)
+            throws XMLStreamException
+    {
+        writer.writeStartElement("ldap");
+        writer.writeAttribute("name", obj.getName());
+        writer.writeAttribute("dn", obj.getDn());
+        writeNode(writer, obj.getEntry(), "");
+        writer.writeStartElement("children");
+        for (List<LdapObject> children : getChildren(obj, prefetched))
+        {
+            LinkedList<Future<List<List<LdapObject>>>> window = new LinkedList<Future<List<List<LdapObject>>>>();
+            int next = 0;
+            for (int i = 0; i < children.size(); i++)
+            {
+                while (next < children.size() && next <= i + threads * 2)
+                    window.add(prefetch(children.get(next++)));
+                writeObject(writer, children.get(i), window.removeFirst());
+                children.set(i, null);
+            }
+        }
+        writer.writeEndElement();
+        writer.writeEndElement();
+    }
+
+    /**
+     * This method writes the given XML node.
+     *
+     * @param writer The writer.
+     * @param node The node to write.
+     * @param parentNamespace The namespace of the parent element.
+     * @throws XMLStreamException In case of any errors.
+     */
+    private void writeNode(XMLStreamWriter writer, XmlNode node, String parentNamespace) throws XMLStreamException
+    {
+        String ns = node.getNamespace();
+        writer.writeStartElement("", node.getName(), ns);
+        if (!ns.equals(parentNamespace))
+            writer.writeDefaultNamespace(ns);
+        for (Map.Entry<String, String> attr : node.getAttributes().entrySet())
+            writer.writeAttribute(attr.getKey(), attr.getValue());
+        List<XmlNode> children = node.getChildren();
+        if (children.isEmpty())
+            writer.writeCharacters(node.getText());
+        for (XmlNode child : children)
+            writeNode(writer, child, ns);
+        writer.writeEndElement();
+    }
+}
@@ -58,18 +58,35 @@ public class EntryObjectList<T extends LdapObject> extends CordysObjectList<T>
         return parent.getOrganization();
     }
 
-    @SuppressWarnings("unchecked")
     @Override
     protected void retrieveList()
     {
         dangling.clear();
+        // Within a write batch the parent may have modifications that are not yet stored in LDAP
+        LdapWriteBatch batch = system.getWriteBatch();
+        XmlNode pending = batch == null ? null : batch.getPendingEntry(parent.getDn());
+        if (pending != null)
+        {
+            growEntries(pending.getChild(group));
+            return;
+        }
         XmlNode method = new XmlNode(Constants.GET_LDAP_OBJECT, Constants.XMLNS_LDAP);
         method.add("dn").setText(parent.getDn());
         XmlNode response = system.call(method);
         if (response.getName().equals("Envelope"))
             response = response.getChild("Body").getChildren().get(0);
 
-        XmlNode start = response.getChild("tuple/old/entry/" + group);
+        growEntries(response.getChild("tuple/old/entry/" + group));
+    }
+
+    /**
+     * This method adds the objects for the dn values in the given entry attribute.
+     * 
+     * @param start The entry attribute holding the dn values.
+     */
+    @SuppressWarnings("unchecked")
+    private void growEntries(XmlNode start)
+    {
         if (start == null)
             return;
         for (XmlNode s : start.getChildren("string"))
@@ -84,7 +101,7 @@ public class EntryObjectList<T extends LdapObject> extends CordysObjectList<T>
     }
 
     @SuppressWarnings("unchecked")
-    public List<String> getDangling()
+    public synchronized List<String> getDangling()
     {
         fetchList();
         return (List<String>) dangling.clone();
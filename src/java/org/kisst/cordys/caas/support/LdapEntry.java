@@ -0,0 +1,220 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.support;
+
+import java.util.List;
+
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class holds a compact, read-only copy of an LDAP entry. Instead of keeping the complete JDOM tree (with a
+ * &lt;string&gt; wrapper element for every value) it only stores the attribute names and their values as interned string
+ * arrays. The XML form is rebuilt on request, which is only needed when the entry is sent back to Cordys (e.g. in an Update).
+ */
+public class LdapEntry
+{
+    /** Holds the name of the element that wraps each value of an attribute. */
+    private static final String STRING = "string";
+    /** Values longer than this (typically configuration XML) are unique anyway and are not interned. */
+    private static final int MAX_INTERN_LENGTH = 256;
+    /** Holds the shared empty value array. */
+    private static final String[] NO_VALUES = new String[0];
+
+    /** Holds the namespace of the entry element. */
+    private final String namespace;
+    /** Holds the dn of the entry. */
+    private final String dn;
+    /** Holds the interned attribute names, in document order. */
+    private final String[] names;
+    /** Holds the values of each attribute, the index matches the names array. */
+    private final String[][] values;
+    /** Holds the text of the attributes that have text instead of values, or null if no attribute has text. */
+    private final String[] texts;
+
+    /**
+     * Instantiates a new compact entry.
+     *
+     * @param namespace The namespace of the entry element.
+     * @param dn The dn of the entry.
+     * @param names The interned attribute names.
+     * @param values The values per attribute.
+     * @param texts The text per attribute, or null if no attribute has text.
+     */
+    private LdapEntry(String namespace, String dn, String[] names, String[][] values, String[] texts)
+    {
+        this.namespace = namespace;
+        this.dn = dn;
+        this.names = names;
+        this.values = values;
+        this.texts = texts;
+    }
+
+    /**
+     * This method converts the given entry XML into the compact form. If the XML contains anything that cannot be represented
+     * (extra attributes, nested elements other than &lt;string&gt;, foreign namespaces, text next to &lt;string&gt; elements) null
+     * is returned, so that the caller can keep the original XML instead. An attribute with text but without &lt;string&gt; elements
+     * keeps its text.
+     *
+     * @param entry The LDAP entry XML.
+     * @return The compact entry, or null if the entry cannot be represented without losing information.
+     */
+    public static LdapEntry parse(XmlNode entry)
+    {
+        if (entry == null)
+            return null;
+        String ns = entry.getNamespace();
+        String dn = entry.getAttribute("dn");
+        if (dn == null || entry.getAttributes().size() != 1)
+            return null;
+
+        List<XmlNode> attrs = entry.getChildren();
+        String[] names = new String[attrs.size()];
+        String[][] values = new String[attrs.size()][];
+        String[] texts = null;
+        int i = 0;
+        for (XmlNode attr : attrs)
+        {
+            if (!ns.equals(attr.getNamespace()) || !attr.getAttributes().isEmpty())
+                return null;
+            List<XmlNode> strings = attr.getChildren();
+            String text = attr.getText();
+            if (text.length() > 0)
+            {
+                if (!strings.isEmpty())
+                {
+                    if (text.trim().length() > 0)
+                        return null;
+                }
+                else
+                {
+                    if (texts == null)
+                        texts = new String[attrs.size()];
+                    texts[i] = intern(text);
+                }
+            }
+            String[] vals = strings.isEmpty() ? NO_VALUES : new String[strings.size()];
+            int j = 0;
+            for (XmlNode s : strings)
+            {
+                if (!STRING.equals(s.getName()) || !ns.equals(s.getNamespace()) || !s.getAttributes().isEmpty()
+                        || !s.getChildren().isEmpty())
+                    return null;
+                vals[j++] = intern(s.getText());
+            }
+            names[i] = attr.getName().intern();
+            values[i++] = vals;
+        }
+        return new LdapEntry(ns.intern(), dn.intern(), names, values, texts);
+    }
+
+    /**
+     * Interns the given value if it is short enough to be worth sharing.
+     *
+     * @param value The value.
+     * @return The (possibly) interned value.
+     */
+    private static String intern(String value)
+    {
+        if (value.length() > MAX_INTERN_LENGTH)
+            return value;
+        return value.intern();
+    }
+
+    /**
+     * This method returns the index of the given attribute.
+     *
+     * @param name The attribute name.
+     * @return The index of the attribute, or -1 if it is not present.
+     */
+    private int indexOf(String name)
+    {
+        // Attribute names are interned and property paths are literals, so the identity check nearly always hits.
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i] == name)
+                return i;
+        }
+        for (int i = 0; i < names.length; i++)
+        {
+            if (names[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * This method gets the dn of the entry.
+     *
+     * @return The dn of the entry.
+     */
+    public String getDn()
+    {
+        return dn;
+    }
+
+    /**
+     * This method returns whether the entry contains the given attribute.
+     *
+     * @param name The attribute name.
+     * @return true if the attribute is present (even without values).
+     */
+    public boolean has(String name)
+    {
+        return indexOf(name) >= 0;
+    }
+
+    /**
+     * This method gets the first value of the given attribute.
+     *
+     * @param name The attribute name.
+     * @return The first value, or null if the attribute is absent or has no values.
+     */
+    public String getFirst(String name)
+    {
+        int i = indexOf(name);
+        if (i < 0 || values[i].length == 0)
+            return null;
+        return values[i][0];
+    }
+
+    /**
+     * This method gets all values of the given attribute. The returned array is shared and must not be modified.
+     *
+     * @param name The attribute name.
+     * @return The values, or null if the attribute is absent.
+     */
+    public String[] get(String name)
+    {
+        int i = indexOf(name);
+        if (i < 0)
+            return null;
+        return values[i];
+    }
+
+    /**
+     * This method rebuilds the entry XML. Every call returns a new detached node, so callers are free to modify it.
+     *
+     * @return The entry XML.
+     */
+    public XmlNode toXml()
+    {
+        XmlNode result = new XmlNode("entry", namespace);
+        result.setAttribute("dn", dn);
+        for (int i = 0; i < names.length; i++)
+        {
+            XmlNode attr = result.add(names[i]);
+            if (texts != null && texts[i] != null)
+                attr.setText(texts[i]);
+            for (String value : values[i])
+                attr.add(STRING).setText(value);
+        }
+        return result;
+    }
+}
@@ -19,7 +19,9 @@ along with the Caas tool.  If not, see <http://www.gnu.org/licenses/>.
 
 package org.kisst.cordys.caas.support;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -36,15 +38,17 @@ public abstract class LdapObject extends CordysObject {
 		@Override public String toString() { return ""+get(); }
 	}
 	public class StringProperty extends AbstractProperty {
+		private final String attr;
 		private final String path;
 		private final int startPos;
 		public StringProperty(String path) { this(path,0);}
 		public StringProperty(String path, int startPos) {
 			this.startPos=startPos;
+			this.attr=path.intern();
 			this.path=path+"/string";
 		}
 		@Override public String get() { 
-			String s= getEntry().getChildText(path);
+			String s= getEntryText(attr, path);
 			if (s!=null && startPos>0)
 				return s.substring(startPos);
 			return s;
@@ -111,13 +115,21 @@ public abstract class LdapObject extends CordysObject {
 	public class StringList extends AbstractProperty implements Iterable<String> {
 		// TODO: cache this?
 		private final String path;
-		public StringList(String path) {this.path=path;}
+		public StringList(String path) {this.path=path.intern();}
 		@Override public List<String> get() { 
 			ArrayList<String> result=new ArrayList<String>();
-			XmlNode start=getEntry().getChild(path);
-			if (start!=null)
-				for (XmlNode child: start.getChildren("string")) 
-					result.add(child.getText());
+			synchronized (LdapObject.this) {
+				if (loadEntry()!=null) {
+					String[] values=compactEntry.get(path);
+					if (values!=null)
+						result.addAll(Arrays.asList(values));
+					return result;
+				}
+				XmlNode start=entry.getChild(path);
+				if (start!=null)
+					for (XmlNode child: start.getChildren("string")) 
+						result.add(child.getText());
+			}
 			return result;
 		}
 		public Iterator<String> iterator() { return get().iterator(); }
@@ -175,6 +187,9 @@ public abstract class LdapObject extends CordysObject {
 	public final StringProperty desc = description;
 
 	private final LdapObject parent; 
+	/** Holds the cached entry in compact form; this is the normal case */
+	private LdapEntry compactEntry;
+	/** Holds the cached entry XML, only used if the entry could not be stored in compact form */
 	private XmlNode entry;
 
 	// This constructor is meant to be used by CordysSystem, which has no parent
@@ -186,7 +201,9 @@ public abstract class LdapObject extends CordysObject {
 		this.parent=parent; 
 	}
 	abstract public String getDn();
-	@Override public void myclear() { super.myclear(); entry=null; }
+	/** Returns the parsed, interned form of the dn */
+	public Dn getDnObject() { return Dn.get(getDn()); }
+	@Override public synchronized void myclear() { super.myclear(); entry=null; compactEntry=null; }
 	public void debug(String msg) { Environment.debug(msg); } 
 	public void info(String msg)  { Environment.info(msg); } 
 	public void warn(String msg)  { Environment.warn(msg); } 
@@ -205,7 +222,7 @@ public abstract class LdapObject extends CordysObject {
 
 	public XmlNode call(XmlNode request,HashMap<String, String> queryParams) { return getSystem().call(request, queryParams); }
 	
-	@Override public String getKey() { return "ldap:"+getDn(); }
+	@Override public String getKey() { return getDnObject().getKey(); }
 	@Override public String getName() {
 		String dn=getDn();
 		int pos=dn.indexOf("=");
@@ -223,6 +240,8 @@ public abstract class LdapObject extends CordysObject {
 			return 0;
 		if (o==null)
 			return -1;
+		if (o instanceof LdapObject)
+			return getDnObject().compareTo(((LdapObject) o).getDnObject());
 		String[] d1=getKey().split(",");
 		String[] d2=o.getKey().split(",");
 		int p1=d1.length-1;
@@ -236,16 +255,51 @@ public abstract class LdapObject extends CordysObject {
 	}
 
 
-	void setEntry(XmlNode entry) {
-		this.entry=entry;
-		if (entry!=null)
-			entry.detach();
+	synchronized void setEntry(XmlNode entry) {
+		this.compactEntry=LdapEntry.parse(entry);
+		if (compactEntry!=null)
+			this.entry=null;
+		else {
+			this.entry=entry;
+			if (entry!=null)
+				entry.detach();
+		}
+	}
+	/**
+	 * Makes sure the entry is loaded.
+	 * 
+	 * @return The compact entry, or null if the entry is only available as XML.
+	 */
+	private synchronized LdapEntry loadEntry() {
+		if ((entry==null && compactEntry==null) || ! useCache()) {
+			LdapWriteBatch batch=getSystem().getWriteBatch();
+			XmlNode pending= batch==null ? null : batch.getPendingEntry(getDn());
+			setEntry(pending!=null ? pending : retrieveEntry(getSystem(),getDn()));
+		}
+		return compactEntry;
 	}
-	public XmlNode getEntry() {
-		if (entry==null || ! useCache())
-			setEntry(retrieveEntry(getSystem(),getDn()));
+	private synchronized String getEntryText(String attr, String path) {
+		if (loadEntry()!=null)
+			return compactEntry.getFirst(attr);
+		return entry.getChildText(path);
+	}
+	/**
+	 * Returns the LDAP entry of this object. When the entry is cached in compact form, a new XML node is built on each call.
+	 * Callers that want to change the entry should still clone it, since it may also be the cached node itself.
+	 */
+	public synchronized XmlNode getEntry() {
+		if (loadEntry()!=null)
+			return compactEntry.toXml();
 		return entry;
 	}
+	/** Returns the cached entry XML, without retrieving it again. */
+	private synchronized XmlNode getCachedEntryCopy() {
+		if (compactEntry==null && entry==null)
+			loadEntry();
+		if (compactEntry!=null)
+			return compactEntry.toXml();
+		return entry.clone();
+	}
 	
 	static public XmlNode retrieveEntry(CordysSystem system, String dn) {
 		//log("getting dn "+dn);
@@ -278,8 +332,14 @@ public abstract class LdapObject extends CordysObject {
 	}
 	
 	protected void createInLdap(XmlNode newEntry) { updateLdap(null, newEntry); }
-	protected void updateLdap(XmlNode newEntry) { updateLdap(entry.clone(), newEntry); }
+	protected void updateLdap(XmlNode newEntry) { updateLdap(getCachedEntryCopy(), newEntry); }
 	protected void updateLdap(XmlNode oldEntry, XmlNode newEntry) {
+		LdapWriteBatch batch=getSystem().getWriteBatch();
+		if (batch!=null && newEntry!=null) {
+			batch.add(this, oldEntry, newEntry);
+			setEntry(newEntry);
+			return;
+		}
 		XmlNode method=new XmlNode(Constants.UPDATE, Constants.XMLNS_LDAP);
 		XmlNode tuple=method.add("tuple");
 		if (oldEntry!=null)
@@ -301,6 +361,10 @@ public abstract class LdapObject extends CordysObject {
 	public void delete() {
 		checkIfMayBeModified(); 
 		preDeleteHook();
+		// Pending modifications might concern this entry or its children, so send them first
+		LdapWriteBatch batch=getSystem().getWriteBatch();
+		if (batch!=null)
+			batch.flush();
 		XmlNode method=new XmlNode(Constants.DELETE_RECURSIVE, Constants.XMLNS_LDAP);
 		XmlNode tuple=method.add("tuple");
 		tuple.add("old").add(getEntry().clone());
@@ -318,6 +382,16 @@ public abstract class LdapObject extends CordysObject {
 		return result;
 	}
 
+	/**
+	 * Writes the dump directly to the given file, without building it in memory.
+	 * If the filename ends with .gz the dump is gzipped.
+	 * 
+	 * @see DumpWriter
+	 */
+	public void dumpXml(String filename) {
+		new DumpWriter().write(this, new File(filename));
+	}
+
 	private void dumpXml(XmlNode result) {
 		XmlNode my=result.add("ldap");
 		my.setAttribute("name", getName());
@@ -49,7 +49,7 @@ public abstract class LdapObjectBase extends LdapObject
     /** Holds the system. */
     private final CordysSystem system;
     /** Holds the dn. */
-    private final String dn;
+    private final Dn dn;
     /** Holds the CN of the current entry. */
     private String cn;
     /** Holds the Constant ldapObjectTypes. */
@@ -90,7 +90,7 @@ public abstract class LdapObjectBase extends LdapObject
     {
         super(parent);
         this.system = parent.getSystem();
-        this.dn = dn;
+        this.dn = Dn.get(dn);
 
         Matcher m = Constants.GET_CN.matcher(dn);
 
@@ -117,6 +117,17 @@ public abstract class LdapObjectBase extends LdapObject
     {
         // We need to figure out what the organizational context is for this object. We determine this by examining the parent
         // until we find the organization object. If we can't determine it we'll use the system or of the CordysSystem.
+        // Most objects live below an organization (o=...,<ldap root>), so first try to find that one in the cache directly.
+        Dn root = system.getDnObject();
+        if (dn.size() > root.size() && dn.getRdn(root.size()).startsWith("o=") && dn.isBelow(root))
+        {
+            LdapObject org = system.seekLdap(dn.getAncestor(root.size() + 1));
+            if (org instanceof Organization)
+            {
+                return (Organization) org;
+            }
+        }
+
         Organization retVal = null;
 
         LdapObject current = this;
@@ -151,6 +162,15 @@ public abstract class LdapObjectBase extends LdapObject
      */
     @Override
     public String getDn()
+    {
+        return dn.toString();
+    }
+
+    /**
+     * @see org.kisst.cordys.caas.support.LdapObject#getDnObject()
+     */
+    @Override
+    public Dn getDnObject()
     {
         return dn;
     }
@@ -194,9 +214,20 @@ public abstract class LdapObjectBase extends LdapObject
         {
             return null;
         }
+        return createObject(system, calcParent(system, entry.getAttribute("dn")), entry);
+    }
 
+    /**
+     * This method creates the object with the given parent, without looking up the parent.
+     * 
+     * @param system The system
+     * @param parent The parent
+     * @param entry The entry
+     * @return The ldap object
+     */
+    static LdapObject createObject(CordysSystem system, LdapObject parent, XmlNode entry)
+    {
         String newdn = entry.getAttribute("dn");
-        LdapObject parent = calcParent(system, entry.getAttribute("dn"));
         Class<?> resultClass = determineClass(system, entry);
 
         if (resultClass == Package.class)
@@ -259,13 +290,13 @@ public abstract class LdapObjectBase extends LdapObject
     private static LdapObject calcParent(CordysSystem system, String dn)
     {
         String origdn = dn;
-        int pos;
+        Dn current = Dn.get(dn);
 
-        while ((pos = dn.indexOf(",")) >= 0)
+        while ((current = current.getParent()) != null)
         {
-            dn = dn.substring(pos + 1);
+            dn = current.toString();
 
-            LdapObject parent = system.seekLdap(dn);
+            LdapObject parent = system.seekLdap(current);
 
             if (parent != null)
             {
@@ -0,0 +1,168 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.support;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.kisst.cordys.caas.CordysSystem;
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.util.Constants;
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class collects LDAP modifications instead of sending each of them in its own Update request. Modifications of the same
+ * entry are merged: the first old entry is kept and only the last new entry is sent. When the batch is flushed, the pending
+ * modifications are sent as multi-tuple Update requests, in the order in which the entries were first modified.
+ *
+ * @see CordysSystem#batch(Runnable)
+ */
+public class LdapWriteBatch
+{
+    /** Holds the system to send the updates to. */
+    private final CordysSystem system;
+    /** Holds the maximum number of tuples per Update request. */
+    private final int chunkSize;
+    /** Holds the pending modifications per dn. */
+    private final LinkedHashMap<String, Modification> pending = new LinkedHashMap<String, Modification>();
+
+    /**
+     * Holds a single pending modification.
+     */
+    private static class Modification
+    {
+        /** Holds the object whose cached entry reflects the modification. */
+        private final LdapObject owner;
+        /** Holds the entry as it is currently stored in LDAP, or null for a new entry. */
+        private final XmlNode oldEntry;
+        /** Holds the entry as it should be stored. */
+        private XmlNode newEntry;
+
+        /**
+         * Instantiates a new modification.
+         *
+         * @param owner The owner
+         * @param oldEntry The old entry
+         * @param newEntry The new entry
+         */
+        private Modification(LdapObject owner, XmlNode oldEntry, XmlNode newEntry)
+        {
+            this.owner = owner;
+            this.oldEntry = oldEntry;
+            this.newEntry = newEntry;
+        }
+    }
+
+    /**
+     * Instantiates a new write batch.
+     *
+     * @param system The system to send the updates to.
+     * @param chunkSize The maximum number of tuples per Update request.
+     */
+    public LdapWriteBatch(CordysSystem system, int chunkSize)
+    {
+        this.system = system;
+        this.chunkSize = chunkSize < 1 ? 1 : chunkSize;
+    }
+
+    /**
+     * This method gets the number of entries that have pending modifications.
+     *
+     * @return The number of pending entries.
+     */
+    public int size()
+    {
+        return pending.size();
+    }
+
+    /**
+     * This method registers a modification. If the entry was already modified in this batch, the modification is merged with the
+     * pending one.
+     *
+     * @param owner The object on which the modification was made.
+     * @param oldEntry The old entry, or null when a new entry is created.
+     * @param newEntry The new entry.
+     */
+    void add(LdapObject owner, XmlNode oldEntry, XmlNode newEntry)
+    {
+        String dn = newEntry != null ? newEntry.getAttribute("dn") : oldEntry.getAttribute("dn");
+        Modification mod = pending.get(dn);
+        if (mod == null)
+            pending.put(dn, new Modification(owner, oldEntry == null ? null : oldEntry.clone(), newEntry.clone()));
+        else
+            mod.newEntry = newEntry.clone();
+    }
+
+    /**
+     * This method returns the pending new entry for the given dn, so that reads within the batch see the modified entry instead of
+     * the one that is still stored in LDAP.
+     *
+     * @param dn The dn.
+     * @return A copy of the pending entry, or null if the entry has not been modified in this batch.
+     */
+    XmlNode getPendingEntry(String dn)
+    {
+        Modification mod = pending.get(dn);
+        if (mod == null)
+            return null;
+        return mod.newEntry.clone();
+    }
+
+    /**
+     * This method sends all pending modifications. If an Update fails, the modifications that were not sent yet are discarded and
+     * the exception is passed on.
+     */
+    public void flush()
+    {
+        if (pending.isEmpty())
+            return;
+        Environment.debug("Flushing " + pending.size() + " LDAP modifications in chunks of " + chunkSize);
+        ArrayList<Modification> todo = new ArrayList<Modification>(pending.values());
+        pending.clear();
+        int pos = 0;
+        try
+        {
+            while (pos < todo.size())
+            {
+                int end = Math.min(pos + chunkSize, todo.size());
+                XmlNode method = new XmlNode(Constants.UPDATE, Constants.XMLNS_LDAP);
+                for (int i = pos; i < end; i++)
+                {
+                    Modification mod = todo.get(i);
+                    XmlNode tuple = method.add("tuple");
+                    if (mod.oldEntry != null)
+                        tuple.add("old").add(mod.oldEntry);
+                    tuple.add("new").add(mod.newEntry);
+                }
+                system.call(method);
+                pos = end;
+            }
+        }
+        finally
+        {
+            // The cached entries of the modifications that were not sent no longer match LDAP
+            for (int i = pos; i < todo.size(); i++)
+                todo.get(i).owner.clear();
+        }
+    }
+
+    /**
+     * This method drops all pending modifications. The objects involved are cleared, so that they are read from LDAP again.
+     */
+    public void discard()
+    {
+        for (Iterator<Modification> it = pending.values().iterator(); it.hasNext();)
+        {
+            it.next().owner.clear();
+            it.remove();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.support;
+
+/**
+ * This class holds a time series of a fixed number of metrics in a ring buffer. All samples are stored in primitive arrays that are
+ * allocated once, so keeping a long history for many objects does not create any garbage. When the buffer is full the oldest
+ * sample is overwritten. A value of -1 means the metric was not available in that sample.
+ */
+public class MetricSeries
+{
+    /** Holds the timestamps of the samples in milliseconds. */
+    private final long[] times;
+    /** Holds the values of the samples, indexed by metric and then by position in the ring. */
+    private final long[][] values;
+    /** Holds the position where the next sample is written. */
+    private int head;
+    /** Holds the number of samples in the buffer. */
+    private int count;
+
+    /**
+     * Instantiates a new metric series.
+     *
+     * @param metrics The number of metrics per sample.
+     * @param capacity The maximum number of samples to keep.
+     */
+    public MetricSeries(int metrics, int capacity)
+    {
+        if (capacity < 2)
+            capacity = 2;
+        this.times = new long[capacity];
+        this.values = new long[metrics][capacity];
+    }
+
+    /**
+     * This method adds a sample.
+     *
+     * @param time The time of the sample in milliseconds.
+     * @param sample The value of each metric. The array is copied.
+     */
+    public synchronized void add(long time, long[] sample)
+    {
+        times[head] = time;
+        for (int i = 0; i < values.length; i++)
+            values[i][head] = i < sample.length ? sample[i] : -1;
+        head = (head + 1) % times.length;
+        if (count < times.length)
+            count++;
+    }
+
+    /**
+     * This method gets the number of samples in the buffer.
+     *
+     * @return The number of samples.
+     */
+    public synchronized int size()
+    {
+        return count;
+    }
+
+    /**
+     * This method returns the position in the ring of the given sample.
+     *
+     * @param age The age of the sample, 0 being the latest.
+     * @return The position in the ring.
+     */
+    private int index(int age)
+    {
+        return (head - 1 - age + 2 * times.length) % times.length;
+    }
+
+    /**
+     * This method gets the time of a sample.
+     *
+     * @param age The age of the sample, 0 being the latest.
+     * @return The time in milliseconds, or -1 if there is no such sample.
+     */
+    public synchronized long getTime(int age)
+    {
+        if (age < 0 || age >= count)
+            return -1;
+        return times[index(age)];
+    }
+
+    /**
+     * This method gets the value of a metric in a sample.
+     *
+     * @param metric The metric.
+     * @param age The age of the sample, 0 being the latest.
+     * @return The value, or -1 if there is no such sample or the value was not available.
+     */
+    public synchronized long get(int metric, int age)
+    {
+        if (age < 0 || age >= count)
+            return -1;
+        return values[metric][index(age)];
+    }
+
+    /**
+     * This method gets the latest value of a metric.
+     *
+     * @param metric The metric.
+     * @return The value, or -1 if not available.
+     */
+    public long getLatest(int metric)
+    {
+        return get(metric, 0);
+    }
+
+    /**
+     * This method gets the difference of a counter between the latest sample and the one before it. If the value went down the
+     * counter was reset (e.g. because the process was restarted), so the latest value is the increase since the reset.
+     *
+     * @param metric The metric.
+     * @return The difference, never negative, or 0 if it can not be determined.
+     */
+    public synchronized long getDelta(int metric)
+    {
+        if (count < 2)
+            return 0;
+        long latest = values[metric][index(0)];
+        long previous = values[metric][index(1)];
+        if (latest < 0 || previous < 0)
+            return 0;
+        return latest < previous ? latest : latest - previous;
+    }
+
+    /**
+     * This method gets the average increase per second of a metric over the given number of samples. If the value went down (e.g.
+     * because the process was restarted) only the part since the restart is used.
+     *
+     * @param metric The metric.
+     * @param samples The number of intervals to average over, at least 1.
+     * @return The increase per second, or 0 if it can not be determined.
+     */
+    public synchronized double getRate(int metric, int samples)
+    {
+        if (samples < 1)
+            samples = 1;
+        if (samples > count - 1)
+            samples = count - 1;
+        long[] row = values[metric];
+        long latest = row[index(0)];
+        if (latest < 0)
+            return 0;
+        int age = 0;
+        long newer = latest;
+        while (age < samples)
+        {
+            long older = row[index(age + 1)];
+            if (older < 0 || older > newer)
+                break;
+            newer = older;
+            age++;
+        }
+        if (age == 0)
+            return 0;
+        long millis = times[index(0)] - times[index(age)];
+        if (millis <= 0)
+            return 0;
+        return (latest - row[index(age)]) * 1000.0 / millis;
+    }
+}
@@ -0,0 +1,411 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.support;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+
+/**
+ * This class compares two object trees using a pool of threads. Every pair of objects and every pair of child lists is a separate
+ * task, so idle threads pick up whatever subtree is waiting. The two sides of a child list are fetched at the same time. The
+ * result is the same Differences tree as {@link CordysObject#diff(CordysObject, int)} produces, in the same order. The number of
+ * threads is set with the property caas.diff.threads (default 8).
+ */
+public class ParallelDiff
+{
+    /**
+     * A listener that is notified of differences while the comparison is still running.
+     */
+    public static interface Listener
+    {
+        /**
+         * This method is called as soon as the differences of a single object or list are known. The child differences are not
+         * yet attached at that moment, so the differences should be handled within this call. The method can be called from
+         * several threads at the same time.
+         *
+         * @param diffs The differences.
+         */
+        void found(Differences diffs);
+    }
+
+    /** Holds the number of threads to use. */
+    private final int threads;
+    /** Holds the listener, or null. */
+    private final Listener listener;
+    /** Holds the subtree hashes of the first side, or null. */
+    private SubtreeHashes hashes1;
+    /** Holds the subtree hashes of the second side, or null. */
+    private SubtreeHashes hashes2;
+    /** Holds the maximum age of subtree hashes that were loaded from a file. */
+    private long hashesMaxAge;
+    /** Holds the pool that executes the tasks of the running comparison. */
+    private ExecutorService pool;
+    /** Holds the first error that occurred in a task. */
+    private final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+    /** Holds the latch that is released when the root of the comparison is complete. */
+    private CountDownLatch done;
+
+    /**
+     * Holds the state of a single comparison in the tree. It is complete when its own comparison and all its children are done.
+     */
+    private final class Node
+    {
+        /** Holds the parent node, or null for the root. */
+        private final Node parent;
+        /** Holds the position of this node within the children of its parent. */
+        private final int slot;
+        /** Holds the differences of this node. */
+        private Differences diffs;
+        /** Holds the differences of the children, in order. */
+        private Differences[] children;
+        /** Holds the number of children that are not yet complete. */
+        private AtomicInteger pending;
+
+        /**
+         * Instantiates a new node.
+         *
+         * @param parent The parent node.
+         * @param slot The position within the parent.
+         */
+        private Node(Node parent, int slot)
+        {
+            this.parent = parent;
+            this.slot = slot;
+        }
+
+        /**
+         * This method prepares the node for the given number of children. It must be called before the child tasks are submitted.
+         *
+         * @param count The number of children.
+         */
+        private void expect(int count)
+        {
+            children = new Differences[count];
+            pending = new AtomicInteger(count);
+            if (count == 0)
+                complete();
+        }
+
+        /**
+         * This method is called by a child when it is complete.
+         *
+         * @param index The position of the child.
+         * @param childDiffs The differences of the child.
+         */
+        private void childComplete(int index, Differences childDiffs)
+        {
+            children[index] = childDiffs;
+            if (pending.decrementAndGet() == 0)
+                complete();
+        }
+
+        /**
+         * This method attaches the child differences in their original order and passes the result to the parent.
+         */
+        private void complete()
+        {
+            for (Differences child : children)
+            {
+                if (child != null)
+                    diffs.addChildDiffs(child);
+            }
+            if (parent != null)
+                parent.childComplete(slot, diffs);
+            else
+                done.countDown();
+        }
+
+        /**
+         * This method is used when the comparison of this node failed, so that the rest of the tree can still complete.
+         *
+         * @param e The error.
+         */
+        private void fail(Throwable e)
+        {
+            error.compareAndSet(null, e);
+            if (children == null)
+            {
+                children = new Differences[0];
+                complete();
+            }
+        }
+    }
+
+    /**
+     * Instantiates a new parallel diff without a listener.
+     */
+    public ParallelDiff()
+    {
+        this(null);
+    }
+
+    /**
+     * Instantiates a new parallel diff.
+     *
+     * @param listener The listener to report the differences to, or null.
+     */
+    public ParallelDiff(Listener listener)
+    {
+        this(Integer.parseInt(Environment.get().getProp("caas.diff.threads", "8")), listener);
+    }
+
+    /**
+     * Instantiates a new parallel diff.
+     *
+     * @param threads The number of threads to use.
+     * @param listener The listener to report the differences to, or null.
+     */
+    public ParallelDiff(int threads, Listener listener)
+    {
+        this.threads = threads < 1 ? 1 : threads;
+        this.listener = listener;
+    }
+
+    /**
+     * This method sets the subtree hashes of both sides. Pairs of LDAP objects that have the same hash are identical, so they are
+     * skipped without fetching or comparing anything below them. Hashes are only used for objects of the system they were
+     * computed on (see {@link SubtreeHashes#isCurrentFor(LdapObject, long)}). Hashes that were loaded from a file are a baseline,
+     * which is used as long as it is not older than caas.diff.hashes.maxage milliseconds (default one day). A side with a
+     * baseline is not read at all for the subtrees that are the same, so a diff against a known baseline only descends into the
+     * branches that changed. Computing the hashes reads the whole subtree, so they pay off when they are saved or used for
+     * several diffs.
+     *
+     * @param hashes1 The hashes of the first side.
+     * @param hashes2 The hashes of the second side.
+     * @return This object.
+     */
+    public ParallelDiff setHashes(SubtreeHashes hashes1, SubtreeHashes hashes2)
+    {
+        this.hashesMaxAge = Long.parseLong(Environment.get().getProp("caas.diff.hashes.maxage", "86400000"));
+        for (SubtreeHashes hashes : new SubtreeHashes[] { hashes1, hashes2 })
+        {
+            if (hashes != null && hashes.isLoaded() && System.currentTimeMillis() - hashes.getCreated() > hashesMaxAge)
+            {
+                Environment.warn("Subtree hashes of " + hashes.getRootDn() + " are older than caas.diff.hashes.maxage, "
+                        + "they are not used to skip objects");
+            }
+        }
+        this.hashes1 = hashes1;
+        this.hashes2 = hashes2;
+        return this;
+    }
+
+    /**
+     * This method checks whether the subtree hashes show that both objects are identical.
+     *
+     * @param o1 The first object.
+     * @param o2 The second object.
+     * @return true if both objects have the same hash, from hashes that can be trusted for them.
+     */
+    private boolean sameHash(CordysObject o1, CordysObject o2)
+    {
+        if (hashes1 == null || hashes2 == null || !(o1 instanceof LdapObject) || !(o2 instanceof LdapObject))
+            return false;
+        LdapObject l1 = (LdapObject) o1;
+        LdapObject l2 = (LdapObject) o2;
+        if (!hashes1.isCurrentFor(l1, hashesMaxAge) || !hashes2.isCurrentFor(l2, hashesMaxAge))
+            return false;
+        String h1 = hashes1.getHash(l1);
+        return h1 != null && h1.equals(hashes2.getHash(l2));
+    }
+
+    /**
+     * This method compares the two objects.
+     *
+     * @param o1 The first object.
+     * @param o2 The second object.
+     * @param depth The depth to compare, with the same meaning as in {@link CordysObject#diff(CordysObject, int)}.
+     * @return The differences.
+     */
+    public synchronized Differences diff(CordysObject o1, CordysObject o2, int depth)
+    {
+        Node root = new Node(null, 0);
+        error.set(null);
+        done = new CountDownLatch(1);
+        pool = Executors.newFixedThreadPool(threads);
+        try
+        {
+            pool.execute(new ObjectTask(root, null, o1, o2, depth));
+            done.await();
+        }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+        if (error.get() != null)
+            throw new CaasRuntimeException(error.get());
+        return root.diffs;
+    }
+
+    /**
+     * This method passes the differences of a single node to the listener.
+     *
+     * @param diffs The differences.
+     */
+    private void report(Differences diffs)
+    {
+        if (listener != null && !diffs.emtpy())
+            listener.found(diffs);
+    }
+
+    /**
+     * Compares two objects.
+     */
+    private final class ObjectTask implements Runnable
+    {
+        /** Holds the node for this comparison. */
+        private final Node node;
+        /** Holds the differences of the parent. */
+        private final Differences parentDiffs;
+        /** Holds the first object. */
+        private final CordysObject o1;
+        /** Holds the second object. */
+        private final CordysObject o2;
+        /** Holds the remaining depth. */
+        private final int depth;
+
+        /**
+         * Instantiates a new object task.
+         *
+         * @param node The node for this comparison.
+         * @param parentDiffs The differences of the parent.
+         * @param o1 The first object.
+         * @param o2 The second object.
+         * @param depth The remaining depth.
+         */
+        private ObjectTask(Node node, Differences parentDiffs, CordysObject o1, CordysObject o2, int depth)
+        {
+            this.node = node;
+            this.parentDiffs = parentDiffs;
+            this.o1 = o1;
+            this.o2 = o2;
+            this.depth = depth;
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            try
+            {
+                node.diffs = new Differences(parentDiffs, "[\"" + o1.getName() + "\"]", o1, o2);
+                if (sameHash(o1, o2))
+                {
+                    node.expect(0);
+                    return;
+                }
+                ArrayList<CordysObjectList<?>[]> childLists = new ArrayList<CordysObjectList<?>[]>();
+                o1.compareProperties(node.diffs, o2, depth > 0 ? childLists : null);
+                report(node.diffs);
+                node.expect(childLists.size());
+                for (int i = 0; i < childLists.size(); i++)
+                {
+                    CordysObjectList<?>[] lists = childLists.get(i);
+                    pool.execute(new ListTask(new Node(node, i), node.diffs, lists[0], lists[1], depth - 1));
+                }
+            }
+            catch (Throwable e)
+            {
+                node.fail(e);
+            }
+        }
+    }
+
+    /**
+     * Compares two lists.
+     */
+    private final class ListTask implements Runnable
+    {
+        /** Holds the node for this comparison. */
+        private final Node node;
+        /** Holds the differences of the parent. */
+        private final Differences parentDiffs;
+        /** Holds the first list. */
+        private final CordysObjectList<?> l1;
+        /** Holds the second list. */
+        private final CordysObjectList<?> l2;
+        /** Holds the remaining depth. */
+        private final int depth;
+
+        /**
+         * Instantiates a new list task.
+         *
+         * @param node The node for this comparison.
+         * @param parentDiffs The differences of the parent.
+         * @param l1 The first list.
+         * @param l2 The second list.
+         * @param depth The remaining depth.
+         */
+        private ListTask(Node node, Differences parentDiffs, CordysObjectList<?> l1, CordysObjectList<?> l2, int depth)
+        {
+            this.node = node;
+            this.parentDiffs = parentDiffs;
+            this.l1 = l1;
+            this.l2 = l2;
+            this.depth = depth;
+        }
+
+        /**
+         * @see java.lang.Runnable#run()
+         */
+        public void run()
+        {
+            try
+            {
+                // Fetch the second list on another thread, while this thread fetches the first. If no thread was free to start
+                // it, it is simply run here.
+                FutureTask<Integer> fetch2 = new FutureTask<Integer>(new Callable<Integer>() {
+                    public Integer call()
+                    {
+                        return l2.getSize();
+                    }
+                });
+                pool.execute(fetch2);
+                l1.getSize();
+                fetch2.run();
+                fetch2.get();
+
+                node.diffs = new Differences(parentDiffs, l1.getName(), l1, l2);
+                ArrayList<CordysObject[]> matches = new ArrayList<CordysObject[]>();
+                l1.compareEntries(node.diffs, l2, depth > 0 ? matches : null);
+                report(node.diffs);
+                node.expect(matches.size());
+                for (int i = 0; i < matches.size(); i++)
+                {
+                    CordysObject[] match = matches.get(i);
+                    pool.execute(new ObjectTask(new Node(node, i), node.diffs, match[0], match[1], depth - 1));
+                }
+            }
+            catch (ExecutionException e)
+            {
+                node.fail(e.getCause());
+            }
+            catch (Throwable e)
+            {
+                node.fail(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,329 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.support;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.util.FileUtil;
+import org.kisst.cordys.caas.util.HashUtil;
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class holds a content hash for every LDAP object in a subtree. The hash of an object covers its own entry and the hashes of
+ * all its children, so two subtrees with the same hash are identical and a diff does not need to look into them.
+ * <p>
+ * The entry is canonicalized before hashing: attributes and values are sorted, and the dn of the subtree root and of the LDAP root
+ * are replaced by placeholders. This way the same object in another organization or on another system gets the same hash.
+ * </p>
+ * <p>
+ * The hashes can be saved to a file together with the system they were computed on and the time they were computed, so a later
+ * diff can use them as a baseline, for example for a reference organization that is compared with many others. Loaded hashes
+ * describe the subtree as it was at that time, so a diff of live objects only uses them when they come from the system of the
+ * objects and are not older than a given age, see {@link #isCurrentFor(LdapObject, long)}.
+ * </p>
+ *
+ * @see ParallelDiff#setHashes(SubtreeHashes, SubtreeHashes)
+ */
+public class SubtreeHashes
+{
+    /** Holds the key under which the dn of the root is saved. */
+    private static final String ROOT_KEY = ":root";
+    /** Holds the key under which the name of the system is saved. */
+    private static final String SOURCE_KEY = ":source";
+    /** Holds the key under which the time of computing is saved. */
+    private static final String CREATED_KEY = ":created";
+
+    /** Holds the dn of the root of the subtree. */
+    private final String rootDn;
+    /** Holds the name of the system the hashes were computed on. */
+    private final String source;
+    /** Holds the time the hashes were computed. */
+    private final long created;
+    /** Holds whether the hashes were loaded from a file. */
+    private final boolean loaded;
+    /** Holds the hashes, keyed by the dn relative to the root ("" for the root itself). */
+    private final HashMap<String, String> hashes = new HashMap<String, String>();
+
+    /**
+     * Instantiates a new, empty set of hashes.
+     *
+     * @param rootDn The dn of the root of the subtree.
+     * @param source The name of the system the hashes were computed on.
+     * @param created The time the hashes were computed.
+     * @param loaded Whether the hashes were loaded from a file.
+     */
+    private SubtreeHashes(String rootDn, String source, long created, boolean loaded)
+    {
+        this.rootDn = rootDn;
+        this.source = source;
+        this.created = created;
+        this.loaded = loaded;
+    }
+
+    /**
+     * This method computes the hashes for the given object and everything below it.
+     *
+     * @param root The root of the subtree.
+     * @return The hashes.
+     */
+    public static SubtreeHashes compute(LdapObject root)
+    {
+        SubtreeHashes result = new SubtreeHashes(root.getDn(), root.getSystem().getName(), System.currentTimeMillis(), false);
+        result.computeHash(root, root.getSystem().getDn(), new IdentityHashMap<LdapObject, String>());
+        return result;
+    }
+
+    /**
+     * This method loads hashes that were saved before.
+     *
+     * @param file The file to load.
+     * @return The hashes.
+     */
+    public static SubtreeHashes load(File file)
+    {
+        Properties props = new Properties();
+        FileUtil.load(props, file.getPath());
+        String root = props.getProperty(ROOT_KEY);
+        if (root == null)
+            throw new CaasRuntimeException("File " + file + " does not contain subtree hashes");
+        SubtreeHashes result = new SubtreeHashes(root, props.getProperty(SOURCE_KEY), Long.parseLong(props.getProperty(
+                CREATED_KEY, "0")), true);
+        for (String key : props.stringPropertyNames())
+        {
+            if (!key.startsWith(":"))
+                result.hashes.put(key, props.getProperty(key));
+        }
+        return result;
+    }
+
+    /**
+     * This method saves the hashes, so that they can be used as a baseline later on.
+     *
+     * @param file The file to save to.
+     */
+    public void save(File file)
+    {
+        Properties props = new Properties();
+        props.putAll(hashes);
+        props.setProperty(ROOT_KEY, rootDn);
+        if (source != null)
+            props.setProperty(SOURCE_KEY, source);
+        props.setProperty(CREATED_KEY, String.valueOf(created));
+        FileOutputStream out = null;
+        try
+        {
+            out = new FileOutputStream(file);
+            props.store(out, "Subtree hashes of " + rootDn);
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (out != null)
+                    out.close();
+            }
+            catch (IOException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * This method gets the dn of the root of the subtree.
+     *
+     * @return The dn of the root.
+     */
+    public String getRootDn()
+    {
+        return rootDn;
+    }
+
+    /**
+     * This method gets the name of the system the hashes were computed on.
+     *
+     * @return The name of the system, or null if it is not known.
+     */
+    public String getSource()
+    {
+        return source;
+    }
+
+    /**
+     * This method gets the time the hashes were computed.
+     *
+     * @return The time in milliseconds, or 0 if it is not known.
+     */
+    public long getCreated()
+    {
+        return created;
+    }
+
+    /**
+     * This method returns whether the hashes were loaded from a file, in which case they may no longer match the live objects.
+     *
+     * @return true if the hashes were loaded.
+     */
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+    /**
+     * This method returns whether the hashes describe the given live object: they were computed on the system of the object, for
+     * a subtree that contains the object, and if they were loaded from a file they are not older than the given age.
+     *
+     * @param obj The object.
+     * @param maxAge The maximum age of loaded hashes in milliseconds.
+     * @return true if the hash of the object can be trusted.
+     */
+    public boolean isCurrentFor(LdapObject obj, long maxAge)
+    {
+        if (loaded && System.currentTimeMillis() - created > maxAge)
+            return false;
+        if (!obj.getSystem().getName().equals(source))
+            return false;
+        String dn = obj.getDn();
+        return dn.equals(rootDn) || dn.endsWith("," + rootDn);
+    }
+
+    /**
+     * This method gets the number of objects that have a hash.
+     *
+     * @return The number of hashes.
+     */
+    public int size()
+    {
+        return hashes.size();
+    }
+
+    /**
+     * This method gets the hash of the given object.
+     *
+     * @param obj The object.
+     * @return The hash, or null if the object is not part of the subtree.
+     */
+    public String getHash(LdapObject obj)
+    {
+        return hashes.get(relativeDn(obj.getDn()));
+    }
+
+    /**
+     * This method returns the dn relative to the root of the subtree.
+     *
+     * @param dn The dn.
+     * @return The relative dn.
+     */
+    private String relativeDn(String dn)
+    {
+        if (dn.equals(rootDn))
+            return "";
+        if (dn.endsWith("," + rootDn))
+            return dn.substring(0, dn.length() - rootDn.length() - 1);
+        return dn;
+    }
+
+    /**
+     * This method computes the hash of the given object and its children, and stores all of them.
+     *
+     * @param obj The object.
+     * @param ldapRoot The dn of the LDAP root of the system.
+     * @param busy The objects that are being hashed, to guard against loops.
+     * @return The hash.
+     */
+    private String computeHash(LdapObject obj, String ldapRoot, IdentityHashMap<LdapObject, String> busy)
+    {
+        String key = relativeDn(obj.getDn());
+        String result = hashes.get(key);
+        if (result != null || busy.containsKey(obj))
+            return result;
+        busy.put(obj, key);
+
+        MessageDigest digest = HashUtil.newDigest();
+        HashUtil.update(digest, canonicalEntry(obj.getEntry(), ldapRoot));
+
+        // The same object can be part of several child lists (aliases), so only the set of children counts
+        TreeSet<String> children = new TreeSet<String>();
+        for (ChildList<?> clist : new Props<ChildList<?>>(obj, ChildList.class))
+        {
+            for (LdapObject child : clist)
+            {
+                String childHash = computeHash(child, ldapRoot, busy);
+                if (childHash != null)
+                    children.add(relativeDn(child.getDn()) + "=" + childHash);
+            }
+        }
+        for (String child : children)
+        {
+            HashUtil.update(digest, "\n");
+            HashUtil.update(digest, child);
+        }
+
+        result = HashUtil.toHex(digest.digest());
+        hashes.put(key, result);
+        return result;
+    }
+
+    /**
+     * This method converts the entry into a canonical string. The attributes and their values are sorted, and the dn's of the
+     * subtree root and the LDAP root are replaced by placeholders.
+     *
+     * @param entry The entry.
+     * @param ldapRoot The dn of the LDAP root of the system.
+     * @return The canonical string.
+     */
+    private String canonicalEntry(XmlNode entry, String ldapRoot)
+    {
+        if (entry == null)
+            return "";
+        ArrayList<String> lines = new ArrayList<String>();
+        for (XmlNode attr : entry.getChildren())
+        {
+            String name = attr.getName();
+            lines.add(name);
+            for (XmlNode value : attr.getChildren())
+            {
+                String text = "string".equals(value.getName()) ? value.getText() : value.compact();
+                text = text.replace(rootDn, "${root}").replace(ldapRoot, "${ldap}");
+                lines.add(name + "=" + text);
+            }
+        }
+        Collections.sort(lines);
+        StringBuilder result = new StringBuilder();
+        for (String line : lines)
+            result.append(line).append('\n');
+        return result.toString();
+    }
+
+    /**
+     * This method returns the hashes as a map, keyed by the dn relative to the root.
+     *
+     * @return A copy of the hashes.
+     */
+    public Map<String, String> toMap()
+    {
+        return new HashMap<String, String>(hashes);
+    }
+}
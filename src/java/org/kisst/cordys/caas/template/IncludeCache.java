@@ -0,0 +1,231 @@
+package org.kisst.cordys.caas.template;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.util.FileUtil;
+
+/**
+ * This class caches the files and folders that are included by templates. It keeps the content of the included files, the listing
+ * of the included folders and the content of the included files with their own includes expanded. Rendering a template again, or
+ * rendering another template with the same includes, then only checks the modification times instead of reading the files.
+ * <p>
+ * A file is read again when its modification time or size changed. A folder is listed again when its modification time changed,
+ * which happens when a file is added to or removed from it. An expanded file is expanded again when one of the files or folders it
+ * includes changed.
+ * </p>
+ * <p>
+ * The number of cached files of each kind is set with the property caas.template.include.cache.size (default 256). The least
+ * recently used file is removed first.
+ * </p>
+ */
+class IncludeCache
+{
+    /**
+     * Holds a cached value with the state of the file or folder it was read from.
+     *
+     * @param <T> The type of the value.
+     */
+    private static class CachedInclude<T>
+    {
+        /** Holds the value. */
+        private final T value;
+        /** Holds the modification time of the file or folder. */
+        private final long lastModified;
+        /** Holds the size of the file. */
+        private final long length;
+        /** Holds the files and folders the value depends on with their modification time, or null. */
+        private final Map<File, Long> dependencies;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param value The value.
+         * @param file The file or folder the value was read from.
+         * @param lastModified The modification time of the file or folder before it was read.
+         * @param dependencies The files and folders the value depends on with their modification time, or null.
+         */
+        private CachedInclude(T value, File file, long lastModified, Map<File, Long> dependencies)
+        {
+            this.value = value;
+            this.lastModified = lastModified;
+            this.length = file.length();
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * This method returns whether the file or folder, and the files and folders the value depends on, did not change.
+         *
+         * @param file The file or folder the value was read from.
+         * @return true if the entry can still be used.
+         */
+        private boolean isValid(File file)
+        {
+            if (file.lastModified() != lastModified || file.length() != length)
+            {
+                return false;
+            }
+            if (dependencies != null)
+            {
+                for (Map.Entry<File, Long> e : dependencies.entrySet())
+                {
+                    if (e.getKey().lastModified() != e.getValue().longValue())
+                    {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Holds the maximum number of cached files of each kind. */
+    private final int maxSize = Integer.parseInt(Environment.get().getProp("caas.template.include.cache.size", "256"));
+    /** Holds the content of the included files, by path. */
+    private final Map<String, CachedInclude<String>> contents = createMap();
+    /** Holds the names of the files in the included folders, by path and pattern. */
+    private final Map<String, CachedInclude<String[]>> listings = createMap();
+    /** Holds the content of the included files with their includes expanded, by path and template folder. */
+    private final Map<String, CachedInclude<String>> expansions = createMap();
+
+    /**
+     * This method reads the content of a file.
+     *
+     * @param file The file.
+     * @return The content.
+     */
+    public String read(File file)
+    {
+        String key = file.getAbsolutePath();
+        CachedInclude<String> entry = get(contents, key, file);
+        if (entry == null)
+        {
+            long lastModified = file.lastModified();
+            entry = new CachedInclude<String>(FileUtil.loadString(file), file, lastModified, null);
+            put(contents, key, entry);
+        }
+        return entry.value;
+    }
+
+    /**
+     * This method lists the files in a folder whose name matches the given pattern.
+     *
+     * @param folder The folder.
+     * @param pattern The regular expression the names must match.
+     * @return The names of the files.
+     */
+    public String[] list(File folder, final String pattern)
+    {
+        String key = folder.getAbsolutePath() + "|" + pattern;
+        CachedInclude<String[]> entry = get(listings, key, folder);
+        if (entry == null)
+        {
+            long lastModified = folder.lastModified();
+            String[] files = folder.list(new FilenameFilter() {
+                @Override
+                public boolean accept(File dir, String name)
+                {
+                    return name.matches(pattern);
+                }
+            });
+            entry = new CachedInclude<String[]>(files == null ? new String[0] : files, folder, lastModified, null);
+            put(listings, key, entry);
+        }
+        return entry.value.clone();
+    }
+
+    /**
+     * This method reads the content of a file and expands the includes in it. The file and the files and folders it includes are
+     * added to the given map with their modification time.
+     *
+     * @param renderer The renderer that processes the includes.
+     * @param file The file.
+     * @param templateFolder The folder to which the includes in the file are relative.
+     * @param dependencies The map to which the included files and folders are added.
+     * @return The content with the includes expanded.
+     */
+    public String expand(Renderer renderer, File file, File templateFolder, Map<File, Long> dependencies)
+    {
+        String key = file.getAbsolutePath() + "|" + (templateFolder == null ? "" : templateFolder.getAbsolutePath());
+        CachedInclude<String> entry = get(expansions, key, file);
+        if (entry == null)
+        {
+            // Expanding is done outside the lock, at worst two threads expand the same file
+            long lastModified = file.lastModified();
+            LinkedHashMap<File, Long> own = new LinkedHashMap<File, Long>();
+            String expanded = renderer.processIncludeFiles(read(file), templateFolder, own);
+            entry = new CachedInclude<String>(expanded, file, lastModified, own);
+            put(expansions, key, entry);
+        }
+        dependencies.put(file, entry.lastModified);
+        dependencies.putAll(entry.dependencies);
+        return entry.value;
+    }
+
+    /**
+     * This method removes all cached files and folders.
+     */
+    public void clear()
+    {
+        synchronized (this)
+        {
+            contents.clear();
+            listings.clear();
+            expansions.clear();
+        }
+    }
+
+    /**
+     * This method gets a cached entry if it is still valid.
+     *
+     * @param map The cache.
+     * @param key The key.
+     * @param file The file or folder of the entry.
+     * @return The entry, or null if it is not cached or no longer valid.
+     */
+    private <T> CachedInclude<T> get(Map<String, CachedInclude<T>> map, String key, File file)
+    {
+        CachedInclude<T> entry;
+        synchronized (this)
+        {
+            entry = map.get(key);
+        }
+        return entry != null && entry.isValid(file) ? entry : null;
+    }
+
+    /**
+     * This method adds an entry to a cache.
+     *
+     * @param map The cache.
+     * @param key The key.
+     * @param entry The entry.
+     */
+    private <T> void put(Map<String, CachedInclude<T>> map, String key, CachedInclude<T> entry)
+    {
+        synchronized (this)
+        {
+            map.put(key, entry);
+        }
+    }
+
+    /**
+     * This method creates a cache that removes the least recently used entry when it is full.
+     *
+     * @return The cache.
+     */
+    private <T> Map<String, CachedInclude<T>> createMap()
+    {
+        return new LinkedHashMap<String, CachedInclude<T>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedInclude<T>> eldest)
+            {
+                return size() > maxSize;
+            }
+        };
+    }
+}
@@ -0,0 +1,282 @@
+package org.kisst.cordys.caas.template;
+
+import static org.kisst.cordys.caas.main.Environment.error;
+import static org.kisst.cordys.caas.main.Environment.info;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import org.kisst.cordys.caas.Organization;
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.support.LoadedPropertyMap;
+
+/**
+ * This class applies one template to many organizations. The organizations are applied at the same time, each with its own
+ * variables. The template is compiled once (see {@link RenderCache}), so for every organization only the variables are substituted.
+ * A failing organization does not stop the others, its error is kept in the report.
+ * <p>
+ * The number of organizations that are applied at the same time is set with the property caas.apply.orgs.threads (default 4).
+ * Within an organization the items are applied as configured with caas.apply.threads. The organizations share a limit on the
+ * total number of items that run at the same time, set with caas.apply.total.threads (default the value of caas.apply.threads,
+ * so 8). The load on the server therefore does not grow with the number of organizations.
+ * </p>
+ */
+public class OrganizationApplier
+{
+    /**
+     * Holds the outcome of a single organization.
+     */
+    public static class Result
+    {
+        /** Holds the organization. */
+        private final Organization organization;
+        /** Holds the variables of the organization. */
+        private final LoadedPropertyMap vars;
+        /** Holds the plan with the changes. */
+        private TemplatePlan plan;
+        /** Holds the duration. */
+        private long duration;
+        /** Holds the error, or null if the organization succeeded. */
+        private Throwable error;
+
+        /**
+         * Instantiates a new result.
+         *
+         * @param organization The organization.
+         * @param vars The variables of the organization.
+         */
+        private Result(Organization organization, LoadedPropertyMap vars)
+        {
+            this.organization = organization;
+            this.vars = vars;
+        }
+
+        /**
+         * This method gets the organization.
+         *
+         * @return The organization.
+         */
+        public Organization getOrganization()
+        {
+            return organization;
+        }
+
+        /**
+         * This method gets the plan with the changes that were made, or would be made in a dry run.
+         *
+         * @return The plan.
+         */
+        public TemplatePlan getPlan()
+        {
+            return plan;
+        }
+
+        /**
+         * This method gets the duration.
+         *
+         * @return The duration in milliseconds.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * This method gets the error.
+         *
+         * @return The error, or null if the organization succeeded.
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%-30s %7.1fs %6d changes %s", organization.getName(), duration / 1000.0,
+                    plan == null ? 0 : plan.getModifications().size(), error == null ? "OK" : "FAILED " + error.getMessage());
+        }
+    }
+
+    /** Holds the template to apply. */
+    private final Template template;
+    /** Holds the results, one per organization, in the order in which they were added. */
+    private final List<Result> results = new ArrayList<Result>();
+    /** Holds the number of organizations that are applied at the same time. */
+    private int threads = Integer.parseInt(Environment.get().getProp("caas.apply.orgs.threads", "4"));
+    /** Holds whether nothing should be written. */
+    private boolean dryRun;
+    /** Holds the permits shared by all organizations, one per item that may run at the same time. */
+    private final Semaphore items;
+
+    /**
+     * Instantiates a new organization applier.
+     *
+     * @param template The template to apply.
+     */
+    public OrganizationApplier(Template template)
+    {
+        this.template = template;
+        Environment env = Environment.get();
+        int total = Integer.parseInt(env.getProp("caas.apply.total.threads", env.getProp("caas.apply.threads", "8")));
+        this.items = new Semaphore(Math.max(1, total));
+    }
+
+    /**
+     * This method adds an organization.
+     *
+     * @param organization The organization.
+     * @param vars The variables of the organization.
+     * @return This object.
+     */
+    public OrganizationApplier add(Organization organization, LoadedPropertyMap vars)
+    {
+        results.add(new Result(organization, vars));
+        return this;
+    }
+
+    /**
+     * This method sets the number of organizations that are applied at the same time.
+     *
+     * @param threads The number of organizations.
+     * @return This object.
+     */
+    public OrganizationApplier setThreads(int threads)
+    {
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * This method sets whether nothing should be written, in which case only the changes are planned.
+     *
+     * @param dryRun Whether nothing should be written.
+     * @return This object.
+     */
+    public OrganizationApplier setDryRun(boolean dryRun)
+    {
+        this.dryRun = dryRun;
+        return this;
+    }
+
+    /**
+     * This method applies the template to all organizations and waits until they are finished.
+     *
+     * @return This object, which prints as a report.
+     */
+    public OrganizationApplier run()
+    {
+        long start = System.currentTimeMillis();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, results.size())));
+        try
+        {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (final Result result : results)
+            {
+                futures.add(pool.submit(new Runnable() {
+                    public void run()
+                    {
+                        apply(result);
+                    }
+                }));
+            }
+            for (Future<?> future : futures)
+            {
+                future.get();
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        catch (ExecutionException e)
+        {
+            throw new CaasRuntimeException(e.getCause());
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+
+        info("Template " + (dryRun ? "planned for " : "applied to ") + results.size() + " organizations in "
+                + (System.currentTimeMillis() - start) / 1000.0 + "s:\n" + this);
+        return this;
+    }
+
+    /**
+     * This method applies the template to a single organization.
+     *
+     * @param result The result of the organization.
+     */
+    private void apply(Result result)
+    {
+        long start = System.currentTimeMillis();
+        result.plan = new TemplatePlan(dryRun);
+        try
+        {
+            template.apply(result.organization, result.vars, false, result.plan, items);
+        }
+        catch (RuntimeException e)
+        {
+            result.error = e;
+            error("Applying the template to " + result.organization.getName() + " failed", e);
+        }
+        finally
+        {
+            result.duration = System.currentTimeMillis() - start;
+        }
+    }
+
+    /**
+     * This method gets the results, one per organization.
+     *
+     * @return The results.
+     */
+    public List<Result> getResults()
+    {
+        return new ArrayList<Result>(results);
+    }
+
+    /**
+     * This method returns whether all organizations succeeded.
+     *
+     * @return true if all organizations succeeded.
+     */
+    public boolean isSuccess()
+    {
+        for (Result r : results)
+        {
+            if (r.error != null)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        int failed = 0;
+        for (Result r : results)
+        {
+            result.append(r).append("\n");
+            if (r.error != null)
+                failed++;
+        }
+        result.append(String.format("%d organizations: %d failed", results.size(), failed));
+        return result.toString();
+    }
+}
@@ -0,0 +1,143 @@
+package org.kisst.cordys.caas.template;
+
+import static org.kisst.cordys.caas.main.Environment.debug;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.util.HashUtil;
+
+/**
+ * This class caches templates after their includes are processed and they are compiled by a renderer. The cache is keyed by the
+ * hash of the template content and the template folder, so applying the same template to many organizations only parses it once.
+ * <p>
+ * The files that were included are remembered with their modification time. When one of them changes, or a file is added to or
+ * removed from an included folder, the template is processed again.
+ * </p>
+ * <p>
+ * The number of cached templates is set with the property caas.template.cache.size (default 32). The least recently used template
+ * is removed first.
+ * </p>
+ *
+ * @param <T> The type of the compiled template.
+ */
+class RenderCache<T>
+{
+    /**
+     * Compiles a template after its includes are processed.
+     *
+     * @param <T> The type of the compiled template.
+     */
+    interface Compiler<T>
+    {
+        /**
+         * This method compiles the template.
+         *
+         * @param template The template with the includes processed.
+         * @return The compiled template.
+         */
+        T compile(String template);
+    }
+
+    /**
+     * Holds a cached template.
+     */
+    private static class CachedTemplate<T>
+    {
+        /** Holds the compiled template. */
+        private final T compiled;
+        /** Holds the included files and folders with their modification time. */
+        private final Map<File, Long> dependencies;
+
+        /**
+         * Instantiates a new entry.
+         *
+         * @param compiled The compiled template.
+         * @param dependencies The included files and folders with their modification time.
+         */
+        private CachedTemplate(T compiled, Map<File, Long> dependencies)
+        {
+            this.compiled = compiled;
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * This method returns whether none of the included files and folders changed.
+         *
+         * @return true if the entry can still be used.
+         */
+        private boolean isValid()
+        {
+            for (Map.Entry<File, Long> e : dependencies.entrySet())
+            {
+                if (e.getKey().lastModified() != e.getValue().longValue())
+                {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /** Holds the cached templates, in least recently used order. */
+    private final LinkedHashMap<String, CachedTemplate<T>> entries = new LinkedHashMap<String, CachedTemplate<T>>(16, 0.75f,
+            true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedTemplate<T>> eldest)
+        {
+            return size() > maxSize;
+        }
+    };
+    /** Holds the maximum number of cached templates. */
+    private final int maxSize = Integer.parseInt(Environment.get().getProp("caas.template.cache.size", "32"));
+
+    /**
+     * This method gets the compiled template. If it is not cached, or one of its includes changed, the includes are processed and
+     * the template is compiled.
+     *
+     * @param renderer The renderer that processes the includes.
+     * @param template The template.
+     * @param templateFolder The folder in which the includes of the template reside.
+     * @param compiler The compiler for the template.
+     * @return The compiled template.
+     */
+    public T get(Renderer renderer, String template, File templateFolder, Compiler<T> compiler)
+    {
+        String key = HashUtil.sha256(template) + "|" + (templateFolder == null ? "" : templateFolder.getAbsolutePath());
+        synchronized (entries)
+        {
+            CachedTemplate<T> entry = entries.get(key);
+            if (entry != null && entry.isValid())
+            {
+                return entry.compiled;
+            }
+        }
+
+        // Compiling is done outside the lock, at worst two threads compile the same template
+        LinkedHashMap<File, Long> dependencies = new LinkedHashMap<File, Long>();
+        String included = renderer.processIncludeFiles(template, templateFolder, dependencies);
+        T compiled = compiler.compile(included);
+        debug("Compiled template with " + dependencies.size() + " included files and folders");
+
+        synchronized (entries)
+        {
+            entries.put(key, new CachedTemplate<T>(compiled, dependencies));
+        }
+        return compiled;
+    }
+
+    /**
+     * This method removes all cached templates.
+     */
+    public void clear()
+    {
+        synchronized (entries)
+        {
+            entries.clear();
+        }
+    }
+}
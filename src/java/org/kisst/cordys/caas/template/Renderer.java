@@ -4,7 +4,7 @@ import static org.kisst.cordys.caas.main.Environment.debug;
 import static org.kisst.cordys.caas.main.Environment.warn;
 
 import java.io.File;
-import java.io.FilenameFilter;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -20,6 +20,15 @@ import org.kisst.cordys.caas.util.FileUtil;
  */
 public abstract class Renderer
 {
+    /** Holds the pattern of an include. */
+    private static final Pattern INCLUDE = Pattern.compile("\\$\\{include\\:(.+?)\\}");
+    /** Holds the pattern of a file include. */
+    private static final Pattern INCLUDE_FILE = Pattern.compile("file=(.+)");
+    /** Holds the pattern of a folder include. */
+    private static final Pattern INCLUDE_FOLDER = Pattern.compile("folder=([^;]+)(;pattern=(.+)){0,1}");
+    /** Holds the cache of the included files and folders, which is shared by all renderers. */
+    private static final IncludeCache INCLUDES = new IncludeCache();
+
     public abstract String render(Map<String, String> vars, String template, File templateFolder);
 
     /**
@@ -38,13 +47,25 @@ public abstract class Renderer
      */
     protected String processIncludeFiles(String template, File templateFolder)
     {
-        String retVal = template;
+        return processIncludeFiles(template, templateFolder, new LinkedHashMap<File, Long>());
+    }
 
-        Pattern pInclude = Pattern.compile("\\$\\{include\\:(.+?)\\}");
-        Pattern pFile = Pattern.compile("file=(.+)");
-        Pattern pFolder = Pattern.compile("folder=([^;]+)(;pattern=(.+)){0,1}");
+    /**
+     * This method will process the includes for the template files, like {@link #processIncludeFiles(String, File)}. The files and
+     * folders that are included are added to the given map with their modification time, so that a cached result can be checked.
+     * The included files and folders are read through the {@link IncludeCache}.
+     * 
+     * @param template The template XML to process.
+     * @param templateFolder The folder in which the template resides (and in which
+     *                       possible includes files/folders reside)
+     * @param dependencies The map to which the included files and folders are added.
+     * @return The included template XML.
+     */
+    protected String processIncludeFiles(String template, File templateFolder, Map<File, Long> dependencies)
+    {
+        String retVal = template;
 
-        Matcher m = pInclude.matcher(template);
+        Matcher m = INCLUDE.matcher(template);
         if (m.find())
         {
             StringBuffer sb = new StringBuffer(template.length());
@@ -54,8 +75,8 @@ public abstract class Renderer
                 // Parse the include. File or folder. Read the content and append it to the buffer.
                 StringBuilder replacement = new StringBuilder(1024);
 
-                Matcher mFile = pFile.matcher(m.group(1));
-                Matcher mFolder = pFolder.matcher(m.group(1));
+                Matcher mFile = INCLUDE_FILE.matcher(m.group(1));
+                Matcher mFolder = INCLUDE_FOLDER.matcher(m.group(1));
 
                 if (mFile.matches())
                 {
@@ -77,8 +98,8 @@ public abstract class Renderer
                         throw new CaasRuntimeException("File " + source + " does not exist");
                     }
 
-                    // Read the file content
-                    replacement.append(processIncludeFiles(FileUtil.loadString(source), templateFolder));
+                    // Read the file content, with its own includes expanded
+                    replacement.append(INCLUDES.expand(this, source, templateFolder, dependencies));
                 }
                 else if (mFolder.matches())
                 {
@@ -111,21 +132,17 @@ public abstract class Renderer
                         throw new CaasRuntimeException("Folder " + source + " is not a folder");
                     }
 
-                    final String actualPattern = "^.*" + pattern + "$";
-                    String[] files = source.list(new FilenameFilter() {
+                    // Adding or removing a file changes the modification time of the folder
+                    dependencies.put(source, source.lastModified());
 
-                        @Override
-                        public boolean accept(File dir, String name)
-                        {
-                            return name.matches(actualPattern);
-                        }
-                    });
+                    String[] files = INCLUDES.list(source, "^.*" + pattern + "$");
 
                     for (String file : files)
                     {
                         debug("Loading file " + new File(source, file).getAbsolutePath());
 
-                        replacement.append(processIncludeFiles(FileUtil.loadString(new File(source, file)), templateFolder));
+                        File included = new File(source, file);
+                        replacement.append(INCLUDES.expand(this, included, templateFolder, dependencies));
                     }
                 }
 
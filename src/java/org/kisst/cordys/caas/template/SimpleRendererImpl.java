@@ -1,31 +1,37 @@
 package org.kisst.cordys.caas.template;
 
-import static org.kisst.cordys.caas.main.Environment.debug;
-
 import java.io.File;
+import java.util.HashMap;
 import java.util.Map;
 
-import org.kisst.cordys.caas.util.StringUtil;
+import org.kisst.cordys.caas.util.SubstitutionTemplate;
 
 /**
- * Simple template renderer that will perform variable substitution and including of other template files.
+ * Simple template renderer that will perform variable substitution and including of other template files. The template is compiled
+ * once and cached, so rendering it again with other variables only substitutes them.
  *
  */
 public class SimpleRendererImpl extends Renderer
 {
-    
+    /** Holds the compiled templates. */
+    private static final RenderCache<SubstitutionTemplate> CACHE = new RenderCache<SubstitutionTemplate>();
+    /** Holds the compiler for the templates. */
+    private static final RenderCache.Compiler<SubstitutionTemplate> COMPILER = new RenderCache.Compiler<SubstitutionTemplate>() {
+        public SubstitutionTemplate compile(String template)
+        {
+            return new SubstitutionTemplate(template);
+        }
+    };
+
     @Override
     public String render(Map<String, String> vars, String template, File templateFolder)
     {
         // First we need to include the files that are to be included using the CAAS-specific
-        // ${include:file=} or ${include:folder=;pattern=*.xml}
-        template = processIncludeFiles(template, templateFolder);
-        
+        // ${include:file=} or ${include:folder=;pattern=*.xml}. The result is compiled and cached.
+        SubstitutionTemplate compiled = CACHE.get(this, template, templateFolder, COMPILER);
+
         // Now substitute the parameters.
-        if (vars != null)
-        {
-            template = StringUtil.substitute(template, vars);
-        }
+        template = compiled.render(vars == null ? new HashMap<String, String>() : vars);
 
         // Escape the $ sign.
         return template.replace("${dollar}", "$");
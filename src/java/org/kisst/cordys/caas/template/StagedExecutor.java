@@ -0,0 +1,333 @@
+package org.kisst.cordys.caas.template;
+
+import static org.kisst.cordys.caas.main.Environment.error;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.main.Environment;
+
+/**
+ * This class runs the items of a template in stages. The items of a stage are independent of each other and run at the same time,
+ * but a stage only starts when all items of the previous stage are finished. This keeps the order between for example the roles
+ * and the users that get those roles, while 16 users can be created at the same time.
+ * <p>
+ * Items are submitted while the template is read, so at most the number of running items is held in memory. A failing item does
+ * not stop the other items, its error is kept in the report.
+ * </p>
+ * <p>
+ * The number of items that run at the same time is set with the property caas.apply.threads (default 8), and can be set per stage
+ * with caas.apply.threads.&lt;stage&gt;, e.g. caas.apply.threads.user. Executors that apply to several organizations at the same
+ * time can share a limit on the total number of running items, see {@link #StagedExecutor(Semaphore)}.
+ * </p>
+ */
+public class StagedExecutor
+{
+    /**
+     * Holds the outcome of a single item.
+     */
+    public static class Result
+    {
+        /** Holds the stage of the item. */
+        private final String stage;
+        /** Holds the name of the item. */
+        private final String item;
+        /** Holds the duration. */
+        private long duration;
+        /** Holds the error, or null if the item succeeded. */
+        private Throwable error;
+
+        /**
+         * Instantiates a new result.
+         *
+         * @param stage The stage.
+         * @param item The name of the item.
+         */
+        private Result(String stage, String item)
+        {
+            this.stage = stage;
+            this.item = item;
+        }
+
+        /**
+         * This method gets the stage of the item.
+         *
+         * @return The stage.
+         */
+        public String getStage()
+        {
+            return stage;
+        }
+
+        /**
+         * This method gets the name of the item.
+         *
+         * @return The name.
+         */
+        public String getItem()
+        {
+            return item;
+        }
+
+        /**
+         * This method gets the duration.
+         *
+         * @return The duration in milliseconds.
+         */
+        public long getDuration()
+        {
+            return duration;
+        }
+
+        /**
+         * This method gets the error.
+         *
+         * @return The error, or null if the item succeeded.
+         */
+        public Throwable getError()
+        {
+            return error;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%-15s %-50s %7.1fs %s", stage, item, duration / 1000.0, error == null ? "OK" : "FAILED "
+                    + error.getMessage());
+        }
+    }
+
+    /** Holds the results, in the order in which the items were submitted. */
+    private final List<Result> results = Collections.synchronizedList(new ArrayList<Result>());
+    /** Holds the duration of each stage. */
+    private final LinkedHashMap<String, Long> stageDurations = new LinkedHashMap<String, Long>();
+    /** Holds the current stage, or null if no stage is running. */
+    private String stage;
+    /** Holds the time the current stage started. */
+    private long stageStart;
+    /** Holds the pool of the current stage. */
+    private ExecutorService pool;
+    /** Holds the permits of the current stage, one per item that may run at the same time. */
+    private Semaphore permits;
+    /** Holds the number of permits of the current stage. */
+    private int threads;
+    /** Holds the time the executor was created. */
+    private final long start = System.currentTimeMillis();
+    /** Holds the permits that are shared with other executors, or null. */
+    private final Semaphore shared;
+
+    /**
+     * Instantiates a new staged executor.
+     */
+    public StagedExecutor()
+    {
+        this(null);
+    }
+
+    /**
+     * Instantiates a new staged executor that shares a limit with other executors. An item only runs when it gets a permit of
+     * its stage and a shared permit.
+     *
+     * @param shared The permits shared by all executors, one per item that may run at the same time, or null.
+     */
+    public StagedExecutor(Semaphore shared)
+    {
+        this.shared = shared;
+    }
+
+    /**
+     * This method submits an item. When the item belongs to another stage than the previous item, the previous stage is finished
+     * first. When the maximum number of items of the stage is running, this method waits until one of them is finished.
+     *
+     * @param stageName The name of the stage.
+     * @param item The name of the item, used in the report.
+     * @param task The task that applies the item.
+     */
+    public void submit(String stageName, String item, final Runnable task)
+    {
+        if (!stageName.equals(stage))
+        {
+            finishStage();
+            startStage(stageName);
+        }
+
+        final Result result = new Result(stageName, item);
+        results.add(result);
+        acquire(permits, 1);
+        if (shared != null)
+            acquire(shared, 1);
+        pool.execute(new Runnable() {
+            public void run()
+            {
+                long itemStart = System.currentTimeMillis();
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    result.error = e;
+                    error("Applying " + result.stage + " " + result.item + " failed", e);
+                }
+                finally
+                {
+                    result.duration = System.currentTimeMillis() - itemStart;
+                    if (shared != null)
+                        shared.release();
+                    permits.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * This method waits until all items are finished.
+     *
+     * @return This object, which prints as a report.
+     */
+    public StagedExecutor finish()
+    {
+        finishStage();
+        return this;
+    }
+
+    /**
+     * This method starts a stage.
+     *
+     * @param stageName The name of the stage.
+     */
+    private void startStage(String stageName)
+    {
+        Environment env = Environment.get();
+        threads = Integer.parseInt(env.getProp("caas.apply.threads." + stageName, env.getProp("caas.apply.threads", "8")));
+        if (threads < 1)
+            threads = 1;
+        stage = stageName;
+        stageStart = System.currentTimeMillis();
+        permits = new Semaphore(threads);
+        pool = Executors.newFixedThreadPool(threads);
+    }
+
+    /**
+     * This method waits until all items of the current stage are finished.
+     */
+    private void finishStage()
+    {
+        if (stage == null)
+            return;
+        try
+        {
+            acquire(permits, threads);
+        }
+        finally
+        {
+            pool.shutdown();
+            Long previous = stageDurations.get(stage);
+            stageDurations.put(stage, (previous == null ? 0 : previous) + System.currentTimeMillis() - stageStart);
+            stage = null;
+        }
+    }
+
+    /**
+     * This method acquires permits.
+     *
+     * @param semaphore The permits of the current stage, or the shared permits.
+     * @param count The number of permits.
+     */
+    private void acquire(Semaphore semaphore, int count)
+    {
+        try
+        {
+            semaphore.acquire(count);
+        }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method gets the results, in the order in which the items were submitted.
+     *
+     * @return The results.
+     */
+    public List<Result> getResults()
+    {
+        synchronized (results)
+        {
+            return new ArrayList<Result>(results);
+        }
+    }
+
+    /**
+     * This method gets the results of the failed items.
+     *
+     * @return The failures.
+     */
+    public List<Result> getFailures()
+    {
+        ArrayList<Result> failures = new ArrayList<Result>();
+        for (Result r : getResults())
+        {
+            if (r.error != null)
+                failures.add(r);
+        }
+        return failures;
+    }
+
+    /**
+     * This method returns whether all items succeeded.
+     *
+     * @return true if all items succeeded.
+     */
+    public boolean isSuccess()
+    {
+        return getFailures().isEmpty();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        List<Result> all = getResults();
+        LinkedHashMap<String, int[]> counts = new LinkedHashMap<String, int[]>();
+        for (Result r : all)
+        {
+            int[] c = counts.get(r.stage);
+            if (c == null)
+            {
+                c = new int[2];
+                counts.put(r.stage, c);
+            }
+            c[0]++;
+            if (r.error != null)
+                c[1]++;
+        }
+
+        StringBuilder result = new StringBuilder();
+        for (Map.Entry<String, int[]> e : counts.entrySet())
+        {
+            Long duration = stageDurations.get(e.getKey());
+            result.append(String.format("%-15s %6d items %6d failed %8.1fs%n", e.getKey(), e.getValue()[0], e.getValue()[1],
+                    (duration == null ? 0 : duration) / 1000.0));
+        }
+        List<Result> failures = getFailures();
+        for (Result r : failures)
+            result.append(r).append("\n");
+        result.append(String.format("%d items: %d failed, total %.1fs", all.size(), failures.size(),
+                (System.currentTimeMillis() - start) / 1000.0));
+        return result.toString();
+    }
+}
@@ -5,18 +5,31 @@ import static org.kisst.cordys.caas.main.Environment.error;
 import static org.kisst.cordys.caas.main.Environment.info;
 import static org.kisst.cordys.caas.main.Environment.warn;
 
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
 import java.io.StringReader;
 import java.io.StringWriter;
+import java.io.Writer;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
 
-import javax.xml.bind.JAXB;
-import javax.xml.bind.JAXBContext;
 import javax.xml.bind.JAXBElement;
 import javax.xml.bind.Marshaller;
 
@@ -48,7 +61,11 @@ import org.kisst.cordys.caas.WebServiceInterface;
 import org.kisst.cordys.caas.XMLStoreObject;
 import org.kisst.cordys.caas.exception.CaasRuntimeException;
 import org.kisst.cordys.caas.main.Environment;
+import org.kisst.cordys.caas.support.CordysObjectList;
+import org.kisst.cordys.caas.support.EntryObjectList;
+import org.kisst.cordys.caas.support.LdapObject;
 import org.kisst.cordys.caas.support.LoadedPropertyMap;
+import org.kisst.cordys.caas.template.strategy.BaseStrategy;
 import org.kisst.cordys.caas.template.strategy.ICustomStrategy;
 import org.kisst.cordys.caas.template.strategy.StrategyFactory;
 import org.kisst.cordys.caas.util.DOMUtil;
@@ -62,6 +79,10 @@ import org.kisst.cordys.caas.util.XmlNode;
  */
 public class Template
 {
+    /** Holds the renderer for the simple template engine. Renderers are stateless and cache the compiled templates. */
+    private static final Renderer SIMPLE_RENDERER = new SimpleRendererImpl();
+    /** Holds the renderer for the Velocity template engine. */
+    private static final Renderer VELOCITY_RENDERER = new VelocityRendererImpl();
     /** Holds the created template */
     private org.kisst.caas._2_0.template.Organization organizationTemplate;
     /** Holds whether or not the template is empty. */
@@ -74,6 +95,8 @@ public class Template
     private String templateXml;
     /** Holds the location where this template was loaded from. */
     private File m_templateFolder;
+    /** Holds the lock that is used while a DSO type is created. */
+    private final Object dsoTypeLock = new Object();
 
     /**
      * Instantiates a new template.
@@ -144,35 +167,127 @@ public class Template
 
         organizationTemplate.setOrg(org.getName());
 
-        // First we export all the non-Cordys packages.
-        if (options.contains(ETemplateOption.NON_CORDYS_PACKAGES))
-        {
-            long startTime = System.currentTimeMillis();
-            info("Exporting " + ETemplateOption.NON_CORDYS_PACKAGES.description() + "...");
-            CordysSystem system = org.getSystem();
-            for (Package p : system.packages)
+        // The template is held in memory as a whole, so the categories do not need to wait for each other
+        final org.kisst.caas._2_0.template.Organization result = organizationTemplate;
+        exportCategories(targetPackageName, Integer.MAX_VALUE, new ElementWriter() {
+            public void write(Object element)
             {
-                IDeployedPackageInfo pi = p.getInfo();
+                if (element instanceof org.kisst.caas._2_0.template.Package)
+                    result.getPackage().add((org.kisst.caas._2_0.template.Package) element);
+                else if (element instanceof DSO)
+                    result.getDso().add((DSO) element);
+                else if (element instanceof org.kisst.caas._2_0.template.XMLStoreObject)
+                    result.getXmlstoreobject().add((org.kisst.caas._2_0.template.XMLStoreObject) element);
+                else if (element instanceof org.kisst.caas._2_0.template.Role)
+                    result.getRole().add((org.kisst.caas._2_0.template.Role) element);
+                else if (element instanceof org.kisst.caas._2_0.template.User)
+                    result.getUser().add((org.kisst.caas._2_0.template.User) element);
+                else if (element instanceof org.kisst.caas._2_0.template.ServiceGroup)
+                    result.getServicegroup().add((org.kisst.caas._2_0.template.ServiceGroup) element);
+            }
+        });
 
-                if (pi != null && !"Cordys".equals(pi.getVendor()))
-                {
-                    debug("Found non-standard package: " + pi.getPackageName());
+        info("Finished exporting entire template in " + ((System.currentTimeMillis() - overallStartTime) / 1000)
+                + " seconds ... ");
+    }
+
+    /**
+     * Instantiates a template for streaming export of the given organization. Nothing is exported yet.
+     * 
+     * @param org Organization which template needs to be created
+     * @param templateOptions The template options
+     */
+    private Template(Organization org, List<ETemplateOption> templateOptions)
+    {
+        this.organization = org;
+        processTemplateOptions(templateOptions);
+    }
+
+    /**
+     * Exports the template of the given organization straight to the given file. Every item is written as soon as it is exported
+     * and its values are substituted by the variable names, so the template is never held in memory as a whole.
+     * 
+     * @param org Organization which template needs to be created
+     * @param targetPackageName The name of the target package.
+     * @param templateOptions The template options
+     * @param filename absolute path of the template file
+     * @param vars Map containing the properties
+     */
+    public static void export(Organization org, String targetPackageName, List<ETemplateOption> templateOptions,
+            String filename, LoadedPropertyMap vars)
+    {
+        Template template = new Template(org, templateOptions);
+        template.addDefaultVariables(org, vars);
 
-                    org.kisst.caas._2_0.template.Package templatePackage = new org.kisst.caas._2_0.template.Package();
-                    templatePackage.setName(pi.getPackageName());
-                    Version templateVersion = new Version();
-                    templateVersion.setVersion(pi.getFullVersion());
-                    templateVersion.setTested(Tested.OK);
+        long startTime = System.currentTimeMillis();
+        info("Exporting template for " + org.getName() + " organization to " + filename);
+
+        Writer out = null;
+        try
+        {
+            out = new BufferedWriter(new FileWriter(filename));
+            TemplateWriter writer = new TemplateWriter(out, org.getName(), vars);
+            template.export(targetPackageName, writer);
+            writer.close();
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            FileUtil.close(out);
+        }
 
-                    Warning w = new Warning();
-                    w.setMessage("Package " + pi.getPackageName() + " should be loaded");
-                    templateVersion.getWarning().add(w);
+        info("Template successfully exported to " + filename + " in " + ((System.currentTimeMillis() - startTime) / 1000)
+                + " seconds");
+    }
 
-                    templatePackage.getVersion().add(templateVersion);
-                }
+    /**
+     * Exports the categories of the organization and writes every item straight away. Every category keeps at most
+     * caas.export.buffer (default 256) items ahead of the writer, so only those are held in memory.
+     * 
+     * @param targetPackageName The name of the target package.
+     * @param out The writer for the template.
+     */
+    private void export(String targetPackageName, final TemplateWriter out)
+    {
+        int buffer = Integer.parseInt(Environment.get().getProp("caas.export.buffer", "256"));
+        exportCategories(targetPackageName, Math.max(1, buffer), new ElementWriter() {
+            public void write(Object element)
+            {
+                out.write(element);
             }
-            info("Finished exporting " + ETemplateOption.NON_CORDYS_PACKAGES.description() + " in "
-                    + ((System.currentTimeMillis() - startTime) / 1000) + " seconds ... ");
+        });
+    }
+
+    /**
+     * Exports the categories of the organization at the same time, since each of them is mostly waiting for the server. The items
+     * of all categories share a pool of caas.export.threads (default 4) threads. The exported items are handed to the writer by
+     * the calling thread, in the order of the schema and within a category in the order of the items, so the template is the
+     * same on every export.
+     * 
+     * @param targetPackageName The name of the target package.
+     * @param buffer The maximum number of exported items a category keeps ahead of the writer.
+     * @param out The writer that receives the exported items.
+     */
+    private void exportCategories(final String targetPackageName, int buffer, ElementWriter out)
+    {
+        final Organization source = organization;
+        int threads = Math.max(1, Integer.parseInt(Environment.get().getProp("caas.export.threads", "4")));
+        ExecutorService items = Executors.newFixedThreadPool(threads);
+        ArrayList<CategoryExport> categories = new ArrayList<CategoryExport>();
+
+        // First we export all the non-Cordys packages.
+        if (options.contains(ETemplateOption.NON_CORDYS_PACKAGES))
+        {
+            categories.add(new CategoryExport(ETemplateOption.NON_CORDYS_PACKAGES.description(), null, buffer, items, threads) {
+                protected void export() throws InterruptedException
+                {
+                    for (org.kisst.caas._2_0.template.Package templatePackage : exportPackages(source))
+                        add(templatePackage);
+                }
+            });
         }
         else
         {
@@ -182,27 +297,23 @@ public class Template
         // Export the DSOs in the given organization
         if (options.contains(ETemplateOption.DSO))
         {
-            long startTime = System.currentTimeMillis();
-            info("Exporting " + org.dsos.getSize() + " " + ETemplateOption.DSO.description() + "...");
-            for (DsoType dsotype : org.dsotypes)
-            {
-                for (Dso dso : dsotype.dsos)
+            categories.add(new CategoryExport(ETemplateOption.DSO.description(), source.dsos, buffer, items, threads) {
+                protected void export() throws InterruptedException
                 {
-                    DSO td = new DSO();
-                    td.setName(dso.getName());
-                    td.setDesc(dso.getProp("desc").toString());
-                    td.setType(DSOType.valueOf(dsotype.getName().toUpperCase()));
-
-                    DataSourceConfiguration dsc = new DataSourceConfiguration();
-                    XmlNode configNode = dso.config.getXml();
-                    dsc.setAny(DOMUtil.convert(configNode));
-                    td.setDatasourceconfiguration(dsc);
-
-                    organizationTemplate.getDso().add(td);
+                    List<Dso> list = new ArrayList<Dso>();
+                    for (DsoType dsotype : source.dsotypes)
+                    {
+                        for (Dso dso : dsotype.dsos)
+                            list.add(dso);
+                    }
+                    addAll(list, new ItemExporter<Dso, DSO>() {
+                        public DSO export(Dso dso)
+                        {
+                            return exportDso(dso);
+                        }
+                    });
                 }
-            }
-            info("Finished exporting " + ETemplateOption.DSO.description() + " in "
-                    + ((System.currentTimeMillis() - startTime) / 1000) + " seconds ... ");
+            });
         }
         else
         {
@@ -212,28 +323,27 @@ public class Template
         // Export XML Store objects
         if (options.contains(ETemplateOption.XML_STORE_OBJECTS))
         {
-            long startTime = System.currentTimeMillis();
-            info("Exporting " + org.xmlStoreObjects.getSize() + " " + ETemplateOption.XML_STORE_OBJECTS.description() + "...");
-            for (XMLStoreObject xso : org.xmlStoreObjects)
-            {
-                try
+            categories.add(new CategoryExport(ETemplateOption.XML_STORE_OBJECTS.description(), source.xmlStoreObjects, buffer,
+                    items, threads) {
+                protected void export()
                 {
-                    org.kisst.caas._2_0.template.XMLStoreObject txso = new org.kisst.caas._2_0.template.XMLStoreObject();
-
-                    txso.setKey(xso.getKey());
-                    txso.setVersion(XMLStoreVersion.valueOf(xso.getVersion().toUpperCase()));
-                    txso.setName(xso.getName());
-                    txso.setAny(DOMUtil.convert(xso.getXML()));
-
-                    organizationTemplate.getXmlstoreobject().add(txso);
-                }
-                catch (Exception e)
-                {
-                    error("Error exporting " + xso.getKey(), e);
+                    // The XML of the objects is read in bulk, see caas.xmlstore.threads
+                    source.xmlStoreObjects.fetch(new XMLStoreObject.Handler() {
+                        public void object(XMLStoreObject xso)
+                        {
+                            try
+                            {
+                                add(exportXMLStoreObject(xso));
+                            }
+                            catch (InterruptedException e)
+                            {
+                                Thread.currentThread().interrupt();
+                                throw new CaasRuntimeException(e);
+                            }
+                        }
+                    });
                 }
-            }
-            info("Finished exporting " + ETemplateOption.XML_STORE_OBJECTS.description() + " in "
-                    + ((System.currentTimeMillis() - startTime) / 1000) + " seconds ... ");
+            });
         }
         else
         {
@@ -243,13 +353,17 @@ public class Template
         // Exporting local roles
         if (options.contains(ETemplateOption.ROLES))
         {
-            long startTime = System.currentTimeMillis();
-            info("Exporting " + org.roles.getSize() + " " + ETemplateOption.ROLES.description() + "...");
-
-            exportRoles(org, targetPackageName, organizationTemplate);
-
-            info("Finished exporting " + ETemplateOption.ROLES.description() + " in "
-                    + ((System.currentTimeMillis() - startTime) / 1000) + " seconds ... ");
+            categories.add(new CategoryExport(ETemplateOption.ROLES.description(), source.roles, buffer, items, threads) {
+                protected void export() throws InterruptedException
+                {
+                    addAll(source.roles, new ItemExporter<Role, org.kisst.caas._2_0.template.Role>() {
+                        public org.kisst.caas._2_0.template.Role export(Role role)
+                        {
+                            return exportRole(source, targetPackageName, role);
+                        }
+                    });
+                }
+            });
         }
         else
         {
@@ -259,13 +373,17 @@ public class Template
         // Exporting users in the organization
         if (options.contains(ETemplateOption.USERS))
         {
-            long startTime = System.currentTimeMillis();
-            info("Exporting " + org.users.getSize() + " " + ETemplateOption.USERS.description() + "...");
-
-            exportUsers(org, targetPackageName, organizationTemplate);
-
-            info("Finished exporting " + ETemplateOption.USERS.description() + " in "
-                    + ((System.currentTimeMillis() - startTime) / 1000) + " seconds ... ");
+            categories.add(new CategoryExport(ETemplateOption.USERS.description(), source.users, buffer, items, threads) {
+                protected void export() throws InterruptedException
+                {
+                    addAll(source.users, new ItemExporter<User, org.kisst.caas._2_0.template.User>() {
+                        public org.kisst.caas._2_0.template.User export(User user)
+                        {
+                            return exportUser(source, targetPackageName, user);
+                        }
+                    });
+                }
+            });
         }
         else
         {
@@ -275,21 +393,47 @@ public class Template
         // Exporting service groups.
         if (options.contains(ETemplateOption.SERVICE_GROUPS))
         {
-            long startTime = System.currentTimeMillis();
-            info("Exporting " + org.serviceGroups.getSize() + " service groups ... ");
-
-            exportServiceGroups(org, targetPackageName, organizationTemplate);
-
-            info("Finished exporting " + ETemplateOption.SERVICE_GROUPS.description() + " in "
-                    + ((System.currentTimeMillis() - startTime) / 1000) + " seconds ... ");
+            categories.add(new CategoryExport(ETemplateOption.SERVICE_GROUPS.description(), source.serviceGroups, buffer,
+                    items, threads) {
+                protected void export() throws InterruptedException
+                {
+                    addAll(source.serviceGroups, new ItemExporter<ServiceGroup, org.kisst.caas._2_0.template.ServiceGroup>() {
+                        public org.kisst.caas._2_0.template.ServiceGroup export(ServiceGroup serviceGroup)
+                        {
+                            return exportServiceGroup(source, serviceGroup);
+                        }
+                    });
+                }
+            });
         }
         else
         {
             info("Skipping exporting " + ETemplateOption.SERVICE_GROUPS.description() + "...");
         }
 
-        info("Finished exporting entire template in " + ((System.currentTimeMillis() - overallStartTime) / 1000)
-                + " seconds ... ");
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, categories.size()));
+        try
+        {
+            ArrayList<Future<Object>> futures = new ArrayList<Future<Object>>();
+            for (CategoryExport category : categories)
+                futures.add(pool.submit(category));
+
+            for (int i = 0; i < categories.size(); i++)
+            {
+                categories.get(i).writeTo(out);
+                get(futures.get(i));
+            }
+        }
+        catch (InterruptedException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            // Stops the categories that are still running when the export failed
+            pool.shutdownNow();
+            items.shutdownNow();
+        }
     }
 
     /**
@@ -317,226 +461,472 @@ public class Template
     }
 
     /**
-     * Export roles.
+     * This method gets the template xml from the current object.
      * 
-     * @param org The org
-     * @param targetPackageName The target package name
-     * @param result The result
+     * @return The template xml
      */
-    private void exportRoles(Organization org, String targetPackageName,
-            org.kisst.caas._2_0.template.Organization templateOrganization)
+    private String getTemplateXml()
     {
-        for (Role role : org.roles)
+        String retVal = templateXml;
+
+        // If a parsed version of the template exists return that. If not, return the XML that was used while creating.
+        if (organizationTemplate != null)
         {
-            org.kisst.caas._2_0.template.Role tr = new org.kisst.caas._2_0.template.Role();
-            tr.setName(role.getName());
-            templateOrganization.getRole().add(tr);
+            StringWriter writer = new StringWriter();
 
-            if (role.type.get() != null)
+            try
             {
-                tr.setType(RoleType.valueOf(role.type.get().toUpperCase()));
+                Marshaller marshaller = TemplateBinding.createMarshaller();
+                JAXBElement<org.kisst.caas._2_0.template.Organization> tmp = new ObjectFactory().createOrg(organizationTemplate);
+                marshaller.marshal(tmp, writer);
             }
-
-            for (Role subRole : role.roles)
+            catch (Exception e)
             {
-                String packageName = null;
-                if (subRole.getParent() instanceof Organization)
-                {
-                    if (subRole.getName().equals("everyoneIn" + org.getName()))
-                        continue;
-                    packageName = targetPackageName;
-                }
-                else
-                {
-                    packageName = subRole.getParent().getName();
-                }
+                throw new CaasRuntimeException(e);
+            }
+
+            retVal = writer.toString();
+        }
 
-                org.kisst.caas._2_0.template.Role child = new org.kisst.caas._2_0.template.Role();
-                tr.getRole().add(child);
+        return retVal;
+    }
 
-                child.setName(subRole.getName());
-                if (subRole.type.get() != null)
-                {
-                    child.setType(RoleType.valueOf(subRole.type.get().toUpperCase()));
-                }
+    /**
+     * Exports a single item of a category.
+     * 
+     * @param <S> The type of the item in the organization.
+     * @param <T> The type of the item in the template.
+     */
+    private interface ItemExporter<S, T>
+    {
+        /**
+         * This method exports a single item.
+         * 
+         * @param item The item in the organization.
+         * @return The item in the template, or null if the item should not be part of the template.
+         */
+        T export(S item);
+    }
 
-                if (packageName != null)
+    /**
+     * Receives the exported items of a template.
+     */
+    private interface ElementWriter
+    {
+        /**
+         * This method writes a single item.
+         * 
+         * @param element The item: a DSO, XMLStoreObject, Role, User, ServiceGroup or Package.
+         */
+        void write(Object element);
+    }
+
+    /**
+     * Exports a single category of the template. The exported items are put in a bounded queue, from which they are written in
+     * the order of the items, so a category that is ahead of the writer waits instead of holding all of its items.
+     */
+    private abstract static class CategoryExport implements Callable<Object>
+    {
+        /** Holds the marker that is put in the queue when the category is finished. */
+        private static final Object END = new Object();
+
+        /** Holds the description of the category. */
+        private final String description;
+        /** Holds the list of the items of the category, or null if there is no such list. */
+        private final CordysObjectList<?> list;
+        /** Holds the exported items that are not written yet. */
+        private final BlockingQueue<Object> queue;
+        /** Holds the pool that exports the items, shared by all categories. */
+        private final ExecutorService items;
+        /** Holds the maximum number of items of the category that are exported at the same time. */
+        private final int threads;
+
+        /**
+         * Instantiates a new category export.
+         * 
+         * @param description The description of the category.
+         * @param list The list of the items of the category, or null if there is no such list.
+         * @param buffer The maximum number of exported items that are kept ahead of the writer.
+         * @param items The pool that exports the items, shared by all categories.
+         * @param threads The maximum number of items of the category that are exported at the same time.
+         */
+        CategoryExport(String description, CordysObjectList<?> list, int buffer, ExecutorService items, int threads)
+        {
+            this.description = description;
+            this.list = list;
+            this.queue = new LinkedBlockingQueue<Object>(buffer);
+            this.items = items;
+            this.threads = threads;
+        }
+
+        /**
+         * This method exports the items of the category with {@link #add(Object)} or {@link #addAll(Iterable, ItemExporter)}.
+         * 
+         * @throws InterruptedException In case the export was stopped.
+         */
+        protected abstract void export() throws InterruptedException;
+
+        /**
+         * @see java.util.concurrent.Callable#call()
+         */
+        public Object call() throws InterruptedException
+        {
+            long startTime = System.currentTimeMillis();
+            info("Exporting " + (list == null ? "" : list.getSize() + " ") + description + "...");
+            try
+            {
+                export();
+                info("Finished exporting " + description + " in " + ((System.currentTimeMillis() - startTime) / 1000)
+                        + " seconds ... ");
+            }
+            finally
+            {
+                queue.put(END);
+            }
+            return null;
+        }
+
+        /**
+         * This method adds an exported item.
+         * 
+         * @param element The item, or null if the item is not part of the template.
+         * @throws InterruptedException In case the export was stopped.
+         */
+        protected void add(Object element) throws InterruptedException
+        {
+            if (element != null)
+                queue.put(element);
+        }
+
+        /**
+         * This method exports the given items with the shared pool and adds them in the order of the items. At most twice the
+         * number of threads of items are exported ahead of the first one that is not added yet.
+         * 
+         * @param all The items to export.
+         * @param exporter The exporter of a single item.
+         * @throws InterruptedException In case the export was stopped.
+         */
+        protected <S, T> void addAll(Iterable<S> all, final ItemExporter<S, T> exporter) throws InterruptedException
+        {
+            LinkedList<Future<T>> running = new LinkedList<Future<T>>();
+            try
+            {
+                for (final S item : all)
                 {
-                    child.setPackage(packageName);
+                    running.add(items.submit(new Callable<T>() {
+                        public T call()
+                        {
+                            return exporter.export(item);
+                        }
+                    }));
+                    if (running.size() >= threads * 2)
+                        add(get(running.removeFirst()));
                 }
+                while (!running.isEmpty())
+                    add(get(running.removeFirst()));
+            }
+            finally
+            {
+                for (Future<T> f : running)
+                    f.cancel(true);
             }
         }
+
+        /**
+         * This method writes the exported items until the category is finished.
+         * 
+         * @param out The writer that receives the items.
+         * @throws InterruptedException In case the export was stopped.
+         */
+        void writeTo(ElementWriter out) throws InterruptedException
+        {
+            Object element;
+            while ((element = queue.take()) != END)
+                out.write(element);
+        }
     }
 
     /**
-     * This method gets the template xml from the current object.
+     * This method waits for the result of an export.
      * 
-     * @return The template xml
+     * @param future The future of the export.
+     * @return The result.
+     * @throws InterruptedException In case the export was stopped.
      */
-    private String getTemplateXml()
+    private static <T> T get(Future<T> future) throws InterruptedException
     {
-        String retVal = templateXml;
+        try
+        {
+            return future.get();
+        }
+        catch (ExecutionException e)
+        {
+            throw new CaasRuntimeException(e.getCause());
+        }
+    }
 
-        // If a parsed version of the template exists return that. If not, return the XML that was used while creating.
-        if (organizationTemplate != null)
+    /**
+     * Export the non-Cordys packages.
+     * 
+     * @param org The org
+     * @return The packages in the template
+     */
+    private List<org.kisst.caas._2_0.template.Package> exportPackages(Organization org)
+    {
+        List<org.kisst.caas._2_0.template.Package> result = new ArrayList<org.kisst.caas._2_0.template.Package>();
+        CordysSystem system = org.getSystem();
+        system.packages.prefetchInfo();
+        for (Package p : system.packages)
         {
-            StringWriter writer = new StringWriter();
+            IDeployedPackageInfo pi = p.getInfo();
 
-            try
-            {
-                JAXBContext jc = JAXBContext.newInstance(organizationTemplate.getClass());
-                Marshaller marshaller = jc.createMarshaller();
-                marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
-                JAXBElement<org.kisst.caas._2_0.template.Organization> tmp = new ObjectFactory().createOrg(organizationTemplate);
-                marshaller.marshal(tmp, writer);
-            }
-            catch (Exception e)
+            if (pi != null && !"Cordys".equals(pi.getVendor()))
             {
-                throw new CaasRuntimeException(e);
-            }
+                debug("Found non-standard package: " + pi.getPackageName());
 
-            retVal = writer.toString();
+                org.kisst.caas._2_0.template.Package templatePackage = new org.kisst.caas._2_0.template.Package();
+                templatePackage.setName(pi.getPackageName());
+                Version templateVersion = new Version();
+                templateVersion.setVersion(pi.getFullVersion());
+                templateVersion.setTested(Tested.OK);
+
+                Warning w = new Warning();
+                w.setMessage("Package " + pi.getPackageName() + " should be loaded");
+                templateVersion.getWarning().add(w);
+
+                templatePackage.getVersion().add(templateVersion);
+                result.add(templatePackage);
+            }
         }
+        return result;
+    }
 
-        return retVal;
+    /**
+     * Export a DSO.
+     * 
+     * @param dso The DSO
+     * @return The DSO in the template
+     */
+    private DSO exportDso(Dso dso)
+    {
+        DSO td = new DSO();
+        td.setName(dso.getName());
+        td.setDesc(dso.getProp("desc").toString());
+        td.setType(DSOType.valueOf(dso.getParent().getName().toUpperCase()));
+
+        DataSourceConfiguration dsc = new DataSourceConfiguration();
+        XmlNode configNode = dso.config.getXml();
+        dsc.setAny(DOMUtil.convert(configNode));
+        td.setDatasourceconfiguration(dsc);
+
+        return td;
+    }
+
+    /**
+     * Export an XMLStore object.
+     * 
+     * @param xso The XMLStore object
+     * @return The XMLStore object in the template, or null if it could not be exported
+     */
+    private org.kisst.caas._2_0.template.XMLStoreObject exportXMLStoreObject(XMLStoreObject xso)
+    {
+        try
+        {
+            org.kisst.caas._2_0.template.XMLStoreObject txso = new org.kisst.caas._2_0.template.XMLStoreObject();
+
+            txso.setKey(xso.getKey());
+            txso.setVersion(XMLStoreVersion.valueOf(xso.getVersion().toUpperCase()));
+            txso.setName(xso.getName());
+            txso.setAny(DOMUtil.convert(xso.getXML()));
+
+            return txso;
+        }
+        catch (Exception e)
+        {
+            error("Error exporting " + xso.getKey(), e);
+            return null;
+        }
     }
 
     /**
-     * Export service groups.
+     * Export a role.
      * 
      * @param org The org
      * @param targetPackageName The target package name
-     * @param result The result
+     * @param role The role
+     * @return The role in the template
      */
-    private void exportServiceGroups(Organization org, String targetPackageName,
-            org.kisst.caas._2_0.template.Organization templateOrganization)
+    private org.kisst.caas._2_0.template.Role exportRole(Organization org, String targetPackageName, Role role)
     {
-        for (ServiceGroup serviceGroup : org.serviceGroups)
+        org.kisst.caas._2_0.template.Role tr = new org.kisst.caas._2_0.template.Role();
+        tr.setName(role.getName());
+
+        if (role.type.get() != null)
         {
-            org.kisst.caas._2_0.template.ServiceGroup sg = new org.kisst.caas._2_0.template.ServiceGroup();
-            templateOrganization.getServicegroup().add(sg);
+            tr.setType(RoleType.valueOf(role.type.get().toUpperCase()));
+        }
 
-            ICustomStrategy strategy = StrategyFactory.create(sg, org, this);
+        for (Role subRole : role.roles)
+        {
+            String packageName = null;
+            if (subRole.getParent() instanceof Organization)
+            {
+                if (subRole.getName().equals("everyoneIn" + org.getName()))
+                    continue;
+                packageName = targetPackageName;
+            }
+            else
+            {
+                packageName = subRole.getParent().getName();
+            }
+
+            org.kisst.caas._2_0.template.Role child = new org.kisst.caas._2_0.template.Role();
+            tr.getRole().add(child);
+
+            child.setName(subRole.getName());
+            if (subRole.type.get() != null)
+            {
+                child.setType(RoleType.valueOf(subRole.type.get().toUpperCase()));
+            }
 
-            strategy.create(sg, serviceGroup);
+            if (packageName != null)
+            {
+                child.setPackage(packageName);
+            }
         }
+        return tr;
+    }
+
+    /**
+     * Export a service group.
+     * 
+     * @param org The org
+     * @param serviceGroup The service group
+     * @return The service group in the template
+     */
+    private org.kisst.caas._2_0.template.ServiceGroup exportServiceGroup(Organization org, ServiceGroup serviceGroup)
+    {
+        org.kisst.caas._2_0.template.ServiceGroup sg = new org.kisst.caas._2_0.template.ServiceGroup();
+
+        ICustomStrategy strategy = StrategyFactory.create(sg, org, this);
+
+        strategy.create(sg, serviceGroup);
+
+        return sg;
     }
 
     /**
-     * Export users.
+     * Export a user.
      * 
      * @param org The org
      * @param targetPackageName The target package name
-     * @param result The result
+     * @param user The user
+     * @return The user in the template, or null if the user should not be part of the template
      */
-    private void exportUsers(Organization org, String targetPackageName,
-            org.kisst.caas._2_0.template.Organization templateOrganization)
+    private org.kisst.caas._2_0.template.User exportUser(Organization org, String targetPackageName, User user)
     {
-        for (User user : org.users)
+        if ("SYSTEM".equals(user.getName().toUpperCase()))
+            return null; // SYSTEM user should not be part of the template
+
+        org.kisst.caas._2_0.template.User tu = new org.kisst.caas._2_0.template.User();
+
+        tu.setName(user.getName());
+        AuthenticatedUser authUser = user.au.getRef();
+        tu.setAu(authUser.getName());
+
+        if (authUser.authenticationtype != null && !StringUtil.isEmptyOrNull(authUser.authenticationtype.get()))
         {
-            if ("SYSTEM".equals(user.getName().toUpperCase()))
-                continue; // SYSTEM user should not be part of the template
+            tu.setType(authUser.authenticationtype.get());
+        }
 
-            org.kisst.caas._2_0.template.User tu = new org.kisst.caas._2_0.template.User();
-            templateOrganization.getUser().add(tu);
+        if (authUser.userPassword != null && !StringUtil.isEmptyOrNull(authUser.userPassword.get()))
+        {
+            tu.setPassword(authUser.userPassword.get());
+        }
 
-            tu.setName(user.getName());
-            AuthenticatedUser authUser = user.au.getRef();
-            tu.setAu(authUser.getName());
+        // For the osIdentity we only support the first one.
+        tu.setOsidentity(authUser.osidentity.getAt(0));
 
-            if (authUser.authenticationtype != null && !StringUtil.isEmptyOrNull(authUser.authenticationtype.get()))
+        for (Role role : user.roles)
+        {
+            String isvpName = null;
+            if (role.getParent() instanceof Organization)
             {
-                tu.setType(authUser.authenticationtype.get());
+                if (role.getName().equals("everyoneIn" + org.getName()))
+                    continue;
+                isvpName = targetPackageName;
             }
-
-            if (authUser.userPassword != null && !StringUtil.isEmptyOrNull(authUser.userPassword.get()))
+            else
             {
-                tu.setPassword(authUser.userPassword.get());
+                isvpName = role.getParent().getName();
             }
 
-            // For the osIdentity we only support the first one.
-            tu.setOsidentity(authUser.osidentity.getAt(0));
+            org.kisst.caas._2_0.template.Role child = new org.kisst.caas._2_0.template.Role();
+            tu.getRole().add(child);
 
-            for (Role role : user.roles)
+            child.setName(role.getName());
+            if (role.type.get() != null)
             {
-                String isvpName = null;
-                if (role.getParent() instanceof Organization)
-                {
-                    if (role.getName().equals("everyoneIn" + org.getName()))
-                        continue;
-                    isvpName = targetPackageName;
-                }
-                else
-                {
-                    isvpName = role.getParent().getName();
-                }
+                child.setType(RoleType.valueOf(role.type.get().toUpperCase()));
+            }
 
-                org.kisst.caas._2_0.template.Role child = new org.kisst.caas._2_0.template.Role();
-                tu.getRole().add(child);
+            if (isvpName != null)
+            {
+                child.setPackage(isvpName);
+            }
+        }
 
-                child.setName(role.getName());
-                if (role.type.get() != null)
-                {
-                    child.setType(RoleType.valueOf(role.type.get().toUpperCase()));
-                }
+        // Export the assignments. The difficulty is to figure out which role the user plays in the assignment.
+        for (Assignment<User> a : user.assignments)
+        {
+            org.kisst.caas._2_0.template.Assignment assignment = new org.kisst.caas._2_0.template.Assignment();
+            tu.getAssignment().add(assignment);
 
-                if (isvpName != null)
-                {
-                    child.setPackage(isvpName);
-                }
+            assignment.setTeam(a.team.getName());
+            if (a.effectiveDate.get() != null)
+            {
+                assignment.setEffectivedate(String.valueOf(a.effectiveDate.get().getTime()));
             }
 
-            // Export the assignments. The difficulty is to figure out which role the user plays in the assignment.
-            for (Assignment<User> a : user.assignments)
+            if (a.isPrincipal.get() == true)
             {
-                org.kisst.caas._2_0.template.Assignment assignment = new org.kisst.caas._2_0.template.Assignment();
-                tu.getAssignment().add(assignment);
+                assignment.setPrincipal(true);
+            }
 
-                assignment.setTeam(a.team.getName());
-                if (a.effectiveDate.get() != null)
+            if (a.isLead.get() == true)
+            {
+                assignment.setLead(true);
+            }
+
+            if (a.role != null)
+            {
+                String packageName = null;
+
+                if (a.role.getParent() instanceof Organization)
                 {
-                    assignment.setEffectivedate(String.valueOf(a.effectiveDate.get().getTime()));
+                    if (a.role.getName().equals("everyoneIn" + org.getName()))
+                    {
+                        continue;
+                    }
+                    packageName = targetPackageName;
                 }
-
-                if (a.isPrincipal.get() == true)
+                else
                 {
-                    assignment.setPrincipal(true);
+                    packageName = a.role.getParent().getName();
                 }
 
-                if (a.isLead.get() == true)
+                assignment.setRolename(a.role.getName());
+                if (a.role.type.get() != null)
                 {
-                    assignment.setLead(true);
+                    assignment.setRoletype(a.role.type.get());
                 }
-
-                if (a.role != null)
+                if (packageName != null)
                 {
-                    String packageName = null;
-
-                    if (a.role.getParent() instanceof Organization)
-                    {
-                        if (a.role.getName().equals("everyoneIn" + org.getName()))
-                        {
-                            continue;
-                        }
-                        packageName = targetPackageName;
-                    }
-                    else
-                    {
-                        packageName = a.role.getParent().getName();
-                    }
-
-                    assignment.setRolename(a.role.getName());
-                    if (a.role.type.get() != null)
-                    {
-                        assignment.setRoletype(a.role.type.get());
-                    }
-                    if (packageName != null)
-                    {
-                        assignment.setRolepackage(packageName);
-                    }
+                    assignment.setRolepackage(packageName);
                 }
             }
         }
+        return tu;
     }
 
     /**
@@ -556,10 +946,44 @@ public class Template
 
         // Now we need to substitue values for variable names. But we cannot do simple character substitution, because it could
         // corrupt the XML. So what we're going to do is a more intelligent way.
-        XMLSubstitution xs = new XMLSubstitution(getTemplateXml(), vars);
-        String actualTemplate = xs.execute().getPretty();
+        if (organizationTemplate != null)
+        {
+            // An exported template is written element by element, so only one element is marshalled and substituted at a time.
+            Writer out = null;
+            try
+            {
+                out = new BufferedWriter(new FileWriter(filename));
+                TemplateWriter writer = new TemplateWriter(out, organizationTemplate.getOrg(), vars);
+                for (Object element : organizationTemplate.getPackage())
+                    writer.write(element);
+                for (Object element : organizationTemplate.getDso())
+                    writer.write(element);
+                for (Object element : organizationTemplate.getXmlstoreobject())
+                    writer.write(element);
+                for (Object element : organizationTemplate.getRole())
+                    writer.write(element);
+                for (Object element : organizationTemplate.getUser())
+                    writer.write(element);
+                for (Object element : organizationTemplate.getServicegroup())
+                    writer.write(element);
+                writer.close();
+            }
+            catch (IOException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+            finally
+            {
+                FileUtil.close(out);
+            }
+        }
+        else
+        {
+            XMLSubstitution xs = new XMLSubstitution(getTemplateXml(), vars);
+            String actualTemplate = xs.execute().getPretty();
 
-        FileUtil.saveString(new File(filename), actualTemplate);
+            FileUtil.saveString(new File(filename), actualTemplate);
+        }
 
         debug("Actual property values used for substitution:");
         for (Entry<String, String> e : vars.entrySet())
@@ -631,10 +1055,10 @@ public class Template
     private Renderer getRenderer() {
         String templateEngine = Caas.getTemplateEngine();
         if (templateEngine != null && templateEngine.equalsIgnoreCase("Velocity")) {
-            return new VelocityRendererImpl();
+            return VELOCITY_RENDERER;
         }
         
-        return new SimpleRendererImpl();
+        return SIMPLE_RENDERER;
     }
 
 
@@ -669,6 +1093,50 @@ public class Template
      *            happen.
      */
     public void apply(Organization org, LoadedPropertyMap vars, boolean validate)
+    {
+        apply(org, vars, validate, new TemplatePlan(false));
+    }
+
+    /**
+     * This method compares the template with the given organization without changing anything. The result shows which items
+     * would be created or updated when the template is applied.
+     * 
+     * @param org Organization to which the template would be applied
+     * @param vars Map containing the properties
+     * @return The plan, which prints as a report of the changes.
+     */
+    public TemplatePlan plan(Organization org, LoadedPropertyMap vars)
+    {
+        TemplatePlan plan = new TemplatePlan(true);
+        apply(org, vars, false, plan);
+        return plan;
+    }
+
+    /**
+     * Applies the template to the given organization. Every item is compared with the organization first and only the differences
+     * are written, or nothing at all when the plan is a dry run.
+     * 
+     * @param org Organization to which the template needs to be applied
+     * @param vars Map containing the properties
+     * @param validate Whether or not the configuration should only be validated.
+     * @param plan The plan in which the changes are recorded.
+     */
+    void apply(Organization org, LoadedPropertyMap vars, boolean validate, final TemplatePlan plan)
+    {
+        apply(org, vars, validate, plan, null);
+    }
+
+    /**
+     * Applies the template to the given organization. The items only run when they get one of the given permits, which are
+     * shared with the other organizations that are applied at the same time.
+     * 
+     * @param org Organization to which the template needs to be applied
+     * @param vars Map containing the properties
+     * @param validate Whether or not the configuration should only be validated.
+     * @param plan The plan in which the changes are recorded.
+     * @param shared The permits shared with other organizations, or null.
+     */
+    void apply(Organization org, LoadedPropertyMap vars, boolean validate, final TemplatePlan plan, Semaphore shared)
     {
         // Add the default system properties used for mapping.
         addDefaultVariables(org, vars);
@@ -686,49 +1154,134 @@ public class Template
             debug(sb.toString());
         }
 
-        // Parse the final template into the object structure to apply the template.
+        // Apply the final template element by element, so the object structure of large templates is never held as a whole.
+        // Only a template whose elements are not in the order of the schema is read completely, to apply it in that order.
         String tmp = getFinalTemplateXml(vars);
-        org.kisst.caas._2_0.template.Organization template = JAXB.unmarshal(new StringReader(tmp),
-                org.kisst.caas._2_0.template.Organization.class);
 
         if (validate)
         {
+            TemplateBinding.read(new StringReader(tmp), new TemplateBinding.Handler() {
+                public void element(Object element)
+                {
+                }
+            });
             info("Template is valid. Final template XML:");
             info(tmp);
             return;
         }
 
-        for (DSO dso : template.getDso())
+        // The items of a category are applied at the same time, but a category only starts when the previous one is finished.
+        final Organization target = org;
+        final StagedExecutor executor = new StagedExecutor(shared);
+        final List<org.kisst.caas._2_0.template.Package> packages = new ArrayList<org.kisst.caas._2_0.template.Package>();
+        final List<Object> mixed = new ArrayList<Object>();
+        final boolean ordered = TemplateBinding.isOrdered(new StringReader(tmp));
+        if (!ordered)
         {
-            processDso(org, dso);
+            warn("The elements of the template are not in the order of the schema, so they are read first and then applied "
+                    + "in the order dso, xmlstoreobject, role, user, servicegroup");
         }
-
-        for (org.kisst.caas._2_0.template.XMLStoreObject xso : template.getXmlstoreobject())
+        TemplateBinding.read(new StringReader(tmp), new TemplateBinding.Handler() {
+            public void element(Object element)
+            {
+                if (element instanceof org.kisst.caas._2_0.template.Package)
+                    packages.add((org.kisst.caas._2_0.template.Package) element);
+                else if (ordered)
+                    submit(executor, target, element, plan);
+                else
+                    mixed.add(element);
+            }
+        });
+        if (!ordered)
         {
-            processXMLStoreObject(org, xso);
+            // The sort is stable, so the elements of a category keep their order
+            Collections.sort(mixed, new Comparator<Object>() {
+                public int compare(Object o1, Object o2)
+                {
+                    return TemplateBinding.getOrder(o1) - TemplateBinding.getOrder(o2);
+                }
+            });
+            for (Object element : mixed)
+                submit(executor, target, element, plan);
         }
+        executor.finish();
 
-        for (org.kisst.caas._2_0.template.Role r : template.getRole())
+        for (org.kisst.caas._2_0.template.Package p : packages)
         {
-            processRole(org, r);
+            processPackage(org, p);
         }
 
-        for (org.kisst.caas._2_0.template.User u : template.getUser())
+        info("Template " + (plan.isDryRun() ? "planned for " : "applied to ") + org.getName() + " organization:\n" + executor);
+        info(plan.toString());
+        if (!executor.isSuccess())
         {
-            processUser(org, u);
+            throw new CaasRuntimeException(executor.getFailures().size() + " items of the template could not be "
+                    + (plan.isDryRun() ? "planned for " : "applied to ") + org.getName());
         }
 
-        for (org.kisst.caas._2_0.template.ServiceGroup sg : template.getServicegroup())
+        if (!plan.isDryRun())
+            info("Template successfully imported to " + org.getName() + " organization");
+    }
+
+    /**
+     * This method submits a single element of the template to the stage of its category.
+     * 
+     * @param executor The executor that applies the items.
+     * @param org The organization to apply it to.
+     * @param element The element: a DSO, XMLStoreObject, Role, User or ServiceGroup.
+     * @param plan The plan in which the changes are recorded.
+     */
+    private void submit(StagedExecutor executor, final Organization org, final Object element, final TemplatePlan plan)
+    {
+        if (element instanceof DSO)
         {
-            processServiceGroup(org, sg);
+            executor.submit("dso", ((DSO) element).getName(), new Runnable() {
+                public void run()
+                {
+                    processDso(org, (DSO) element, plan);
+                }
+            });
         }
-
-        for (org.kisst.caas._2_0.template.Package p : template.getPackage())
+        else if (element instanceof org.kisst.caas._2_0.template.XMLStoreObject)
         {
-            processPackage(org, p);
+            final org.kisst.caas._2_0.template.XMLStoreObject xso = (org.kisst.caas._2_0.template.XMLStoreObject) element;
+            executor.submit("xmlstoreobject", xso.getKey(), new Runnable() {
+                public void run()
+                {
+                    processXMLStoreObject(org, xso, plan);
+                }
+            });
+        }
+        else if (element instanceof org.kisst.caas._2_0.template.Role)
+        {
+            final org.kisst.caas._2_0.template.Role r = (org.kisst.caas._2_0.template.Role) element;
+            executor.submit("role", r.getName(), new Runnable() {
+                public void run()
+                {
+                    processRole(org, r, plan);
+                }
+            });
+        }
+        else if (element instanceof org.kisst.caas._2_0.template.User)
+        {
+            final org.kisst.caas._2_0.template.User u = (org.kisst.caas._2_0.template.User) element;
+            executor.submit("user", u.getName(), new Runnable() {
+                public void run()
+                {
+                    processUser(org, u, plan);
+                }
+            });
+        }
+        else if (element instanceof org.kisst.caas._2_0.template.ServiceGroup)
+        {
+            final org.kisst.caas._2_0.template.ServiceGroup sg = (org.kisst.caas._2_0.template.ServiceGroup) element;
+            executor.submit("servicegroup", sg.getName(), new Runnable() {
+                public void run()
+                {
+                    processServiceGroup(org, sg, plan);
+                }
+            });
         }
-
-        info("Template successfully imported to " + org.getName() + " organization");
     }
 
     /**
@@ -750,12 +1303,13 @@ public class Template
     }
 
     /**
-     * Appends/overwrites the XMLStore
+     * Appends/overwrites the XMLStore. An object that already has the XML of the template is not overwritten.
      * 
      * @param org Organization where the XMLStore object needs to be processed
      * @param xso XmlNode of the XMLStore object from the template
+     * @param plan The plan in which the changes are recorded.
      */
-    private void processXMLStoreObject(Organization org, org.kisst.caas._2_0.template.XMLStoreObject xso)
+    private void processXMLStoreObject(Organization org, org.kisst.caas._2_0.template.XMLStoreObject xso, TemplatePlan plan)
     {
         if (options.contains(ETemplateOption.XML_STORE_OBJECTS))
         {
@@ -766,23 +1320,33 @@ public class Template
 
             XmlNode newXml = DOMUtil.convert(xso.getAny());
             XMLStoreObject obj = new XMLStoreObject(key, version.value(), org);
-            if (operationFlag == XMLStoreObjectOperation.OVERWRITE)
+            if (operationFlag == XMLStoreObjectOperation.APPEND)
             {
-                info("Overwriting " + name + " xmlstore object ... ");
-                obj.overwriteXML(newXml.clone());
+                // Whether appended content is already there cannot be told, so it is always appended
+                plan.add("xmlstoreobject", key, TemplatePlan.Action.APPEND, null);
+                if (!plan.isDryRun())
+                {
+                    info("Appending " + name + " xmlstore object ... ");
+                    obj.appendXML(newXml.clone());
+                    info("OK");
+                }
             }
-            else if (operationFlag == XMLStoreObjectOperation.APPEND)
+            else if (TemplatePlan.isSame(obj.getXML(), newXml))
             {
-                info("Appending " + name + " xmlstore object ... ");
-                obj.appendXML(newXml.clone());
+                plan.add("xmlstoreobject", key, TemplatePlan.Action.UNCHANGED, null);
             }
             else
             {
                 // By default overwrite the XMStore object
-                info("Overwriting " + name + " xmlstore object ... ");
-                obj.overwriteXML(newXml.clone());
+                plan.add("xmlstoreobject", key, obj.getXML() == null ? TemplatePlan.Action.CREATE
+                        : TemplatePlan.Action.UPDATE, null);
+                if (!plan.isDryRun())
+                {
+                    info("Overwriting " + name + " xmlstore object ... ");
+                    obj.overwriteXML(newXml.clone());
+                    info("OK");
+                }
             }
-            info("OK");
         }
         else
         {
@@ -791,12 +1355,14 @@ public class Template
     }
 
     /**
-     * Creates/updates DSO. Also creates the DSO type if it does not exist.
+     * Creates/updates DSO. Also creates the DSO type if it does not exist. A DSO that already has the configuration of the
+     * template is not updated.
      * 
      * @param org Organization where the DSO needs to be created/updated
      * @param tdso XmlNode representing the DSO as per the template
+     * @param plan The plan in which the changes are recorded.
      */
-    private void processDso(Organization org, DSO tdso)
+    private void processDso(Organization org, DSO tdso, TemplatePlan plan)
     {
         if (options.contains(ETemplateOption.DSO))
         {
@@ -804,28 +1370,49 @@ public class Template
             String desc = tdso.getDesc();
             DSOType type = tdso.getType();
             XmlNode config = DOMUtil.convert(tdso.getDatasourceconfiguration().getAny());
-            DsoType dsotype = org.dsotypes.getByName(type.value());
-            if (dsotype == null) // Holds true only once per dsotype of org
+            DsoType dsotype;
+            // DSOs are applied at the same time, so only one of them may create a missing type
+            synchronized (dsoTypeLock)
             {
-                info("creating dsotype " + type + " ... ");
-                org.createDsoType(type.value());
-                info("OK");
                 dsotype = org.dsotypes.getByName(type.value());
+                if (dsotype == null) // Holds true only once per dsotype of org
+                {
+                    plan.add("dsotype", type.value(), TemplatePlan.Action.CREATE, null);
+                    if (!plan.isDryRun())
+                    {
+                        info("creating dsotype " + type + " ... ");
+                        org.createDsoType(type.value());
+                        info("OK");
+                        dsotype = org.dsotypes.getByName(type.value());
+                    }
+                }
             }
-            Dso dso = dsotype.dsos.getByName(name);
+            Dso dso = dsotype == null ? null : dsotype.dsos.getByName(name);
             if (dso == null) // Create DSO
             {
-                info("creating dso " + name + " ... ");
-                dsotype = org.dsotypes.getByName(type.value());
-                dsotype.createDso(name, desc, config);
-                info("OK");
+                plan.add("dso", name, TemplatePlan.Action.CREATE, null);
+                if (!plan.isDryRun())
+                {
+                    info("creating dso " + name + " ... ");
+                    dsotype = org.dsotypes.getByName(type.value());
+                    dsotype.createDso(name, desc, config);
+                    info("OK");
+                }
+            }
+            else if (TemplatePlan.isSame(dso.config.getXml(), config))
+            {
+                plan.add("dso", name, TemplatePlan.Action.UNCHANGED, null);
             }
             else
             // Update DSO
             {
-                info("updating dso " + name + " ... ");
-                dsotype.updateDso(dso, config);
-                info("OK");
+                plan.add("dso", name, TemplatePlan.Action.UPDATE, "configuration");
+                if (!plan.isDryRun())
+                {
+                    info("updating dso " + name + " ... ");
+                    dsotype.updateDso(dso, config);
+                    info("OK");
+                }
             }
         }
         else
@@ -840,13 +1427,26 @@ public class Template
      * 
      * @param org Organization where the service group needs to be created/updated
      * @param sg XmlNode representing the service group as per the template
+     * @param plan The plan in which the changes are recorded.
      */
-    private void processServiceGroup(Organization org, org.kisst.caas._2_0.template.ServiceGroup sg)
+    private void processServiceGroup(Organization org, org.kisst.caas._2_0.template.ServiceGroup sg, TemplatePlan plan)
     {
         if (options.contains(ETemplateOption.SERVICE_GROUPS))
         {
             ICustomStrategy cs = StrategyFactory.create(sg, org, this);
 
+            if (cs instanceof BaseStrategy)
+            {
+                ((BaseStrategy) cs).setPlan(plan);
+            }
+            else if (plan.isDryRun())
+            {
+                // A custom strategy writes directly, so it cannot take part in a dry run
+                plan.add("servicegroup", sg.getName(), TemplatePlan.Action.UPDATE, "custom strategy "
+                        + cs.getClass().getName() + " is not planned");
+                return;
+            }
+
             cs.apply();
         }
         else
@@ -902,12 +1502,13 @@ public class Template
     }
 
     /**
-     * Creates/updates user Also configures the user with the given roles
+     * Creates/updates user Also configures the user with the given roles. Only the roles the user does not have yet are added.
      * 
      * @param org Organization where the user needs to be created/updated
      * @param tu XmlNode representing the user as per the template
+     * @param plan The plan in which the changes are recorded.
      */
-    private void processUser(Organization org, org.kisst.caas._2_0.template.User tu)
+    private void processUser(Organization org, org.kisst.caas._2_0.template.User tu, TemplatePlan plan)
     {
         if (options.contains(ETemplateOption.USERS))
         {
@@ -922,13 +1523,14 @@ public class Template
             }
             if (org.users.getByName(name) == null) // Create User
             {
+                plan.add("user", name, TemplatePlan.Action.CREATE, tu.getRole().size() + " roles");
+                if (plan.isDryRun())
+                    return;
                 info("creating user " + name + " ... ");
                 org.createUser(name, tu.getAu(), tu.getType(), tu.getOsidentity(), tu.getPassword()); // Create Org User
                 info("OK");
             }
 
-            info("configuring user " + name + " with roles ... ");
-
             // Now the roles need to be assigned to the user.
             User user = org.users.getByName(name);
             ArrayList<String> newRoles = new ArrayList<String>();
@@ -977,10 +1579,22 @@ public class Template
 
             // TODO: Process assignments
 
-            // Assign all the roles to the user at once
-            if (newRoles != null && newRoles.size() > 0)
-                user.roles.add(newRoles.toArray(new String[newRoles.size()]));
-            info("OK");
+            // Assign only the missing roles to the user at once
+            List<String> missing = TemplatePlan.missing(getDns(user.roles), newRoles);
+            if (missing.isEmpty())
+            {
+                plan.add("user", name, TemplatePlan.Action.UNCHANGED, null);
+            }
+            else
+            {
+                plan.add("user", name, TemplatePlan.Action.UPDATE, "adding roles " + missing);
+                if (!plan.isDryRun())
+                {
+                    info("configuring user " + name + " with roles ... ");
+                    user.roles.add(missing.toArray(new String[missing.size()]));
+                    info("OK");
+                }
+            }
         }
         else
         {
@@ -989,12 +1603,13 @@ public class Template
     }
 
     /**
-     * Creates/updates role. Configures its sub-roles as well
+     * Creates/updates role. Configures its sub-roles as well. Only the sub-roles the role does not have yet are added.
      * 
      * @param org Organization where the role needs to be created/updated
      * @param tr XmlNode representing the role as per the template
+     * @param plan The plan in which the changes are recorded.
      */
-    private void processRole(Organization org, org.kisst.caas._2_0.template.Role tr)
+    private void processRole(Organization org, org.kisst.caas._2_0.template.Role tr, TemplatePlan plan)
     {
         if (options.contains(ETemplateOption.ROLES))
         {
@@ -1002,12 +1617,15 @@ public class Template
             RoleType type = tr.getType();
             if (org.roles.getByName(name) == null)
             {
+                plan.add("role", name, TemplatePlan.Action.CREATE, tr.getRole().size() + " sub-roles");
+                if (plan.isDryRun())
+                    return;
                 info("creating role " + name + " ... ");
                 org.createRole(name, type.value());
                 info("OK");
             }
-            info("configuring role " + name + " ... ");
             Role role = org.roles.getByName(name);
+            ArrayList<String> newRoles = new ArrayList<String>();
             for (org.kisst.caas._2_0.template.Role child : tr.getRole())
             {
                 Role subRole = null;
@@ -1028,11 +1646,26 @@ public class Template
                         dnRole = "cn=" + roleName + ",cn=" + isvpName + "," + org.getSystem().getDn();
                 }
                 if (subRole != null)
-                    role.roles.add(subRole);
+                    newRoles.add(subRole.getDn());
                 else
-                    role.roles.add(dnRole);
+                    newRoles.add(dnRole);
+            }
+
+            List<String> missing = TemplatePlan.missing(getDns(role.roles), newRoles);
+            if (missing.isEmpty())
+            {
+                plan.add("role", name, TemplatePlan.Action.UNCHANGED, null);
+            }
+            else
+            {
+                plan.add("role", name, TemplatePlan.Action.UPDATE, "adding roles " + missing);
+                if (!plan.isDryRun())
+                {
+                    info("configuring role " + name + " ... ");
+                    role.roles.add(missing.toArray(new String[missing.size()]));
+                    info("OK");
+                }
             }
-            info("OK");
         }
         else
         {
@@ -1040,6 +1673,23 @@ public class Template
         }
     }
 
+    /**
+     * This method gets the dns of the entries of the given list, including the entries that do not exist (yet).
+     * 
+     * @param list The list.
+     * @return The dns.
+     */
+    private static List<String> getDns(EntryObjectList<?> list)
+    {
+        ArrayList<String> result = new ArrayList<String>();
+        for (LdapObject obj : list)
+        {
+            result.add(obj.getDn());
+        }
+        result.addAll(list.getDangling());
+        return result;
+    }
+
     /**
      * @param org
      * @param conf
@@ -0,0 +1,372 @@
+package org.kisst.cordys.caas.template;
+
+import java.io.Reader;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.kisst.caas._2_0.template.DSO;
+import org.kisst.caas._2_0.template.ObjectFactory;
+import org.kisst.caas._2_0.template.Package;
+import org.kisst.caas._2_0.template.Role;
+import org.kisst.caas._2_0.template.ServiceGroup;
+import org.kisst.caas._2_0.template.User;
+import org.kisst.caas._2_0.template.XMLStoreObject;
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+
+/**
+ * This class holds the JAXB binding of the template classes. Creating a JAXBContext is expensive, so a single context is created
+ * and shared. The context is thread-safe, the marshallers and unmarshallers it creates are not, so they are created per use.
+ * <p>
+ * A template can also be read element by element. Every dso, xmlstoreobject, role, user, servicegroup and package of the template
+ * is unmarshalled on its own and handed to a handler, so a template with many users is never held in memory as a whole.
+ * </p>
+ */
+public class TemplateBinding
+{
+    /**
+     * Receives the elements of a template while it is read.
+     */
+    public interface Handler
+    {
+        /**
+         * This method is called for every element of the template, in document order.
+         *
+         * @param element The element: a DSO, XMLStoreObject, Role, User, ServiceGroup or Package.
+         */
+        void element(Object element);
+    }
+
+    /**
+     * Holds the shared context. The class is only loaded on first use, which makes the creation lazy and thread-safe.
+     */
+    private static class Holder
+    {
+        /** Holds the context. */
+        private static final JAXBContext CONTEXT = create();
+
+        /**
+         * This method creates the context.
+         *
+         * @return The context.
+         */
+        private static JAXBContext create()
+        {
+            try
+            {
+                return JAXBContext.newInstance(ObjectFactory.class);
+            }
+            catch (JAXBException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /** Holds the namespace of the template. */
+    public static final String NAMESPACE = "http://caas.kisst.org/2.0/template";
+    /** Holds the names of the child elements of the template root, in the order of the schema. */
+    private static final String[] ELEMENTS = { "package", "dso", "xmlstoreobject", "role", "user", "servicegroup" };
+
+    /** Holds the factory for the StAX readers. */
+    private static final XMLInputFactory INPUT_FACTORY = createInputFactory();
+
+    /**
+     * This method creates the StAX input factory. Templates do not need DTDs or external entities.
+     *
+     * @return The factory.
+     */
+    private static XMLInputFactory createInputFactory()
+    {
+        XMLInputFactory result = XMLInputFactory.newInstance();
+        result.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        result.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        return result;
+    }
+
+    /**
+     * This method gets the shared context of the template classes.
+     *
+     * @return The context.
+     */
+    public static JAXBContext getContext()
+    {
+        return Holder.CONTEXT;
+    }
+
+    /**
+     * This method creates a marshaller that writes formatted XML.
+     *
+     * @return The marshaller.
+     */
+    public static Marshaller createMarshaller()
+    {
+        try
+        {
+            Marshaller result = getContext().createMarshaller();
+            result.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, Boolean.TRUE);
+            return result;
+        }
+        catch (JAXBException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method creates a marshaller that writes a single element of a template, without XML declaration.
+     *
+     * @return The marshaller.
+     */
+    public static Marshaller createFragmentMarshaller()
+    {
+        try
+        {
+            Marshaller result = getContext().createMarshaller();
+            result.setProperty(Marshaller.JAXB_FRAGMENT, Boolean.TRUE);
+            return result;
+        }
+        catch (JAXBException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method wraps a child element of the template root, so it can be marshalled on its own.
+     *
+     * @param element The element: a DSO, XMLStoreObject, Role, User, ServiceGroup or Package.
+     * @return The element with its name.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    public static JAXBElement<?> createElement(Object element)
+    {
+        String name = getName(element.getClass());
+        if (name == null)
+        {
+            throw new CaasRuntimeException("Unknown template element " + element.getClass().getName());
+        }
+        return new JAXBElement(new QName(NAMESPACE, name), element.getClass(), element);
+    }
+
+    /**
+     * This method reads a template element by element.
+     *
+     * @param in The reader with the template XML.
+     * @param handler The handler that receives the elements.
+     */
+    public static void read(Reader in, Handler handler)
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            Unmarshaller unmarshaller = getContext().createUnmarshaller();
+            synchronized (INPUT_FACTORY)
+            {
+                reader = INPUT_FACTORY.createXMLStreamReader(in);
+            }
+
+            // Find the root element
+            while (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+            {
+                reader.next();
+            }
+            reader.next();
+
+            // Every start element found here is a child of the root, since the unmarshaller consumes the complete element
+            while (reader.getEventType() != XMLStreamConstants.END_ELEMENT
+                    && reader.getEventType() != XMLStreamConstants.END_DOCUMENT)
+            {
+                if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+                {
+                    reader.next();
+                    continue;
+                }
+                Class<?> type = getType(reader.getLocalName());
+                if (type == null)
+                {
+                    skip(reader);
+                    continue;
+                }
+                handler.element(unmarshaller.unmarshal(reader, type).getValue());
+            }
+        }
+        catch (JAXBException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        catch (XMLStreamException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (reader != null)
+                    reader.close();
+            }
+            catch (XMLStreamException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * This method checks whether the elements of a template are in the order of the schema, without unmarshalling them. JAXB does
+     * not check the order, so the elements of a template that is put together from included files can be mixed.
+     *
+     * @param in The reader with the template XML.
+     * @return true if no element comes after an element of a later category.
+     */
+    public static boolean isOrdered(Reader in)
+    {
+        XMLStreamReader reader = null;
+        try
+        {
+            synchronized (INPUT_FACTORY)
+            {
+                reader = INPUT_FACTORY.createXMLStreamReader(in);
+            }
+
+            // Find the root element
+            while (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+            {
+                reader.next();
+            }
+            reader.next();
+
+            int last = 0;
+            while (reader.getEventType() != XMLStreamConstants.END_ELEMENT
+                    && reader.getEventType() != XMLStreamConstants.END_DOCUMENT)
+            {
+                if (reader.getEventType() != XMLStreamConstants.START_ELEMENT)
+                {
+                    reader.next();
+                    continue;
+                }
+                int order = getOrder(reader.getLocalName());
+                if (order >= 0)
+                {
+                    if (order < last)
+                        return false;
+                    last = order;
+                }
+                skip(reader);
+            }
+            return true;
+        }
+        catch (XMLStreamException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (reader != null)
+                    reader.close();
+            }
+            catch (XMLStreamException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /**
+     * This method gets the position of the category of a template element in the schema.
+     *
+     * @param element The element: a DSO, XMLStoreObject, Role, User, ServiceGroup or Package.
+     * @return The position, or -1 if the element is not a child of the template root.
+     */
+    public static int getOrder(Object element)
+    {
+        String name = getName(element.getClass());
+        return name == null ? -1 : getOrder(name);
+    }
+
+    /**
+     * This method gets the position of a child element of the template root in the schema.
+     *
+     * @param name The local name of the element.
+     * @return The position, or -1 if the element is unknown.
+     */
+    private static int getOrder(String name)
+    {
+        for (int i = 0; i < ELEMENTS.length; i++)
+        {
+            if (ELEMENTS[i].equals(name))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * This method gets the class of a child element of the template root.
+     *
+     * @param name The local name of the element.
+     * @return The class, or null if the element is unknown.
+     */
+    private static Class<?> getType(String name)
+    {
+        if ("dso".equals(name))
+            return DSO.class;
+        if ("xmlstoreobject".equals(name))
+            return XMLStoreObject.class;
+        if ("role".equals(name))
+            return Role.class;
+        if ("user".equals(name))
+            return User.class;
+        if ("servicegroup".equals(name))
+            return ServiceGroup.class;
+        if ("package".equals(name))
+            return Package.class;
+        return null;
+    }
+
+    /**
+     * This method gets the name of a child element of the template root.
+     *
+     * @param type The class of the element.
+     * @return The local name, or null if the class is not a child of the template root.
+     */
+    private static String getName(Class<?> type)
+    {
+        for (String name : ELEMENTS)
+        {
+            if (type.equals(getType(name)))
+                return name;
+        }
+        return null;
+    }
+
+    /**
+     * This method skips the element the reader is positioned on.
+     *
+     * @param reader The reader.
+     * @throws XMLStreamException In case the XML is not valid.
+     */
+    private static void skip(XMLStreamReader reader) throws XMLStreamException
+    {
+        int depth = 0;
+        do
+        {
+            if (reader.getEventType() == XMLStreamConstants.START_ELEMENT)
+                depth++;
+            else if (reader.getEventType() == XMLStreamConstants.END_ELEMENT)
+                depth--;
+            reader.next();
+        }
+        while (depth > 0);
+    }
+}
@@ -0,0 +1,235 @@
+package org.kisst.cordys.caas.template;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class holds the changes that applying a template makes to an organization. Every item of the template is compared with the
+ * live organization first, and only the differences are written. Items that already match the template only cost reads.
+ * <p>
+ * In dry-run mode nothing is written at all, the plan then shows what applying the template would change.
+ * </p>
+ */
+public class TemplatePlan
+{
+    /**
+     * The actions that can be planned for an item.
+     */
+    public static enum Action
+    {
+        CREATE, UPDATE, APPEND, UNCHANGED
+    }
+
+    /**
+     * Holds the planned change of a single item.
+     */
+    public static class Change
+    {
+        /** Holds the category of the item. */
+        private final String category;
+        /** Holds the name of the item. */
+        private final String item;
+        /** Holds the action. */
+        private final Action action;
+        /** Holds what will change, or null. */
+        private final String detail;
+
+        /**
+         * Instantiates a new change.
+         *
+         * @param category The category of the item.
+         * @param item The name of the item.
+         * @param action The action.
+         * @param detail What will change, or null.
+         */
+        private Change(String category, String item, Action action, String detail)
+        {
+            this.category = category;
+            this.item = item;
+            this.action = action;
+            this.detail = detail;
+        }
+
+        /**
+         * This method gets the category of the item.
+         *
+         * @return The category.
+         */
+        public String getCategory()
+        {
+            return category;
+        }
+
+        /**
+         * This method gets the name of the item.
+         *
+         * @return The name.
+         */
+        public String getItem()
+        {
+            return item;
+        }
+
+        /**
+         * This method gets the action.
+         *
+         * @return The action.
+         */
+        public Action getAction()
+        {
+            return action;
+        }
+
+        /**
+         * This method gets what will change.
+         *
+         * @return The detail, or null.
+         */
+        public String getDetail()
+        {
+            return detail;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString()
+        {
+            return String.format("%-9s %-15s %s%s", action, category, item, detail == null ? "" : ": " + detail);
+        }
+    }
+
+    /** Holds whether nothing should be written. */
+    private final boolean dryRun;
+    /** Holds the changes, in the order in which they were planned. */
+    private final List<Change> changes = Collections.synchronizedList(new ArrayList<Change>());
+
+    /**
+     * Instantiates a new plan.
+     *
+     * @param dryRun Whether nothing should be written.
+     */
+    public TemplatePlan(boolean dryRun)
+    {
+        this.dryRun = dryRun;
+    }
+
+    /**
+     * This method returns whether nothing should be written.
+     *
+     * @return true for a dry run.
+     */
+    public boolean isDryRun()
+    {
+        return dryRun;
+    }
+
+    /**
+     * This method adds a change to the plan.
+     *
+     * @param category The category of the item.
+     * @param item The name of the item.
+     * @param action The action.
+     * @param detail What will change, or null.
+     */
+    public void add(String category, String item, Action action, String detail)
+    {
+        changes.add(new Change(category, item, action, detail));
+    }
+
+    /**
+     * This method gets all changes, including the unchanged items.
+     *
+     * @return The changes.
+     */
+    public List<Change> getChanges()
+    {
+        synchronized (changes)
+        {
+            return new ArrayList<Change>(changes);
+        }
+    }
+
+    /**
+     * This method gets the changes that modify the organization.
+     *
+     * @return The modifications.
+     */
+    public List<Change> getModifications()
+    {
+        ArrayList<Change> result = new ArrayList<Change>();
+        for (Change c : getChanges())
+        {
+            if (c.action != Action.UNCHANGED)
+                result.add(c);
+        }
+        return result;
+    }
+
+    /**
+     * This method returns whether the two XML fragments are the same, ignoring formatting.
+     *
+     * @param current The current XML, may be null.
+     * @param desired The desired XML.
+     * @return true if they are the same.
+     */
+    public static boolean isSame(XmlNode current, XmlNode desired)
+    {
+        return current != null && desired != null && current.compact().equals(desired.compact());
+    }
+
+    /**
+     * This method returns the values of the desired collection that are not in the current collection. LDAP dns are not case
+     * sensitive, so the values are compared ignoring case.
+     *
+     * @param current The current values.
+     * @param desired The desired values.
+     * @return The missing values, in the order of the desired values.
+     */
+    public static List<String> missing(Collection<String> current, Collection<String> desired)
+    {
+        TreeSet<String> existing = new TreeSet<String>(String.CASE_INSENSITIVE_ORDER);
+        existing.addAll(current);
+        ArrayList<String> result = new ArrayList<String>();
+        for (String value : desired)
+        {
+            if (value != null && existing.add(value))
+                result.add(value);
+        }
+        return result;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        LinkedHashMap<Action, Integer> counts = new LinkedHashMap<Action, Integer>();
+        for (Action a : Action.values())
+            counts.put(a, 0);
+        for (Change c : getChanges())
+        {
+            counts.put(c.action, counts.get(c.action) + 1);
+            if (c.action != Action.UNCHANGED)
+                result.append(c).append("\n");
+        }
+        result.append(dryRun ? "Planned: " : "Applied: ");
+        boolean first = true;
+        for (Map.Entry<Action, Integer> e : counts.entrySet())
+        {
+            result.append(first ? "" : ", ").append(e.getValue()).append(" ").append(e.getKey().toString().toLowerCase());
+            first = false;
+        }
+        return result.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package org.kisst.cordys.caas.template;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+import org.kisst.cordys.caas.util.XMLSubstitution;
+import org.kisst.cordys.caas.util.XmlNode;
+
+/**
+ * This class writes a template element by element. Every dso, xmlstoreobject, role, user, servicegroup and package is marshalled
+ * on its own, the values of the variables in it are replaced by the variable names and it is written straight away. Only a single
+ * element is held in memory at a time, so the size of the organization does not matter.
+ * <p>
+ * The elements must be written in the order of the schema: packages, dsos, xmlstoreobjects, roles, users and servicegroups.
+ * </p>
+ */
+public class TemplateWriter
+{
+    /** Holds the writer to write the template to. */
+    private final Writer out;
+    /** Holds the substitution of the values by the variable names, which is prepared once for all elements. */
+    private final XMLSubstitution substitution;
+    /** Holds the marshaller for the elements. */
+    private final Marshaller marshaller = TemplateBinding.createFragmentMarshaller();
+
+    /**
+     * Instantiates a new template writer and writes the start of the template.
+     *
+     * @param out The writer to write the template to. It is not closed.
+     * @param org The name of the organization of the template.
+     * @param vars The variables whose values are replaced by their names.
+     */
+    public TemplateWriter(Writer out, String org, Map<String, String> vars)
+    {
+        this.out = out;
+        this.substitution = new XMLSubstitution(vars);
+        write("<org xmlns=\"" + TemplateBinding.NAMESPACE + "\" org=\"" + escape(substitution.replace(org)) + "\">\n");
+    }
+
+    /**
+     * This method writes an element of the template.
+     *
+     * @param element The element: a DSO, XMLStoreObject, Role, User, ServiceGroup or Package.
+     */
+    public synchronized void write(Object element)
+    {
+        StringWriter fragment = new StringWriter();
+        try
+        {
+            marshaller.marshal(TemplateBinding.createElement(element), fragment);
+        }
+        catch (JAXBException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+
+        // The element is written inside the root, which already declares the namespace
+        String xml = substitution.execute(new XmlNode(fragment.toString())).getPretty();
+        String declaration = " xmlns=\"" + TemplateBinding.NAMESPACE + "\"";
+        int index = xml.indexOf(declaration);
+        if (index >= 0 && index < xml.indexOf('>'))
+        {
+            xml = xml.substring(0, index) + xml.substring(index + declaration.length());
+        }
+
+        StringBuilder indented = new StringBuilder(xml.length() + 256);
+        for (String line : xml.split("\r?\n"))
+        {
+            indented.append("  ").append(line).append("\n");
+        }
+        write(indented.toString());
+    }
+
+    /**
+     * This method writes the end of the template and flushes the writer.
+     */
+    public synchronized void close()
+    {
+        write("</org>\n");
+        try
+        {
+            out.flush();
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method writes text to the writer.
+     *
+     * @param text The text.
+     */
+    private void write(String text)
+    {
+        try
+        {
+            out.write(text);
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method escapes a value for use in an attribute.
+     *
+     * @param value The value.
+     * @return The escaped value.
+     */
+    private static String escape(String value)
+    {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace("\"", "&quot;").replace(">", "&gt;");
+    }
+}
@@ -1,12 +1,15 @@
 package org.kisst.cordys.caas.template;
 
 import java.io.File;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.apache.velocity.Template;
 import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.Velocity;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.ParseException;
 import org.kisst.cordys.caas.exception.CaasRuntimeException;
 
 /**
@@ -16,21 +19,74 @@ import org.kisst.cordys.caas.exception.CaasRuntimeException;
  * a.b=xxx
  * a.b.c=xxx
  * 
+ * A single Velocity runtime is initialized per JVM, and parsed templates are cached, so rendering the same template again with
+ * other variables skips parsing.
+ * 
  * @author hvdvlier
  */
 public class VelocityRendererImpl extends Renderer
 {
+    /**
+     * Holds the shared Velocity runtime. The class is only loaded on first use, which makes the initialization lazy and thread-safe.
+     */
+    private static class Holder
+    {
+        /** Holds the runtime. */
+        private static final RuntimeInstance RUNTIME = create();
+
+        /**
+         * This method creates and initializes the runtime.
+         *
+         * @return The runtime.
+         */
+        private static RuntimeInstance create()
+        {
+            try
+            {
+                RuntimeInstance result = new RuntimeInstance();
+                result.init();
+                return result;
+            }
+            catch (Exception e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    }
+
+    /** Holds the parsed templates. */
+    private static final RenderCache<Template> CACHE = new RenderCache<Template>();
+    /** Holds the compiler that parses the templates. */
+    private static final RenderCache.Compiler<Template> COMPILER = new RenderCache.Compiler<Template>() {
+        public Template compile(String template)
+        {
+            try
+            {
+                Template result = new Template();
+                result.setName("");
+                result.setRuntimeServices(Holder.RUNTIME);
+                result.setData(Holder.RUNTIME.parse(new StringReader(template), ""));
+                result.initDocument();
+                return result;
+            }
+            catch (ParseException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+    };
+
     @Override
     public String render(Map<String, String> vars, String template, File templateFolder)
     {
         // First we need to include the files that are to be included using the CAAS-specific
-        // ${include:file=} or ${include:folder=;pattern=*.xml}
-        // Velocity-style includes - once supported - will be handled in Velocity.evaluate()
-        template = processIncludeFiles(template, templateFolder);
-        
+        // ${include:file=} or ${include:folder=;pattern=*.xml}. The result is parsed and cached.
+        // Velocity-style includes - once supported - will be handled by the runtime
+        Template parsed = CACHE.get(this, template, templateFolder, COMPILER);
+
         VelocityContext context = getVelocityContext(vars);
         StringWriter sw = new StringWriter();
-        Velocity.evaluate(context, sw, "", template);
+        parsed.merge(context, sw);
         return sw.toString();
     }
 
@@ -92,4 +148,4 @@ public class VelocityRendererImpl extends Renderer
             throw new CaasRuntimeException("Property " + key + " is already set");
         }
     }
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -5,6 +5,7 @@ import static org.kisst.cordys.caas.main.Environment.info;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.kisst.caas._2_0.template.ConnectionPoint;
@@ -21,6 +22,7 @@ import org.kisst.cordys.caas.ServiceContainer;
 import org.kisst.cordys.caas.WebServiceInterface;
 import org.kisst.cordys.caas.main.Environment;
 import org.kisst.cordys.caas.template.Template;
+import org.kisst.cordys.caas.template.TemplatePlan;
 import org.kisst.cordys.caas.util.DOMUtil;
 import org.kisst.cordys.caas.util.StringUtil;
 import org.kisst.cordys.caas.util.XmlNode;
@@ -41,6 +43,8 @@ public abstract class BaseStrategy implements ICustomStrategy
     private ServiceGroup m_serviceGroup;
     /** Holds the strategy specific parameters and the values */
     private Map<String, String> m_parameters = new LinkedHashMap<String, String>();
+    /** Holds the plan in which the changes are recorded. */
+    private TemplatePlan m_plan = new TemplatePlan(false);
 
     /**
      * Instantiates a new base strategy.
@@ -110,6 +114,26 @@ public abstract class BaseStrategy implements ICustomStrategy
         m_organization = organization;
     }
 
+    /**
+     * This method gets the plan in which the changes are recorded.
+     * 
+     * @return The plan in which the changes are recorded.
+     */
+    public TemplatePlan getPlan()
+    {
+        return m_plan;
+    }
+
+    /**
+     * This method sets the plan in which the changes are recorded. When the plan is a dry run, nothing is written.
+     * 
+     * @param plan The plan in which the changes are recorded.
+     */
+    public void setPlan(TemplatePlan plan)
+    {
+        m_plan = plan;
+    }
+
     /**
      * @see org.kisst.cordys.caas.template.strategy.ICustomStrategy#initialize(org.kisst.caas._2_0.template.ServiceGroup,
      *      org.kisst.cordys.caas.Organization, org.kisst.caas._2_0.template.Parameters, org.kisst.cordys.caas.template.Template)
@@ -171,10 +195,11 @@ public abstract class BaseStrategy implements ICustomStrategy
     }
 
     /**
-     * This method creates the service group based on the template definition.
+     * This method creates the service group based on the template definition. When the service group exists, only the parts that
+     * differ from the template are updated.
      * 
      * @param sg The definition of the service group.
-     * @return The created service group in Cordys.
+     * @return The created service group in Cordys, or null if it does not exist and the plan is a dry run.
      */
     protected org.kisst.cordys.caas.ServiceGroup createServiceGroup(org.kisst.caas._2_0.template.ServiceGroup sg)
     {
@@ -186,6 +211,12 @@ public abstract class BaseStrategy implements ICustomStrategy
 
         if (serviceGroup == null) // Create SG
         {
+            m_plan.add("servicegroup", name, TemplatePlan.Action.CREATE, wsis.length + " web service interfaces");
+            if (m_plan.isDryRun())
+            {
+                return null;
+            }
+
             info("creating servicegroup " + name + " ... ");
 
             getOrganization().createServiceGroup(name, config, wsis);
@@ -195,29 +226,111 @@ public abstract class BaseStrategy implements ICustomStrategy
         }
         else
         {
-            info("updating servicegroup " + name + " ... ");
+            ArrayList<String> changed = new ArrayList<String>();
 
-            // Update the configuration of the service group
-            serviceGroup.updateConfiguration(config);
+            // The keystore is kept by updateConfiguration, so it is left out of the comparison
+            boolean configChanged = !TemplatePlan.isSame(withoutKeystore(serviceGroup.config.getXml()), withoutKeystore(config));
+            if (configChanged)
+            {
+                changed.add("configuration");
+            }
 
+            boolean wsiChanged = false;
+            boolean namespacesChanged = false;
+            ArrayList<String> namespaces = new ArrayList<String>();
             if ((wsis != null) && (wsis.length > 0))
             {
-                serviceGroup.webServiceInterfaces.update(wsis);
-                ArrayList<String> namespaces = new ArrayList<String>();
+                ArrayList<String> current = new ArrayList<String>();
+                for (WebServiceInterface webServiceInterface : serviceGroup.webServiceInterfaces)
+                {
+                    current.add(webServiceInterface.getDn());
+                }
+                current.addAll(serviceGroup.webServiceInterfaces.getDangling());
+                ArrayList<String> desired = new ArrayList<String>();
                 for (WebServiceInterface webServiceInterface : wsis)
                 {
+                    desired.add(webServiceInterface.getDn());
                     for (String namespace : webServiceInterface.namespaces.get())
                     {
                         namespaces.add(namespace);
                     }
                 }
-                serviceGroup.namespaces.update(namespaces);
-                info("OK");
+                wsiChanged = !isSameSet(current, desired);
+                namespacesChanged = !isSameSet(serviceGroup.namespaces.get(), namespaces);
+                if (wsiChanged)
+                {
+                    changed.add("web service interfaces");
+                }
+                if (namespacesChanged)
+                {
+                    changed.add("namespaces");
+                }
+            }
+
+            if (changed.isEmpty())
+            {
+                m_plan.add("servicegroup", name, TemplatePlan.Action.UNCHANGED, null);
+            }
+            else
+            {
+                m_plan.add("servicegroup", name, TemplatePlan.Action.UPDATE, StringUtil.join(changed.iterator(), ", "));
+                if (!m_plan.isDryRun())
+                {
+                    info("updating servicegroup " + name + " ... ");
+
+                    // Update the configuration of the service group
+                    if (configChanged)
+                    {
+                        serviceGroup.updateConfiguration(config);
+                    }
+                    if (wsiChanged)
+                    {
+                        serviceGroup.webServiceInterfaces.update(wsis);
+                    }
+                    if (namespacesChanged)
+                    {
+                        serviceGroup.namespaces.update(namespaces);
+                    }
+                    info("OK");
+                }
             }
         }
         return serviceGroup;
     }
 
+    /**
+     * This method returns a copy of the service group configuration without the soap node keystore.
+     * 
+     * @param config The configuration.
+     * @return The configuration without the keystore, or null if there is no configuration.
+     */
+    private static XmlNode withoutKeystore(XmlNode config)
+    {
+        if (config == null)
+        {
+            return null;
+        }
+        XmlNode result = config.clone();
+        XmlNode keystore = result.getChild("soapnode_keystore");
+        if (keystore != null)
+        {
+            result.remove(keystore);
+        }
+        return result;
+    }
+
+    /**
+     * This method returns whether the two collections contain the same values, ignoring order and case.
+     * 
+     * @param current The current values.
+     * @param desired The desired values.
+     * @return true if they contain the same values.
+     */
+    private static boolean isSameSet(List<String> current, List<String> desired)
+    {
+        return TemplatePlan.missing(current, desired).isEmpty() && TemplatePlan.missing(desired, current).isEmpty();
+    }
+
     /**
      * This method returns the web service interfaces that are to be applied to the service group.
      * 
@@ -329,9 +442,9 @@ public abstract class BaseStrategy implements ICustomStrategy
 
     /**
      * This method creates the service container on the given machine. If the service container already exists, the container is
-     * overwritten with the given configuration.
+     * overwritten with the given configuration, unless it already matches the template.
      * 
-     * @param serviceGroup The service group under which the container is to be created.
+     * @param serviceGroup The service group under which the container is to be created, or null if it does not exist yet.
      * @param scName The name of the service container to update/create.
      * @param config The configuration of the container.
      * @param container The definition of the container in the template file.
@@ -340,9 +453,15 @@ public abstract class BaseStrategy implements ICustomStrategy
     protected void createServiceContainer(org.kisst.cordys.caas.ServiceGroup serviceGroup, String scName, XmlNode config,
             org.kisst.caas._2_0.template.ServiceContainer container, Machine machine)
     {
-        ServiceContainer serviceContainer = serviceGroup.serviceContainers.getByName(scName);
+        ServiceContainer serviceContainer = serviceGroup == null ? null : serviceGroup.serviceContainers.getByName(scName);
         if (serviceContainer == null) // Create SC
         {
+            m_plan.add("servicecontainer", scName, TemplatePlan.Action.CREATE, "on machine " + machine.getName());
+            if (m_plan.isDryRun())
+            {
+                return;
+            }
+
             info("creating servicecontainer " + scName + " for machine " + machine.getName() + " ... ");
 
             serviceGroup.createServiceContainer(scName, machine.getName(), container.isAutomatic(), config.clone());
@@ -366,13 +485,23 @@ public abstract class BaseStrategy implements ICustomStrategy
 
             info("OK");
         }
+        else if (machine.getName().equals(serviceContainer.computer.get())
+                && serviceContainer.automatic.getBool().booleanValue() == container.isAutomatic()
+                && TemplatePlan.isSame(serviceContainer.config.getXml(), config))
+        {
+            m_plan.add("servicecontainer", scName, TemplatePlan.Action.UNCHANGED, null);
+        }
         else
         // Update SC
         {
-            info("updating servicecontainer " + scName + " for machine " + machine.getName() + " ... ");
-            serviceGroup.updateServiceContainer(scName, machine.getName(), container.isAutomatic(), config.clone(),
-                    serviceContainer);
-            info("OK");
+            m_plan.add("servicecontainer", scName, TemplatePlan.Action.UPDATE, "on machine " + machine.getName());
+            if (!m_plan.isDryRun())
+            {
+                info("updating servicecontainer " + scName + " for machine " + machine.getName() + " ... ");
+                serviceGroup.updateServiceContainer(scName, machine.getName(), container.isAutomatic(), config.clone(),
+                        serviceContainer);
+                info("OK");
+            }
         }
     }
 }
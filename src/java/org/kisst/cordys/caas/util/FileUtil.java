@@ -16,6 +16,7 @@ import org.kisst.cordys.caas.support.LoadedPropertyMap.LoadedProperty;
 import sun.misc.BASE64Encoder;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
@@ -90,6 +91,26 @@ public class FileUtil
         }
     }
 
+    /**
+     * This method closes the given stream, reader or writer, if it is not null.
+     * 
+     * @param closeable The stream, reader or writer to close.
+     */
+    public static void close(Closeable closeable)
+    {
+        if (closeable != null)
+        {
+            try
+            {
+                closeable.close();
+            }
+            catch (IOException e)
+            {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * This method loads the proeprties from the given filename into the passed on properties object.
      * 
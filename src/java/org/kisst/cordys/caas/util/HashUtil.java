@@ -0,0 +1,130 @@
+/**
+ * Copyright 2008, 2009 Mark Hooijkaas This file is part of the Caas tool. The Caas tool is free software: you can redistribute it
+ * and/or modify it under the terms of the GNU General Public License as published by the Free Software Foundation, either version
+ * 3 of the License, or (at your option) any later version. The Caas tool is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * General Public License for more details. You should have received a copy of the GNU General Public License along with the Caas
+ * tool. If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.kisst.cordys.caas.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+
+/**
+ * This class contains helper methods for creating SHA-256 hashes of strings and files.
+ */
+public class HashUtil
+{
+    /** Holds the hex digits. */
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    /**
+     * This method creates a new SHA-256 digest.
+     *
+     * @return The digest.
+     */
+    public static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method adds the UTF-8 bytes of the given string to the digest.
+     *
+     * @param digest The digest.
+     * @param value The string to add.
+     */
+    public static void update(MessageDigest digest, String value)
+    {
+        try
+        {
+            digest.update(value.getBytes("UTF-8"));
+        }
+        catch (UnsupportedEncodingException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method returns the SHA-256 hash of the given string as hex string.
+     *
+     * @param value The string to hash.
+     * @return The hex encoded hash.
+     */
+    public static String sha256(String value)
+    {
+        MessageDigest digest = newDigest();
+        update(digest, value);
+        return toHex(digest.digest());
+    }
+
+    /**
+     * This method returns the SHA-256 hash of the content of the given file as hex string.
+     *
+     * @param file The file to hash.
+     * @return The hex encoded hash.
+     */
+    public static String sha256(File file)
+    {
+        MessageDigest digest = newDigest();
+        FileInputStream in = null;
+        try
+        {
+            in = new FileInputStream(file);
+            byte[] buffer = new byte[65536];
+            int len;
+            while ((len = in.read(buffer)) > 0)
+                digest.update(buffer, 0, len);
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+        finally
+        {
+            try
+            {
+                if (in != null)
+                    in.close();
+            }
+            catch (IOException e)
+            {
+                throw new CaasRuntimeException(e);
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * This method converts the given bytes to a lower case hex string.
+     *
+     * @param bytes The bytes.
+     * @return The hex string.
+     */
+    public static String toHex(byte[] bytes)
+    {
+        char[] result = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            result[i * 2] = HEX[(bytes[i] >> 4) & 0x0f];
+            result[i * 2 + 1] = HEX[bytes[i] & 0x0f];
+        }
+        return new String(result);
+    }
+}
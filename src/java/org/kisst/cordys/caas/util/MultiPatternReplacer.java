@@ -0,0 +1,193 @@
+package org.kisst.cordys.caas.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map.Entry;
+
+/**
+ * <p>
+ * This class replaces many literal strings in a text in a single pass, using the Aho-Corasick algorithm. The time needed does not
+ * depend on the number of strings, which makes it suitable for replacing the values of thousands of variables.
+ * </p>
+ * <p>
+ * The text is searched from left to right. When several strings match at the same position, the longest one is replaced. When two
+ * strings are equal, the one that was added first is used. Replaced text is never searched again.
+ * </p>
+ * <p>
+ * After all strings are added the replacer can be used by multiple threads at the same time.
+ * </p>
+ */
+public class MultiPatternReplacer
+{
+    /**
+     * Holds a state of the automaton.
+     */
+    private static class Node
+    {
+        /** Holds the transitions to the next states. */
+        private final HashMap<Character, Node> next = new HashMap<Character, Node>();
+        /** Holds the state for the longest proper suffix that is also a prefix of a string. */
+        private Node failure;
+        /** Holds the nearest state on the failure chain that ends a string, or null. */
+        private Node output;
+        /** Holds the index of the string that ends in this state, or -1. */
+        private int pattern = -1;
+        /** Holds the depth, which is the length of the string that ends in this state. */
+        private int depth;
+    }
+
+    /** Holds the root state. */
+    private final Node root = new Node();
+    /** Holds the replacements, by index of the string. */
+    private final ArrayList<String> replacements = new ArrayList<String>();
+    /** Holds whether the failure links are up to date. */
+    private boolean built;
+
+    /**
+     * This method adds a string to replace. Empty strings and strings that were added before are ignored.
+     *
+     * @param value The string to replace.
+     * @param replacement The replacement.
+     */
+    public synchronized void add(String value, String replacement)
+    {
+        if (StringUtil.isEmptyOrNull(value))
+        {
+            return;
+        }
+
+        Node node = root;
+        for (int i = 0; i < value.length(); i++)
+        {
+            Character c = value.charAt(i);
+            Node child = node.next.get(c);
+            if (child == null)
+            {
+                child = new Node();
+                child.depth = node.depth + 1;
+                node.next.put(c, child);
+            }
+            node = child;
+        }
+        if (node.pattern < 0)
+        {
+            node.pattern = replacements.size();
+            replacements.add(replacement);
+            built = false;
+        }
+    }
+
+    /**
+     * This method returns whether there are no strings to replace.
+     *
+     * @return true if there are no strings to replace.
+     */
+    public synchronized boolean isEmpty()
+    {
+        return replacements.isEmpty();
+    }
+
+    /**
+     * This method computes the failure and output links, breadth first.
+     */
+    private synchronized void build()
+    {
+        if (built)
+        {
+            return;
+        }
+        LinkedList<Node> queue = new LinkedList<Node>();
+        root.failure = root;
+        for (Node child : root.next.values())
+        {
+            child.failure = root;
+            child.output = null;
+            queue.add(child);
+        }
+        while (!queue.isEmpty())
+        {
+            Node node = queue.removeFirst();
+            for (Entry<Character, Node> e : node.next.entrySet())
+            {
+                Node child = e.getValue();
+                Node f = node.failure;
+                while (f != root && !f.next.containsKey(e.getKey()))
+                {
+                    f = f.failure;
+                }
+                Node target = f.next.get(e.getKey());
+                child.failure = (target == null || target == child) ? root : target;
+                child.output = child.failure.pattern >= 0 ? child.failure : child.failure.output;
+                queue.add(child);
+            }
+        }
+        built = true;
+    }
+
+    /**
+     * This method replaces all strings in the given text.
+     *
+     * @param text The text.
+     * @return The text with the strings replaced. If nothing was found the same text is returned.
+     */
+    public String replace(String text)
+    {
+        if (StringUtil.isEmptyOrNull(text) || isEmpty())
+        {
+            return text;
+        }
+        build();
+
+        // For every start position keep the longest string, and on equal length the first added string
+        int[] length = null;
+        int[] pattern = null;
+        Node node = root;
+        for (int i = 0; i < text.length(); i++)
+        {
+            Character c = text.charAt(i);
+            while (node != root && !node.next.containsKey(c))
+            {
+                node = node.failure;
+            }
+            Node next = node.next.get(c);
+            node = next == null ? root : next;
+
+            for (Node match = node.pattern >= 0 ? node : node.output; match != null; match = match.output)
+            {
+                if (length == null)
+                {
+                    length = new int[text.length()];
+                    pattern = new int[text.length()];
+                }
+                int start = i - match.depth + 1;
+                if (match.depth > length[start] || (match.depth == length[start] && match.pattern < pattern[start]))
+                {
+                    length[start] = match.depth;
+                    pattern[start] = match.pattern;
+                }
+            }
+        }
+        if (length == null)
+        {
+            return text;
+        }
+
+        StringBuilder result = new StringBuilder(text.length());
+        int i = 0;
+        while (i < text.length())
+        {
+            if (length[i] > 0)
+            {
+                result.append(replacements.get(pattern[i]));
+                i += length[i];
+            }
+            else
+            {
+                result.append(text.charAt(i));
+                i++;
+            }
+        }
+        return result.toString();
+    }
+}
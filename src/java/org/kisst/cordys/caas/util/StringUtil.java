@@ -4,8 +4,6 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 import java.util.UUID;
 
 import org.apache.log4j.Logger;
@@ -56,25 +54,12 @@ public class StringUtil
             LOG.debug("Before:\n" + text);
         }
 
-        for (String key : vars.keySet())
+        MultiPatternReplacer replacer = new MultiPatternReplacer();
+        for (Entry<String, String> e : vars.entrySet())
         {
-            String value = vars.get(key);
-
-            if (!isEmptyOrNull(value))
-            {
-                Pattern pattern = Pattern.compile("(" + Pattern.quote(value) + ")");
-                Matcher matcher = pattern.matcher(retVal);
-
-                StringBuffer buffer = new StringBuffer();
-                while (matcher.find())
-                {
-                    matcher.appendReplacement(buffer, "");
-                    buffer.append("${").append(key).append("}");
-                }
-                matcher.appendTail(buffer);
-                retVal = buffer.toString();
-            }
+            replacer.add(e.getValue(), "${" + e.getKey() + "}");
         }
+        retVal = replacer.replace(text);
 
         if (LOG.isDebugEnabled())
         {
@@ -183,22 +168,8 @@ public class StringUtil
             LOG.debug("Before:\n" + text);
         }
 
-        Pattern pattern = Pattern.compile("\\$\\{(.+?)\\}");
-        Matcher matcher = pattern.matcher(text);
-        StringBuffer buffer = new StringBuffer();
-        while (matcher.find())
-        {
-            String replacement = vars.get(matcher.group(1));
-            if (replacement != null)
-            {
-                matcher.appendReplacement(buffer, "");
-
-                //Recursively call itself to make sure the full value is expanded.
-                buffer.append(substitute(replacement, vars));
-            }
-        }
-        matcher.appendTail(buffer);
-        retVal = buffer.toString();
+        // The values are expanded as well, so that the full value is substituted.
+        retVal = new SubstitutionTemplate(text).render(vars);
 
         if (LOG.isDebugEnabled())
         {
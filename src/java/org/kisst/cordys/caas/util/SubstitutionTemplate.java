@@ -0,0 +1,218 @@
+package org.kisst.cordys.caas.util;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
+
+/**
+ * <p>
+ * This class holds a text with ${name} variables in compiled form. The text is parsed once into literal and variable segments, and
+ * can then be rendered any number of times in a single pass over the segments.
+ * </p>
+ * <p>
+ * The values of the variables can contain variables themselves, these are expanded as well. Every value is expanded only once per
+ * render, and a variable that refers to itself (directly or through other variables) results in an exception instead of an endless
+ * recursion. Variables that have no value are left in the text as they are.
+ * </p>
+ */
+public class SubstitutionTemplate
+{
+    /** Holds the text of the segments. For a variable segment this is the name of the variable. */
+    private final String[] segments;
+    /** Holds for each segment whether it is a variable. */
+    private final boolean[] variable;
+
+    /**
+     * Instantiates a new substitution template.
+     *
+     * @param text The text to compile.
+     */
+    public SubstitutionTemplate(String text)
+    {
+        ArrayList<String> parts = new ArrayList<String>();
+        ArrayList<Boolean> kinds = new ArrayList<Boolean>();
+
+        int literalStart = 0;
+        int pos = text.indexOf("${");
+        while (pos >= 0)
+        {
+            int end = findEnd(text, pos + 2);
+            if (end < 0)
+            {
+                pos = text.indexOf("${", pos + 1);
+                continue;
+            }
+            if (pos > literalStart)
+            {
+                parts.add(text.substring(literalStart, pos));
+                kinds.add(Boolean.FALSE);
+            }
+            parts.add(text.substring(pos + 2, end));
+            kinds.add(Boolean.TRUE);
+            literalStart = end + 1;
+            pos = text.indexOf("${", literalStart);
+        }
+        if (literalStart < text.length())
+        {
+            parts.add(text.substring(literalStart));
+            kinds.add(Boolean.FALSE);
+        }
+
+        segments = parts.toArray(new String[parts.size()]);
+        variable = new boolean[segments.length];
+        for (int i = 0; i < variable.length; i++)
+        {
+            variable[i] = kinds.get(i);
+        }
+    }
+
+    /**
+     * This method finds the closing brace of a variable. The name of a variable is at least one character long and does not span
+     * multiple lines.
+     *
+     * @param text The text.
+     * @param nameStart The position at which the name starts.
+     * @return The position of the closing brace, or -1 if this is not a variable.
+     */
+    private static int findEnd(String text, int nameStart)
+    {
+        for (int i = nameStart; i < text.length(); i++)
+        {
+            char c = text.charAt(i);
+            if (c == '\n' || c == '\r')
+            {
+                return -1;
+            }
+            if (c == '}' && i > nameStart)
+            {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * This method gets the names of the variables used in the text, in the order of their first use.
+     *
+     * @return The names of the variables.
+     */
+    public List<String> getVariables()
+    {
+        LinkedHashSet<String> result = new LinkedHashSet<String>();
+        for (int i = 0; i < segments.length; i++)
+        {
+            if (variable[i])
+            {
+                result.add(segments[i]);
+            }
+        }
+        return new ArrayList<String>(result);
+    }
+
+    /**
+     * This method renders the text with the given variables.
+     *
+     * @param vars The values of the variables.
+     * @return The rendered text.
+     */
+    public String render(Map<String, String> vars)
+    {
+        StringWriter result = new StringWriter();
+        render(vars, result);
+        return result.toString();
+    }
+
+    /**
+     * This method renders the text with the given variables to the given writer.
+     *
+     * @param vars The values of the variables.
+     * @param out The writer to write the rendered text to.
+     */
+    public void render(Map<String, String> vars, Writer out)
+    {
+        try
+        {
+            write(vars, out, new HashMap<String, String>(), new LinkedHashSet<String>());
+        }
+        catch (IOException e)
+        {
+            throw new CaasRuntimeException(e);
+        }
+    }
+
+    /**
+     * This method writes the segments.
+     *
+     * @param vars The values of the variables.
+     * @param out The writer.
+     * @param expanded Holds the values that have been expanded already during this render.
+     * @param busy Holds the variables that are being expanded, to detect cycles.
+     * @throws IOException In case writing fails.
+     */
+    private void write(Map<String, String> vars, Writer out, Map<String, String> expanded, LinkedHashSet<String> busy)
+            throws IOException
+    {
+        for (int i = 0; i < segments.length; i++)
+        {
+            String text = segments[i];
+            if (!variable[i])
+            {
+                out.write(text);
+                continue;
+            }
+
+            String value = expanded.get(text);
+            if (value == null)
+            {
+                String raw = vars.get(text);
+                if (raw == null)
+                {
+                    // Unknown variables are left as they are
+                    out.write("${");
+                    out.write(text);
+                    out.write("}");
+                    continue;
+                }
+                if (!busy.add(text))
+                {
+                    throw new CaasRuntimeException("Variable " + text + " refers to itself: " + StringUtil.join(busy.iterator(), " -> ")
+                            + " -> " + text);
+                }
+                StringWriter buffer = new StringWriter(raw.length());
+                new SubstitutionTemplate(raw).write(vars, buffer, expanded, busy);
+                busy.remove(text);
+                value = buffer.toString();
+                expanded.put(text, value);
+            }
+            out.write(value);
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString()
+    {
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < segments.length; i++)
+        {
+            if (variable[i])
+            {
+                result.append("${").append(segments[i]).append("}");
+            }
+            else
+            {
+                result.append(segments[i]);
+            }
+        }
+        return result.toString();
+    }
+}
@@ -1,10 +1,7 @@
 package org.kisst.cordys.caas.util;
 
-import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * <p>
@@ -14,6 +11,10 @@ import java.util.regex.Pattern;
  * It will look at all attribute values and text nodes to see if there is data that could be replaced. It will of course ignore
  * empty values.
  * </p>
+ * <p>
+ * All values are searched at the same time in a single pass over each text, so the number of variables hardly matters. Where
+ * values overlap the longest value wins.
+ * </p>
  * 
  * @author pgussow
  */
@@ -23,8 +24,8 @@ public class XMLSubstitution
     private XmlNode m_xml;
     /** Holds the variables and their values. Note that we will be searching for the m_vars.getValue() */
     private Map<String, String> m_vars;
-    /** Holds the regex patterns for each variable */
-    private Map<String, Pattern> m_patterns = new LinkedHashMap<String, Pattern>();
+    /** Holds the replacer that replaces all values with their variable */
+    private MultiPatternReplacer m_replacer = new MultiPatternReplacer();
 
     /**
      * Instantiates a new xML substitution.
@@ -34,16 +35,22 @@ public class XMLSubstitution
      */
     public XMLSubstitution(String xml, Map<String, String> variables)
     {
+        this(variables);
         m_xml = new XmlNode(xml);
+    }
+
+    /**
+     * Instantiates a new xML substitution that can be used for many XML fragments. The variables are only prepared once.
+     * 
+     * @param variables The variables
+     */
+    public XMLSubstitution(Map<String, String> variables)
+    {
         m_vars = variables;
 
         for (Entry<String, String> s : m_vars.entrySet())
         {
-            if (!StringUtil.isEmptyOrNull(s.getValue()))
-            {
-                Pattern pattern = Pattern.compile("(" + Pattern.quote(s.getValue()) + ")");
-                m_patterns.put(s.getKey(), pattern);
-            }
+            m_replacer.add(s.getValue(), "${" + s.getKey() + "}");
         }
     }
 
@@ -59,6 +66,30 @@ public class XMLSubstitution
         return m_xml;
     }
 
+    /**
+     * This method does the substitution on the given XML. It will search the XML and find all instances of the parameter values.
+     * 
+     * @param xml The XML to substitute. It is changed in place.
+     * @return The same XML.
+     */
+    public XmlNode execute(XmlNode xml)
+    {
+        processNode(xml);
+
+        return xml;
+    }
+
+    /**
+     * This method replaces the parameter values in a single text, like an attribute value.
+     * 
+     * @param text The text to search.
+     * @return The new text.
+     */
+    public String replace(String text)
+    {
+        return StringUtil.isEmptyOrNull(text) ? text : replaceText(text);
+    }
+
     /**
      * This method will process the content of the given XML node.
      * 
@@ -95,42 +126,14 @@ public class XMLSubstitution
     }
 
     /**
-     * THis method will find a value and replace it with the key name like ${key}. As soon as 1 value was found it will stop
-     * looking at the other values.
+     * This method will find the values and replace them with the key name like ${key}. The replaced text is not searched again, so
+     * values are never replaced within parameter names.
      * 
      * @param text The text to search.
      * @return The new text. If no variable values were foud it will return the same input text.
      */
     private String replaceText(String text)
     {
-        for (Entry<String, String> entry : m_vars.entrySet())
-        {
-            if (!StringUtil.isEmptyOrNull(entry.getValue()) && m_patterns.containsKey(entry.getKey()))
-            {
-                Pattern p = m_patterns.get(entry.getKey());
-
-                Matcher matcher = p.matcher(text);
-
-                boolean found = false;
-                StringBuffer buffer = new StringBuffer();
-                while (matcher.find())
-                {
-                    found = true;
-
-                    matcher.appendReplacement(buffer, "");
-                    buffer.append("${").append(entry.getKey()).append("}");
-                }
-                matcher.appendTail(buffer);
-
-                text = buffer.toString();
-
-                if (found)
-                {
-                    // If a parameter was found, we'll exit the loop to avoid replacement within parameter names.
-                    break;
-                }
-            }
-        }
-        return text;
+        return m_replacer.replace(text);
     }
 }
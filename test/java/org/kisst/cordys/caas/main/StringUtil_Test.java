@@ -5,6 +5,7 @@ import java.util.Map;
 
 import org.junit.Assert;
 import org.junit.Test;
+import org.kisst.cordys.caas.exception.CaasRuntimeException;
 import org.kisst.cordys.caas.util.StringUtil;
 
 /**
@@ -27,6 +28,32 @@ public class StringUtil_Test
         Assert.assertEquals("My\nsub.val.1: MyNiceValue\nsub.val.2: OtherValue\nNon existing: ${sub.val.3}tricky}", tmp);
     }
 
+    /**
+     * This test case tests that values containing variables are expanded as well, and that a variable referring to itself fails.
+     */
+    @Test
+    public void testNestedSubstitute()
+    {
+        Map<String, String> replacements = new LinkedHashMap<String, String>();
+        replacements.put("host", "${name}.${domain}");
+        replacements.put("name", "cordys");
+        replacements.put("domain", "example.com");
+        replacements.put("cycle.1", "a${cycle.2}");
+        replacements.put("cycle.2", "b${cycle.1}");
+
+        Assert.assertEquals("http://cordys.example.com:${port}/", StringUtil.substitute("http://${host}:${port}/", replacements));
+
+        try
+        {
+            StringUtil.substitute("${cycle.1}", replacements);
+            Assert.fail("A cycle should not be expanded");
+        }
+        catch (CaasRuntimeException e)
+        {
+            // Expected
+        }
+    }
+
     /**
      * This test case tests if the reverse substitution works.
      */
@@ -41,4 +68,19 @@ public class StringUtil_Test
                 "My\nsub.val.1: MyNiceValue\nsub.val.2: OtherValue\nNon existing: ${sub.val.3}tricky}", replacements);
         Assert.assertEquals("My\nsub.val.1: ${sub.val.1}\nsub.val.2: ${sub.val.2}\nNon existing: ${sub.val.3}tricky}", tmp);
     }
+
+    /**
+     * This test case tests that overlapping values are replaced by the longest value, and that replaced text is not searched again.
+     */
+    @Test
+    public void testReverseSubstituteOverlap()
+    {
+        Map<String, String> replacements = new LinkedHashMap<String, String>();
+        replacements.put("name", "cordys");
+        replacements.put("host", "cordys.example.com");
+        replacements.put("word", "host");
+
+        String tmp = StringUtil.reverseSubstitute("host cordys.example.com and cordys", replacements);
+        Assert.assertEquals("${word} ${host} and ${name}", tmp);
+    }
 }
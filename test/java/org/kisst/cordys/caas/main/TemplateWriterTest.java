@@ -0,0 +1,157 @@
+package org.kisst.cordys.caas.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.JAXB;
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.junit.Test;
+import org.kisst.caas._2_0.template.DSO;
+import org.kisst.caas._2_0.template.Organization;
+import org.kisst.caas._2_0.template.Role;
+import org.kisst.caas._2_0.template.RoleType;
+import org.kisst.caas._2_0.template.User;
+import org.kisst.caas._2_0.template.XMLStoreObject;
+import org.kisst.caas._2_0.template.XMLStoreVersion;
+import org.kisst.cordys.caas.template.TemplateBinding;
+import org.kisst.cordys.caas.template.TemplateWriter;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Checks that a template written by the TemplateWriter can be read back.
+ */
+public class TemplateWriterTest
+{
+    /** Holds the namespace of the XMLStore content. */
+    private static final String CONFIG_NS = "http://example.com/config";
+
+    /**
+     * Reads a written template back element by element.
+     */
+    @Test
+    public void testReadBack()
+    {
+        final List<Object> elements = new ArrayList<Object>();
+        TemplateBinding.read(new StringReader(write()), new TemplateBinding.Handler() {
+            public void element(Object element)
+            {
+                elements.add(element);
+            }
+        });
+
+        assertEquals(4, elements.size());
+        DSO dso = (DSO) elements.get(0);
+        assertEquals("main", dso.getName());
+        assertEquals("Database on ${db.host}", dso.getDesc());
+
+        XMLStoreObject xso = (XMLStoreObject) elements.get(1);
+        assertEquals("/Cordys/config.xml", xso.getKey());
+        assertEquals(XMLStoreVersion.ORGANIZATION, xso.getVersion());
+        Element config = xso.getAny();
+        assertEquals("config", config.getLocalName());
+        assertEquals(CONFIG_NS, config.getNamespaceURI());
+        assertEquals("${db.host}", config.getElementsByTagNameNS(CONFIG_NS, "host").item(0).getTextContent());
+
+        assertEquals("developer", ((Role) elements.get(2)).getName());
+        User user = (User) elements.get(3);
+        assertEquals("jdoe", user.getName());
+        assertEquals(1, user.getRole().size());
+        assertEquals("developer", user.getRole().get(0).getName());
+    }
+
+    /**
+     * Reads a written template in one go, as templates used to be read.
+     */
+    @Test
+    public void testUnmarshal()
+    {
+        String xml = write();
+        Organization org = JAXB.unmarshal(new StringReader(xml), Organization.class);
+
+        assertEquals("${org}", org.getOrg());
+        assertEquals(1, org.getDso().size());
+        assertEquals(1, org.getXmlstoreobject().size());
+        assertEquals(1, org.getRole().size());
+        assertEquals(1, org.getUser().size());
+        assertEquals("Database on ${db.host}", org.getDso().get(0).getDesc());
+        assertTrue(xml.startsWith("<org xmlns=\"" + TemplateBinding.NAMESPACE + "\""));
+    }
+
+    /**
+     * Writes a template with one element of each kind.
+     *
+     * @return The template XML.
+     */
+    private String write()
+    {
+        Map<String, String> vars = new LinkedHashMap<String, String>();
+        vars.put("org", "myorg");
+        vars.put("db.host", "myhost");
+
+        StringWriter out = new StringWriter();
+        TemplateWriter writer = new TemplateWriter(out, "myorg", vars);
+
+        DSO dso = new DSO();
+        dso.setName("main");
+        dso.setDesc("Database on myhost");
+        writer.write(dso);
+
+        XMLStoreObject xso = new XMLStoreObject();
+        xso.setKey("/Cordys/config.xml");
+        xso.setVersion(XMLStoreVersion.ORGANIZATION);
+        xso.setName("config.xml");
+        xso.setAny(createConfig());
+        writer.write(xso);
+
+        Role role = new Role();
+        role.setName("developer");
+        role.setType(RoleType.FUNCTIONAL);
+        writer.write(role);
+
+        User user = new User();
+        user.setName("jdoe");
+        user.setAu("jdoe");
+        Role assigned = new Role();
+        assigned.setName("developer");
+        assigned.setType(RoleType.FUNCTIONAL);
+        user.getRole().add(assigned);
+        writer.write(user);
+
+        writer.close();
+        return out.toString();
+    }
+
+    /**
+     * Creates the content of the XMLStore object, in its own namespace.
+     *
+     * @return The content.
+     */
+    private Element createConfig()
+    {
+        try
+        {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            Document doc = factory.newDocumentBuilder().newDocument();
+            Element config = doc.createElementNS(CONFIG_NS, "config");
+            Element host = doc.createElementNS(CONFIG_NS, "host");
+            host.setTextContent("myhost");
+            config.appendChild(host);
+            doc.appendChild(config);
+            return config;
+        }
+        catch (Exception e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+}